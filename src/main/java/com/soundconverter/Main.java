@@ -1,5 +1,7 @@
 package com.soundconverter;
 
+import com.soundconverter.dao.DatabaseConnection;
+
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -22,6 +24,12 @@ public class Main extends Application {
         }
     }
 
+    @Override
+    public void stop() {
+        // Đóng vùng kết nối và in thống kê sử dụng khi thoát ứng dụng
+        DatabaseConnection.getInstance().closeConnection();
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
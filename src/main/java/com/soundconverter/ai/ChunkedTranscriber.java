@@ -0,0 +1,375 @@
+package com.soundconverter.ai;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.soundconverter.services.AppConfig;
+import com.soundconverter.services.AudioProcessingService;
+import com.soundconverter.services.DiskLruCache;
+import com.soundconverter.services.WavPcmEngine;
+
+/**
+ * Phiên âm file dài bằng cách chia thành các cửa sổ chồng lấn và chạy Whisper song song.
+ * Điểm chia được dời tới chỗ im lặng nhất gần ranh giới cửa sổ. Mỗi cửa sổ được mở rộng
+ * thêm một khoảng chồng lấn ở hai đầu; sau khi phiên âm, mốc thời gian được cộng lại vị trí
+ * của cửa sổ và mỗi từ chỉ được giữ ở cửa sổ "sở hữu" điểm giữa của nó, nhờ đó các từ
+ * trùng lặp trong vùng chồng lấn bị loại bỏ.
+ */
+public class ChunkedTranscriber {
+
+    /**
+     * Chạy Whisper cho một cửa sổ, ghi kết quả ra file phụ đề SRT
+     */
+    public interface ChunkRunner {
+        /**
+         * @param concurrentJobs Số cửa sổ đang được phiên âm đồng thời
+         */
+        boolean transcribe(File chunkFile, File outputFile, int concurrentJobs);
+    }
+
+    // Độ dài khung tính năng lượng khi tìm điểm im lặng
+    private static final int ENERGY_FRAME_MS = 20;
+
+    private final int windowMs;
+    private final int overlapMs;
+    private final int searchMs;
+    private final int parallelism;
+
+    public ChunkedTranscriber() {
+        this(AppConfig.getInt("whisper.chunk.seconds", 60) * 1000,
+             AppConfig.getInt("whisper.chunk.overlap.ms", 2000),
+             AppConfig.getInt("whisper.chunk.search.ms", 5000),
+             AppConfig.getInt("whisper.chunk.parallelism", 0));
+    }
+
+    /**
+     * @param windowMs Độ dài danh nghĩa của mỗi cửa sổ
+     * @param overlapMs Khoảng chồng lấn thêm vào mỗi đầu cửa sổ
+     * @param searchMs Khoảng tìm điểm im lặng quanh mỗi ranh giới
+     * @param parallelism Số cửa sổ được phiên âm đồng thời, 0 = số nhân CPU
+     */
+    public ChunkedTranscriber(int windowMs, int overlapMs, int searchMs, int parallelism) {
+        this.windowMs = Math.max(10000, windowMs);
+        this.overlapMs = Math.max(0, overlapMs);
+        this.searchMs = Math.max(0, searchMs);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getWindowMs() {
+        return windowMs;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Một cửa sổ cần phiên âm: vùng sở hữu [ownStart, ownEnd) và vùng thực sự cắt [start, end)
+     */
+    static final class Window {
+        final int index;
+        final int ownStartMs;
+        final int ownEndMs;
+        final int startMs;
+        final int endMs;
+
+        Window(int index, int ownStartMs, int ownEndMs, int startMs, int endMs) {
+            this.index = index;
+            this.ownStartMs = ownStartMs;
+            this.ownEndMs = ownEndMs;
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+    }
+
+    /**
+     * Một dòng kết quả đã quy về thời gian toàn cục
+     */
+    static final class TimedLine {
+        final int startMs;
+        final int endMs;
+        final String text;
+
+        TimedLine(int startMs, int endMs, String text) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Phiên âm file âm thanh theo từng cửa sổ và ghi kết quả đã ghép vào outputFile
+     * @param audioFile File âm thanh nguồn
+     * @param outputFile File phụ đề SRT kết quả
+     * @param workDir Thư mục tạm cho các file cửa sổ
+     * @param runner Hàm chạy Whisper cho một cửa sổ
+     * @return true nếu mọi cửa sổ được phiên âm thành công
+     */
+    public boolean transcribe(File audioFile, File outputFile, File workDir, ChunkRunner runner) throws IOException {
+        return transcribe(audioFile, outputFile, workDir, runner, null);
+    }
+
+    /**
+     * Phiên âm file âm thanh theo từng cửa sổ, báo từng dòng đã ghép cho listener khi cửa sổ
+     * chứa nó và mọi cửa sổ trước đó đã phiên âm xong
+     * @param listener Nhận các dòng kết quả trong lúc phiên âm, có thể null
+     */
+    public boolean transcribe(File audioFile, File outputFile, File workDir, ChunkRunner runner,
+                              SrtParser.CueHandler listener) throws IOException {
+        Files.createDirectories(workDir.toPath());
+        // Bản PCM 16 kHz mono dùng chung từ bộ đệm, cắt chính xác theo mẫu; được giữ tới khi mọi cửa sổ xong
+        try (DiskLruCache.Handle pcm = AudioProcessingService.getInstance().acquireWhisperPcm(audioFile)) {
+            long started = System.currentTimeMillis();
+
+            File pcmFile = pcm.getFile();
+            WavPcmEngine.WavFormat format = WavPcmEngine.readFormat(pcmFile);
+            List<Window> windows = planWindows(pcmFile, format);
+            System.err.println("Chia file thành " + windows.size() + " cửa sổ, phiên âm song song " +
+                               Math.min(parallelism, windows.size()) + " cửa sổ");
+
+            List<TimedLine> merged = runWindows(pcmFile, windows, workDir, runner, listener);
+            if (merged == null) {
+                return false;
+            }
+
+            writeLines(merged, outputFile);
+            System.err.println("Phiên âm theo cửa sổ xong: " + merged.size() + " dòng sau " +
+                               (System.currentTimeMillis() - started) + " ms");
+            return true;
+        } finally {
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * Chọn các điểm chia gần bội số của độ dài cửa sổ, dời tới khung có năng lượng thấp nhất trong khoảng tìm
+     */
+    List<Window> planWindows(File pcmFile, WavPcmEngine.WavFormat format) throws IOException {
+        int durationMs = (int) format.getDurationMs();
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+
+        try (FileChannel channel = FileChannel.open(pcmFile.toPath(), StandardOpenOption.READ)) {
+            int nominal = windowMs;
+            while (nominal < durationMs - windowMs / 4) {
+                int cut = findQuietPoint(channel, format, nominal,
+                        Math.max(cuts.get(cuts.size() - 1) + windowMs / 2, nominal - searchMs),
+                        Math.min(durationMs, nominal + searchMs));
+                cuts.add(cut);
+                nominal = cut + windowMs;
+            }
+        }
+        cuts.add(durationMs);
+
+        List<Window> windows = new ArrayList<>(cuts.size() - 1);
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            int ownStart = cuts.get(i);
+            int ownEnd = cuts.get(i + 1);
+            windows.add(new Window(i, ownStart, ownEnd,
+                    Math.max(0, ownStart - overlapMs), Math.min(durationMs, ownEnd + overlapMs)));
+        }
+        return windows;
+    }
+
+    private int findQuietPoint(FileChannel channel, WavPcmEngine.WavFormat format, int targetMs, int fromMs, int toMs) throws IOException {
+        if (toMs <= fromMs || format.getBitsPerSample() != 16) {
+            return targetMs;
+        }
+
+        int blockAlign = format.getBlockAlign();
+        long fromFrame = (long) fromMs * format.getSampleRate() / 1000;
+        long toFrame = Math.min((long) toMs * format.getSampleRate() / 1000, format.getDataLength() / blockAlign);
+        if (toFrame <= fromFrame) {
+            return targetMs;
+        }
+
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                format.getDataOffset() + fromFrame * blockAlign, (toFrame - fromFrame) * blockAlign)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        int frameSamples = Math.max(1, format.getSampleRate() * ENERGY_FRAME_MS / 1000);
+        long totalFrames = toFrame - fromFrame;
+        long bestEnergy = Long.MAX_VALUE;
+        long bestFrame = (long) targetMs * format.getSampleRate() / 1000 - fromFrame;
+        long bestDistance = Long.MAX_VALUE;
+        long targetFrame = bestFrame;
+
+        for (long frame = 0; frame + frameSamples <= totalFrames; frame += frameSamples) {
+            long energy = 0;
+            for (int i = 0; i < frameSamples; i++) {
+                // Chỉ dùng kênh đầu tiên, đủ để phát hiện im lặng
+                int sample = buffer.getShort((int) ((frame + i) * blockAlign));
+                energy += (long) sample * sample;
+            }
+            long center = frame + frameSamples / 2;
+            long distance = Math.abs(center - targetFrame);
+            // Ưu tiên khung gần ranh giới danh nghĩa khi năng lượng bằng nhau
+            if (energy < bestEnergy || (energy == bestEnergy && distance < bestDistance)) {
+                bestEnergy = energy;
+                bestFrame = center;
+                bestDistance = distance;
+            }
+        }
+        return (int) ((fromFrame + bestFrame) * 1000 / format.getSampleRate());
+    }
+
+    /**
+     * Phiên âm các cửa sổ song song và ghép kết quả theo thứ tự cửa sổ ngay khi có thể
+     * @return Các dòng đã ghép, null nếu có cửa sổ lỗi
+     */
+    private List<TimedLine> runWindows(File pcmFile, List<Window> windows, File workDir, ChunkRunner runner,
+                                       SrtParser.CueHandler listener) throws IOException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        int concurrentJobs = Math.min(parallelism, windows.size());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrentJobs, runnable -> {
+            Thread thread = new Thread(runnable, "whisper-chunk-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        WavPcmEngine pcmEngine = new WavPcmEngine();
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Integer>> futures = new ArrayList<>(windows.size());
+        List<List<TimedLine>> results = new ArrayList<>(Collections.nCopies(windows.size(), null));
+
+        try {
+            for (Window window : windows) {
+                futures.add(completion.submit(() -> {
+                    File chunkFile = new File(workDir, String.format("chunk_%04d.wav", window.index));
+                    File chunkOutput = new File(workDir, String.format("chunk_%04d.srt", window.index));
+                    pcmEngine.concat(Collections.singletonList(
+                            new WavPcmEngine.Slice(pcmFile, window.startMs, window.endMs)), chunkFile);
+
+                    if (!runner.transcribe(chunkFile, chunkOutput, concurrentJobs)) {
+                        throw new IOException("Không thể phiên âm cửa sổ " + (window.index + 1));
+                    }
+                    results.set(window.index, readLines(chunkOutput, window.startMs));
+                    chunkFile.delete();
+                    chunkOutput.delete();
+                    return window.index;
+                }));
+            }
+
+            List<TimedLine> merged = new ArrayList<>();
+            // Chỉ đọc kết quả của cửa sổ đã qua Future.get(): get() bảo đảm thấy được kết quả luồng thợ đã ghi
+            boolean[] done = new boolean[windows.size()];
+            int nextToMerge = 0;
+            for (int i = 0; i < windows.size(); i++) {
+                int index = completion.take().get();
+                done[index] = true;
+                System.err.println("Đã phiên âm cửa sổ " + (index + 1) + "/" + windows.size());
+
+                // Các cửa sổ liền nhau từ đầu đã xong: kết quả của chúng không còn thay đổi
+                while (nextToMerge < windows.size() && done[nextToMerge]) {
+                    int from = merged.size();
+                    mergeWindow(windows, windows.get(nextToMerge), results.get(nextToMerge), merged);
+                    if (listener != null) {
+                        for (TimedLine line : merged.subList(from, merged.size())) {
+                            listener.onCue(line.startMs, line.endMs, line.text);
+                        }
+                    }
+                    nextToMerge++;
+                }
+            }
+            return merged;
+        } catch (ExecutionException e) {
+            System.err.println("Lỗi khi phiên âm theo cửa sổ: " + e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Quá trình phiên âm bị gián đoạn");
+        } finally {
+            for (Future<Integer> future : futures) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Ghép kết quả các cửa sổ: giữ mỗi dòng ở cửa sổ chứa điểm giữa của nó,
+     * sau đó bỏ các từ lặp lại ngay tại ranh giới
+     */
+    List<TimedLine> mergeWindows(List<Window> windows, List<List<TimedLine>> results) {
+        List<TimedLine> merged = new ArrayList<>();
+        for (Window window : windows) {
+            mergeWindow(windows, window, results.get(window.index), merged);
+        }
+        return merged;
+    }
+
+    private void mergeWindow(List<Window> windows, Window window, List<TimedLine> lines, List<TimedLine> merged) {
+        boolean last = window.index == windows.size() - 1;
+        for (TimedLine line : lines) {
+            int middle = (line.startMs + line.endMs) / 2;
+            if (middle < window.ownStartMs || (middle >= window.ownEndMs && !last)) {
+                continue;
+            }
+            if (!merged.isEmpty()) {
+                TimedLine previous = merged.get(merged.size() - 1);
+                if (line.startMs < previous.endMs && normalize(line.text).equals(normalize(previous.text))) {
+                    continue;
+                }
+            }
+            merged.add(line);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text.replaceAll("[\\p{Punct}\\s]+", "").toLowerCase();
+    }
+
+    /**
+     * Đọc kết quả của một cửa sổ và cộng thêm vị trí của cửa sổ vào mốc thời gian
+     */
+    private List<TimedLine> readLines(File chunkOutput, int offsetMs) throws IOException {
+        List<TimedLine> lines = new ArrayList<>();
+        if (!chunkOutput.exists()) {
+            return lines;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(chunkOutput.toPath(), StandardCharsets.UTF_8)) {
+            SrtParser.parse(reader, (startMs, endMs, text) ->
+                    lines.add(new TimedLine(offsetMs + startMs, offsetMs + endMs, text)));
+        }
+        return lines;
+    }
+
+    private static void writeLines(List<TimedLine> lines, File outputFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+            int index = 1;
+            for (TimedLine line : lines) {
+                writer.write((index++) + "\n");
+                writer.write(SrtParser.formatTimestamp(line.startMs) + " --> " + SrtParser.formatTimestamp(line.endMs) + "\n");
+                writer.write(line.text);
+                writer.write("\n\n");
+            }
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
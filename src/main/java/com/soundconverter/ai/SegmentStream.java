@@ -0,0 +1,167 @@
+package com.soundconverter.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.soundconverter.dao.AudioSegmentDAO;
+import com.soundconverter.models.AudioSegment;
+
+/**
+ * Nhận các phân đoạn thô theo thứ tự thời gian trong lúc Whisper đang chạy, nhóm chúng theo độ dài
+ * phân đoạn (cùng quy tắc với WhisperService.groupSegments), lưu dần vào database theo lô và
+ * chuyển các phân đoạn đã hoàn chỉnh tới người nghe. Ghi lại thời gian tới phân đoạn đầu tiên.
+ */
+class SegmentStream {
+
+    // Lưu vào database khi đủ số phân đoạn này hoặc sau khoảng thời gian này
+    private static final int PERSIST_BATCH_SIZE = 32;
+    private static final long PERSIST_INTERVAL_MS = 500;
+
+    private final int fileId;
+    private final int segmentLengthMs;
+    private final AudioSegmentDAO segmentDAO;
+    private final WhisperService.TranscriptionListener listener;
+    private final long startedAt;
+
+    private final List<AudioSegment> emitted = new ArrayList<>();
+    private final List<AudioSegment> pendingPersist = new ArrayList<>();
+    private long lastPersistAt;
+    private long firstSegmentMs = -1;
+    private int lastRawStartMs = -1;
+
+    // Nhóm đang được gom khi segmentLengthMs > 0
+    private AudioSegment currentGroup;
+    private StringBuilder currentText;
+    private int groupEndLimitMs;
+
+    SegmentStream(int fileId, int segmentLengthMs, AudioSegmentDAO segmentDAO,
+                  WhisperService.TranscriptionListener listener, long startedAt) {
+        this.fileId = fileId;
+        this.segmentLengthMs = segmentLengthMs;
+        this.segmentDAO = segmentDAO;
+        this.listener = listener;
+        this.startedAt = startedAt;
+        this.lastPersistAt = startedAt;
+    }
+
+    /**
+     * Nhận một phân đoạn thô. Phân đoạn có thời điểm bắt đầu lùi về trước bị bỏ qua
+     * (kết quả cuối cùng vẫn được đối chiếu khi kết thúc)
+     */
+    synchronized void accept(int startMs, int endMs, String text) {
+        if (text == null || text.trim().isEmpty() || startMs < lastRawStartMs) {
+            return;
+        }
+        lastRawStartMs = startMs;
+        text = text.trim();
+
+        if (segmentLengthMs <= 0) {
+            deliver(newSegment(startMs, endMs, text));
+            return;
+        }
+
+        if (currentGroup != null && startMs < groupEndLimitMs) {
+            currentText.append(' ').append(text);
+            currentGroup.setEndTime(endMs);
+            return;
+        }
+        closeGroup();
+        currentGroup = newSegment(startMs, endMs, null);
+        currentText = new StringBuilder(text);
+        groupEndLimitMs = startMs + segmentLengthMs;
+    }
+
+    /**
+     * Kết thúc luồng: đóng nhóm cuối và lưu các phân đoạn còn lại
+     * @return Toàn bộ phân đoạn đã phát, theo thứ tự
+     */
+    synchronized List<AudioSegment> finish() {
+        closeGroup();
+        persistPending();
+        return new ArrayList<>(emitted);
+    }
+
+    synchronized int getEmittedCount() {
+        return emitted.size();
+    }
+
+    /**
+     * Thời gian từ lúc bắt đầu phiên âm tới phân đoạn đầu tiên (ms), -1 nếu chưa có
+     */
+    synchronized long getFirstSegmentMs() {
+        return firstSegmentMs;
+    }
+
+    /**
+     * Kiểm tra các phân đoạn đã phát có trùng với kết quả cuối cùng hay không
+     */
+    synchronized boolean matches(List<AudioSegment> finalSegments) {
+        if (finalSegments.size() != emitted.size()) {
+            return false;
+        }
+        for (int i = 0; i < emitted.size(); i++) {
+            AudioSegment a = emitted.get(i);
+            AudioSegment b = finalSegments.get(i);
+            if (a.getStartTime() != b.getStartTime() || a.getEndTime() != b.getEndTime() ||
+                !a.getText().equals(b.getText())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void closeGroup() {
+        if (currentGroup != null) {
+            currentGroup.setText(currentText.toString().trim());
+            deliver(currentGroup);
+            currentGroup = null;
+            currentText = null;
+        }
+    }
+
+    private AudioSegment newSegment(int startMs, int endMs, String text) {
+        AudioSegment segment = new AudioSegment();
+        segment.setFileId(fileId);
+        segment.setStartTime(startMs);
+        segment.setEndTime(endMs);
+        segment.setText(text);
+        return segment;
+    }
+
+    private void deliver(AudioSegment segment) {
+        long now = System.currentTimeMillis();
+        if (firstSegmentMs < 0) {
+            firstSegmentMs = now - startedAt;
+            System.err.println("Phân đoạn đầu tiên sau " + firstSegmentMs + " ms");
+        }
+        emitted.add(segment);
+        pendingPersist.add(segment);
+
+        if (pendingPersist.size() >= PERSIST_BATCH_SIZE || now - lastPersistAt >= PERSIST_INTERVAL_MS) {
+            persistPending();
+        }
+    }
+
+    /**
+     * Lưu các phân đoạn đang chờ rồi mới báo cho người nghe, để phân đoạn trên giao diện đã có id
+     */
+    private void persistPending() {
+        if (pendingPersist.isEmpty()) {
+            return;
+        }
+        List<AudioSegment> batch = new ArrayList<>(pendingPersist);
+        pendingPersist.clear();
+        lastPersistAt = System.currentTimeMillis();
+
+        if (segmentDAO != null) {
+            segmentDAO.appendSegments(batch);
+        }
+        if (listener != null) {
+            try {
+                listener.onSegments(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Lỗi khi gửi phân đoạn tới giao diện: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.soundconverter.ai;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.soundconverter.models.AudioSegment;
+
+/**
+ * Đọc phụ đề SRT/WebVTT trong một lượt duy nhất, không dùng biểu thức chính quy và không qua file trung gian.
+ * Mốc thời gian được đọc trực tiếp từ các chữ số, nội dung nhiều dòng của một cue được nối bằng một
+ * StringBuilder dùng lại. Chấp nhận dấu phẩy hoặc dấu chấm trước phần mili giây, giờ có thể vắng mặt (WebVTT),
+ * BOM ở đầu file, dòng kết thúc CRLF và phần thiết lập cue sau mốc kết thúc.
+ */
+public final class SrtParser {
+
+    /**
+     * Nhận từng cue theo thứ tự trong file
+     */
+    @FunctionalInterface
+    public interface CueHandler {
+        void onCue(int startMs, int endMs, String text);
+    }
+
+    private static final String ARROW = "-->";
+
+    private SrtParser() {
+    }
+
+    /**
+     * Đọc file SRT/VTT thành danh sách AudioSegment
+     */
+    public static List<AudioSegment> parse(File file, int fileId) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return parse(reader, fileId);
+        }
+    }
+
+    /**
+     * Đọc nội dung SRT/VTT thành danh sách AudioSegment
+     */
+    public static List<AudioSegment> parse(String content, int fileId) {
+        try {
+            return parse(new StringReader(content), fileId);
+        } catch (IOException e) {
+            // StringReader không ném IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static List<AudioSegment> parse(Reader reader, int fileId) throws IOException {
+        List<AudioSegment> segments = new ArrayList<>();
+        parse(reader, (startMs, endMs, text) -> {
+            AudioSegment segment = new AudioSegment();
+            segment.setFileId(fileId);
+            segment.setStartTime(startMs);
+            segment.setEndTime(endMs);
+            segment.setText(text);
+            segments.add(segment);
+        });
+        return segments;
+    }
+
+    /**
+     * Đọc nội dung SRT/VTT và gọi handler cho mỗi cue có nội dung
+     * @return Số cue đã gọi handler
+     */
+    public static int parse(Reader reader, CueHandler handler) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        StringBuilder text = new StringBuilder(128);
+        long[] timing = new long[2];
+        int count = 0;
+        boolean first = true;
+
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (first) {
+                first = false;
+                if (!line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                    line = line.substring(1);
+                }
+            }
+            // Số thứ tự cue, tiêu đề WEBVTT, khối NOTE... không chứa mũi tên và được bỏ qua
+            if (line.indexOf(ARROW) < 0 || !parseTiming(line, 0, line.length(), timing)) {
+                continue;
+            }
+
+            text.setLength(0);
+            while ((line = lines.readLine()) != null && !isBlank(line)) {
+                if (text.length() > 0) {
+                    text.append(' ');
+                }
+                appendTrimmed(text, line);
+            }
+            if (text.length() > 0) {
+                handler.onCue((int) timing[0], (int) timing[1], text.toString());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Đọc dòng mốc thời gian "HH:MM:SS,mmm --> HH:MM:SS,mmm" trong khoảng [from, to) của một chuỗi
+     * @param timing Nhận thời điểm bắt đầu và kết thúc (ms)
+     * @return true nếu đọc được cả hai mốc
+     */
+    public static boolean parseTiming(CharSequence line, int from, int to, long[] timing) {
+        int arrow = indexOf(line, ARROW, from, to);
+        if (arrow < 0) {
+            return false;
+        }
+        long start = parseTimestamp(line, from, arrow);
+        if (start < 0) {
+            return false;
+        }
+        // Bỏ qua phần thiết lập cue của WebVTT sau mốc kết thúc
+        int endFrom = arrow + ARROW.length();
+        while (endFrom < to && line.charAt(endFrom) == ' ') {
+            endFrom++;
+        }
+        int endTo = endFrom;
+        while (endTo < to && !Character.isWhitespace(line.charAt(endTo))) {
+            endTo++;
+        }
+        long end = parseTimestamp(line, endFrom, endTo);
+        if (end < 0) {
+            return false;
+        }
+        timing[0] = start;
+        timing[1] = end;
+        return true;
+    }
+
+    /**
+     * Đọc một mốc thời gian [HH:]MM:SS[,.]mmm, bỏ qua khoảng trắng hai đầu
+     * @return Thời gian (ms), -1 nếu sai định dạng
+     */
+    static long parseTimestamp(CharSequence s, int from, int to) {
+        while (from < to && Character.isWhitespace(s.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(s.charAt(to - 1))) {
+            to--;
+        }
+        if (from >= to) {
+            return -1;
+        }
+
+        long total = 0;
+        long field = 0;
+        int digits = 0;
+        int colons = 0;
+        int i = from;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                field = field * 10 + (c - '0');
+                digits++;
+            } else if (c == ':') {
+                if (digits == 0 || ++colons > 2) {
+                    return -1;
+                }
+                total = total * 60 + field;
+                field = 0;
+                digits = 0;
+            } else if (c == ',' || c == '.') {
+                break;
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0 || colons == 0) {
+            return -1;
+        }
+        total = total * 60 + field;
+
+        // Phần mili giây: 1-3 chữ số, chuẩn hóa về 3 chữ số
+        long millis = 0;
+        int fractionDigits = 0;
+        for (i++; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            if (fractionDigits < 3) {
+                millis = millis * 10 + (c - '0');
+                fractionDigits++;
+            }
+        }
+        for (; fractionDigits > 0 && fractionDigits < 3; fractionDigits++) {
+            millis *= 10;
+        }
+        return total * 1000 + millis;
+    }
+
+    /**
+     * Ghi danh sách cue ra file SRT
+     */
+    public static void write(List<AudioSegment> segments, File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            int index = 1;
+            for (AudioSegment segment : segments) {
+                writer.write(Integer.toString(index++));
+                writer.write('\n');
+                writer.write(formatTimestamp(segment.getStartTime()));
+                writer.write(" --> ");
+                writer.write(formatTimestamp(segment.getEndTime()));
+                writer.write('\n');
+                writer.write(segment.getText());
+                writer.write("\n\n");
+            }
+        }
+    }
+
+    /**
+     * Định dạng mốc thời gian SRT HH:MM:SS,mmm
+     */
+    public static String formatTimestamp(long milliseconds) {
+        char[] out = new char[12];
+        long hours = milliseconds / 3600000;
+        putDigits(out, 0, hours, 2);
+        out[2] = ':';
+        putDigits(out, 3, (milliseconds % 3600000) / 60000, 2);
+        out[5] = ':';
+        putDigits(out, 6, (milliseconds % 60000) / 1000, 2);
+        out[8] = ',';
+        putDigits(out, 9, milliseconds % 1000, 3);
+        return hours > 99 ? (hours + new String(out, 2, 10)) : new String(out);
+    }
+
+    private static void putDigits(char[] out, int offset, long value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int indexOf(CharSequence s, String needle, int from, int to) {
+        int last = to - needle.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < needle.length(); j++) {
+                if (s.charAt(i + j) != needle.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void appendTrimmed(StringBuilder text, String line) {
+        int from = 0;
+        int to = line.length();
+        while (from < to && Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(line.charAt(to - 1))) {
+            to--;
+        }
+        text.append(line, from, to);
+    }
+}
@@ -0,0 +1,140 @@
+package com.soundconverter.ai;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import com.soundconverter.models.AudioSegment;
+
+/**
+ * Một yêu cầu phiên âm: cấu hình bất biến của job (file, ngôn ngữ, độ dài phân đoạn, listener)
+ * cùng kết quả và số liệu của riêng job. Mỗi job có mã riêng dùng để đặt tên file tạm,
+ * nên nhiều job có thể chạy song song trên cùng một WhisperService mà không dùng chung trạng thái.
+ */
+public final class TranscriptionJob {
+
+    private final String jobId = UUID.randomUUID().toString();
+    private final String audioFilePath;
+    private final int fileId;
+    private final boolean force;
+    private final String language;
+    private final int segmentLengthSeconds;
+    private final WhisperService.TranscriptionListener listener;
+
+    // Kết quả, được ghi bởi luồng chạy job
+    private volatile List<AudioSegment> segments = Collections.emptyList();
+    private volatile long timeToFirstSegmentMs = -1;
+    private volatile long wallMillis = -1;
+    private volatile boolean fromCache;
+    private volatile VoiceActivityDetector.Result vadReport;
+
+    public TranscriptionJob(String audioFilePath, int fileId, boolean force, String language, int segmentLengthSeconds) {
+        this(audioFilePath, fileId, force, language, segmentLengthSeconds, null);
+    }
+
+    /**
+     * @param audioFilePath Đường dẫn file âm thanh
+     * @param fileId ID của file âm thanh trong database
+     * @param force Bắt buộc phân tích lại ngay cả khi đã có kết quả
+     * @param language Ngôn ngữ cần phát hiện (auto, en, vi, ja)
+     * @param segmentLengthSeconds Độ dài mỗi phân đoạn tính bằng giây (0 = tự động phân đoạn theo Whisper)
+     * @param listener Nhận các phân đoạn trong lúc phiên âm, có thể null
+     */
+    public TranscriptionJob(String audioFilePath, int fileId, boolean force, String language, int segmentLengthSeconds,
+                            WhisperService.TranscriptionListener listener) {
+        this.audioFilePath = audioFilePath;
+        this.fileId = fileId;
+        this.force = force;
+        this.language = language != null ? language : WhisperService.LANG_AUTO;
+        this.segmentLengthSeconds = Math.max(0, segmentLengthSeconds);
+        this.listener = listener;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getAudioFilePath() {
+        return audioFilePath;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public boolean isForce() {
+        return force;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public int getSegmentLengthSeconds() {
+        return segmentLengthSeconds;
+    }
+
+    /**
+     * Độ dài nhóm phân đoạn (ms), 0 = không nhóm
+     */
+    public int getSegmentLengthMs() {
+        return segmentLengthSeconds * 1000;
+    }
+
+    public WhisperService.TranscriptionListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Các phân đoạn cuối cùng của job (rỗng nếu chưa xong hoặc thất bại)
+     */
+    public List<AudioSegment> getSegments() {
+        return segments;
+    }
+
+    void setSegments(List<AudioSegment> segments) {
+        this.segments = Collections.unmodifiableList(new ArrayList<>(segments));
+    }
+
+    /**
+     * Thời gian từ lúc bắt đầu job tới khi phân đoạn đầu tiên được gửi đi (ms), -1 nếu không có
+     */
+    public long getTimeToFirstSegmentMs() {
+        return timeToFirstSegmentMs;
+    }
+
+    void setTimeToFirstSegmentMs(long timeToFirstSegmentMs) {
+        this.timeToFirstSegmentMs = timeToFirstSegmentMs;
+    }
+
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    void setWallMillis(long wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    /**
+     * Kết quả được lấy từ database hoặc bộ đệm phiên âm, không chạy Whisper
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    void setFromCache(boolean fromCache) {
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * Kết quả VAD của job, null nếu file không được cắt bỏ im lặng
+     */
+    public VoiceActivityDetector.Result getVadReport() {
+        return vadReport;
+    }
+
+    void setVadReport(VoiceActivityDetector.Result vadReport) {
+        this.vadReport = vadReport;
+    }
+}
@@ -0,0 +1,272 @@
+package com.soundconverter.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.soundconverter.services.AppConfig;
+import com.soundconverter.services.AudioProcessingService;
+import com.soundconverter.services.DiskLruCache;
+import com.soundconverter.services.WavPcmEngine;
+
+/**
+ * Phát hiện vùng có tiếng nói trên bản PCM 16 kHz mono bằng năng lượng ngắn hạn và tỷ lệ qua điểm 0 (ZCR).
+ * Ngưỡng năng lượng tự thích nghi theo mức nhiễu nền của từng file; khung năng lượng thấp nhưng ZCR cao
+ * (phụ âm xát như s, x) vẫn được tính là tiếng nói. Chỉ những khoảng im lặng đủ dài mới bị bỏ, mỗi vùng
+ * tiếng nói được nới thêm một đoạn đệm ở hai đầu để Whisper không bị cắt mất đầu/cuối từ.
+ */
+public class VoiceActivityDetector {
+
+    private static final int FRAME_MS = 20;
+    // Mức năng lượng của khung hoàn toàn im lặng (dBFS), tránh log(0)
+    private static final double SILENCE_DB = -100.0;
+
+    private final double thresholdDb;
+    private final double maxThresholdDb;
+    private final double zcrThreshold;
+    private final int paddingMs;
+    private final int minSilenceMs;
+    private final int minSpeechMs;
+
+    public VoiceActivityDetector() {
+        this(AppConfig.getInt("whisper.vad.threshold.db", 10),
+             AppConfig.getInt("whisper.vad.max.threshold.db", -35),
+             AppConfig.getInt("whisper.vad.padding.ms", 250),
+             AppConfig.getInt("whisper.vad.min.silence.ms", 600),
+             AppConfig.getInt("whisper.vad.min.speech.ms", 100));
+    }
+
+    /**
+     * @param thresholdDb Khung được coi là tiếng nói khi năng lượng cao hơn mức nhiễu nền chừng này dB
+     * @param maxThresholdDb Ngưỡng không bao giờ vượt quá mức này (dBFS), để file toàn tiếng nói không bị cắt
+     * @param paddingMs Khoảng đệm thêm vào hai đầu mỗi vùng tiếng nói
+     * @param minSilenceMs Chỉ bỏ những khoảng im lặng dài ít nhất chừng này
+     * @param minSpeechMs Bỏ qua vùng tiếng nói ngắn hơn chừng này (tiếng click, tiếng gõ)
+     */
+    public VoiceActivityDetector(int thresholdDb, int maxThresholdDb, int paddingMs, int minSilenceMs, int minSpeechMs) {
+        this.thresholdDb = thresholdDb;
+        this.maxThresholdDb = maxThresholdDb;
+        this.zcrThreshold = 0.25;
+        this.paddingMs = Math.max(0, paddingMs);
+        this.minSilenceMs = Math.max(FRAME_MS, minSilenceMs);
+        this.minSpeechMs = Math.max(0, minSpeechMs);
+    }
+
+    /**
+     * Một vùng tiếng nói [startMs, endMs) trên thời gian gốc
+     */
+    public static final class Region {
+        private final int startMs;
+        private final int endMs;
+
+        public Region(int startMs, int endMs) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+
+        public int getStartMs() {
+            return startMs;
+        }
+
+        public int getEndMs() {
+            return endMs;
+        }
+
+        public int getDurationMs() {
+            return endMs - startMs;
+        }
+    }
+
+    /**
+     * Kết quả phát hiện: các vùng tiếng nói và thống kê thời lượng bỏ qua
+     */
+    public static final class Result {
+        private final List<Region> regions;
+        private final long totalMs;
+        private final long speechMs;
+
+        Result(List<Region> regions, long totalMs) {
+            this.regions = Collections.unmodifiableList(regions);
+            this.totalMs = totalMs;
+            long speech = 0;
+            for (Region region : regions) {
+                speech += region.getDurationMs();
+            }
+            this.speechMs = speech;
+        }
+
+        public List<Region> getRegions() {
+            return regions;
+        }
+
+        public long getTotalMs() {
+            return totalMs;
+        }
+
+        public long getSpeechMs() {
+            return speechMs;
+        }
+
+        public long getSkippedMs() {
+            return totalMs - speechMs;
+        }
+
+        /**
+         * Tỷ lệ thời lượng bị bỏ qua (0..1)
+         */
+        public double getSkippedRatio() {
+            return totalMs > 0 ? (double) getSkippedMs() / totalMs : 0;
+        }
+
+        /**
+         * Ánh xạ thời gian trên bản rút gọn (các vùng tiếng nói nối liền) về thời gian gốc
+         * @param condensedMs Thời điểm trên bản rút gọn
+         * @param isEnd true nếu là thời điểm kết thúc: điểm nằm đúng ranh giới được gắn vào cuối vùng trước
+         */
+        public int toOriginalMs(int condensedMs, boolean isEnd) {
+            int offset = 0;
+            for (Region region : regions) {
+                int length = region.getDurationMs();
+                if (condensedMs < offset + length || (isEnd && condensedMs == offset + length)) {
+                    return region.getStartMs() + Math.max(0, condensedMs - offset);
+                }
+                offset += length;
+            }
+            // Sau vùng cuối cùng (làm tròn của Whisper): kéo dài vùng cuối
+            if (regions.isEmpty()) {
+                return condensedMs;
+            }
+            Region last = regions.get(regions.size() - 1);
+            return last.getEndMs() + (condensedMs - offset);
+        }
+
+        public String getSummary() {
+            return String.format("VAD: giữ %.1f s tiếng nói trong %d vùng, bỏ qua %.1f s im lặng trên %.1f s (%.0f%%)",
+                    speechMs / 1000.0, regions.size(), getSkippedMs() / 1000.0, totalMs / 1000.0, getSkippedRatio() * 100);
+        }
+    }
+
+    /**
+     * Phát hiện vùng tiếng nói của file âm thanh, dùng bản PCM 16 kHz mono trong bộ đệm
+     */
+    public Result detect(File audioFile) throws IOException {
+        AudioProcessingService audioProcessingService = AudioProcessingService.getInstance();
+        try (DiskLruCache.Handle pcm = audioProcessingService.acquireWhisperPcm(audioFile)) {
+            return detect(audioProcessingService.mapWhisperPcm(pcm), 16000);
+        }
+    }
+
+    public Result detect(ShortBuffer samples, int sampleRate) {
+        int frameSamples = sampleRate * FRAME_MS / 1000;
+        int frameCount = samples.remaining() / frameSamples;
+        long totalMs = (long) samples.remaining() * 1000 / sampleRate;
+        if (frameCount == 0) {
+            List<Region> whole = new ArrayList<>();
+            if (totalMs > 0) {
+                whole.add(new Region(0, (int) totalMs));
+            }
+            return new Result(whole, totalMs);
+        }
+
+        // Năng lượng (dBFS) và ZCR của từng khung
+        double[] energyDb = new double[frameCount];
+        double[] zcr = new double[frameCount];
+        int base = samples.position();
+        for (int frame = 0; frame < frameCount; frame++) {
+            int from = base + frame * frameSamples;
+            double sumSquares = 0;
+            int crossings = 0;
+            int previous = samples.get(from);
+            for (int i = 0; i < frameSamples; i++) {
+                int sample = samples.get(from + i);
+                sumSquares += (double) sample * sample;
+                if ((sample >= 0) != (previous >= 0)) {
+                    crossings++;
+                }
+                previous = sample;
+            }
+            double meanSquare = sumSquares / frameSamples / (32768.0 * 32768.0);
+            energyDb[frame] = meanSquare > 0 ? Math.max(SILENCE_DB, 10 * Math.log10(meanSquare)) : SILENCE_DB;
+            zcr[frame] = (double) crossings / frameSamples;
+        }
+
+        // Mức nhiễu nền: phân vị 10% năng lượng các khung
+        double[] sorted = energyDb.clone();
+        Arrays.sort(sorted);
+        double noiseFloor = sorted[frameCount / 10];
+        double threshold = Math.min(noiseFloor + thresholdDb, maxThresholdDb);
+        double weakThreshold = Math.min(noiseFloor + thresholdDb / 2, maxThresholdDb);
+
+        boolean[] speech = new boolean[frameCount];
+        for (int frame = 0; frame < frameCount; frame++) {
+            speech[frame] = energyDb[frame] >= threshold ||
+                            (energyDb[frame] >= weakThreshold && zcr[frame] >= zcrThreshold);
+        }
+
+        return new Result(buildRegions(speech, (int) totalMs), totalMs);
+    }
+
+    /**
+     * Gộp các khung tiếng nói thành vùng: lấp khoảng im lặng ngắn, bỏ vùng quá ngắn, thêm đoạn đệm
+     */
+    private List<Region> buildRegions(boolean[] speech, int totalMs) {
+        List<int[]> raw = new ArrayList<>();
+        int start = -1;
+        for (int frame = 0; frame <= speech.length; frame++) {
+            boolean active = frame < speech.length && speech[frame];
+            if (active && start < 0) {
+                start = frame;
+            } else if (!active && start >= 0) {
+                raw.add(new int[] { start * FRAME_MS, frame * FRAME_MS });
+                start = -1;
+            }
+        }
+
+        List<Region> regions = new ArrayList<>();
+        int regionStart = -1;
+        int regionEnd = -1;
+        for (int[] span : raw) {
+            if (regionStart >= 0 && span[0] - regionEnd < minSilenceMs) {
+                regionEnd = span[1];
+                continue;
+            }
+            addRegion(regions, regionStart, regionEnd, totalMs);
+            regionStart = span[0];
+            regionEnd = span[1];
+        }
+        addRegion(regions, regionStart, regionEnd, totalMs);
+        return regions;
+    }
+
+    private void addRegion(List<Region> regions, int startMs, int endMs, int totalMs) {
+        if (startMs < 0 || endMs - startMs < minSpeechMs) {
+            return;
+        }
+        int paddedStart = Math.max(0, startMs - paddingMs);
+        int paddedEnd = Math.min(totalMs, endMs + paddingMs);
+        if (!regions.isEmpty()) {
+            Region previous = regions.get(regions.size() - 1);
+            if (paddedStart <= previous.getEndMs()) {
+                // Đoạn đệm của hai vùng chồng lên nhau: gộp lại
+                regions.set(regions.size() - 1, new Region(previous.getStartMs(), paddedEnd));
+                return;
+            }
+        }
+        regions.add(new Region(paddedStart, paddedEnd));
+    }
+
+    /**
+     * Ghi các vùng tiếng nói nối liền thành một file WAV (bản rút gọn gửi cho Whisper)
+     */
+    public static void writeSpeechOnly(File pcmFile, Result result, File target) throws IOException {
+        List<WavPcmEngine.Slice> slices = new ArrayList<>(result.getRegions().size());
+        for (Region region : result.getRegions()) {
+            slices.add(new WavPcmEngine.Slice(pcmFile, region.getStartMs(), region.getEndMs()));
+        }
+        new WavPcmEngine().concat(slices, target);
+    }
+}
@@ -0,0 +1,393 @@
+package com.soundconverter.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.soundconverter.models.AudioSegment;
+import com.soundconverter.services.AppConfig;
+import com.soundconverter.services.AudioProcessingService;
+import com.soundconverter.services.DiskLruCache;
+import com.soundconverter.services.WavPcmEngine;
+import com.sun.jna.Callback;
+import com.sun.jna.Library;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+
+/**
+ * Chạy Whisper ngay trong JVM qua thư viện whisper.cpp (whisper.dll) bằng JNA.
+ * Mỗi model chỉ được nạp một lần và giữ lại suốt vòng đời ứng dụng; mỗi lần phiên âm
+ * tạo một whisper_state riêng nên nhiều file có thể chạy đồng thời trên cùng một model.
+ * Âm thanh được đưa thẳng vào dưới dạng mảng PCM, các AudioSegment được tạo trong
+ * callback new_segment thay vì đọc lại file SRT.
+ */
+public class WhisperNativeBackend {
+
+    private static final String LIBRARY_NAME = "whisper";
+    private static final String LIBRARY_DIR = AppConfig.getString("whisper.native.lib.dir", "./lib");
+    private static final int WHISPER_SAMPLING_GREEDY = 0;
+
+    // Vùng đệm thêm sau whisper_full_params cho các trường phiên bản mới có thể thêm vào cuối struct
+    private static final int PARAMS_TAIL_PADDING = 64;
+
+    private static WhisperNativeBackend instance;
+
+    private WhisperLibrary library;
+    private String unavailableReason;
+    private final Map<String, Pointer> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * Các hàm C API của whisper.cpp được sử dụng
+     */
+    public interface WhisperLibrary extends Library {
+        Pointer whisper_init_from_file_no_state(String pathModel);
+
+        Pointer whisper_init_state(Pointer ctx);
+
+        void whisper_free_state(Pointer state);
+
+        void whisper_free(Pointer ctx);
+
+        Pointer whisper_full_default_params_by_ref(int strategy);
+
+        void whisper_free_params(Pointer params);
+
+        int whisper_full_with_state(Pointer ctx, Pointer state, FullParams.ByValue params, float[] samples, int nSamples);
+
+        int whisper_full_n_segments_from_state(Pointer state);
+
+        long whisper_full_get_segment_t0_from_state(Pointer state, int segment);
+
+        long whisper_full_get_segment_t1_from_state(Pointer state, int segment);
+
+        Pointer whisper_full_get_segment_text_from_state(Pointer state, int segment);
+    }
+
+    /**
+     * whisper_new_segment_callback(ctx, state, n_new, user_data)
+     */
+    public interface NewSegmentCallback extends Callback {
+        void invoke(Pointer ctx, Pointer state, int nNew, Pointer userData);
+    }
+
+    /**
+     * Ánh xạ struct whisper_full_params của whisper.cpp 1.7.x (bool là 1 byte, các struct con được trải phẳng)
+     */
+    @Structure.FieldOrder({
+            "strategy", "n_threads", "n_max_text_ctx", "offset_ms", "duration_ms",
+            "translate", "no_context", "no_timestamps", "single_segment", "print_special",
+            "print_progress", "print_realtime", "print_timestamps",
+            "token_timestamps", "thold_pt", "thold_ptsum", "max_len", "split_on_word", "max_tokens",
+            "debug_mode", "audio_ctx", "tdrz_enable", "suppress_regex",
+            "initial_prompt", "prompt_tokens", "prompt_n_tokens",
+            "language", "detect_language", "suppress_blank", "suppress_nst",
+            "temperature", "max_initial_ts", "length_penalty",
+            "temperature_inc", "entropy_thold", "logprob_thold", "no_speech_thold",
+            "greedy_best_of", "beam_search_beam_size", "beam_search_patience",
+            "new_segment_callback", "new_segment_callback_user_data",
+            "progress_callback", "progress_callback_user_data",
+            "encoder_begin_callback", "encoder_begin_callback_user_data",
+            "abort_callback", "abort_callback_user_data",
+            "logits_filter_callback", "logits_filter_callback_user_data",
+            "grammar_rules", "n_grammar_rules", "i_start_rule", "grammar_penalty",
+            "vad", "vad_model_path",
+            "vad_threshold", "vad_min_speech_duration_ms", "vad_min_silence_duration_ms",
+            "vad_max_speech_duration_s", "vad_speech_pad_ms", "vad_samples_overlap",
+            "tail_padding"
+    })
+    public static class FullParams extends Structure {
+        public int strategy;
+        public int n_threads;
+        public int n_max_text_ctx;
+        public int offset_ms;
+        public int duration_ms;
+        public byte translate;
+        public byte no_context;
+        public byte no_timestamps;
+        public byte single_segment;
+        public byte print_special;
+        public byte print_progress;
+        public byte print_realtime;
+        public byte print_timestamps;
+        public byte token_timestamps;
+        public float thold_pt;
+        public float thold_ptsum;
+        public int max_len;
+        public byte split_on_word;
+        public int max_tokens;
+        public byte debug_mode;
+        public int audio_ctx;
+        public byte tdrz_enable;
+        public Pointer suppress_regex;
+        public Pointer initial_prompt;
+        public Pointer prompt_tokens;
+        public int prompt_n_tokens;
+        public Pointer language;
+        public byte detect_language;
+        public byte suppress_blank;
+        public byte suppress_nst;
+        public float temperature;
+        public float max_initial_ts;
+        public float length_penalty;
+        public float temperature_inc;
+        public float entropy_thold;
+        public float logprob_thold;
+        public float no_speech_thold;
+        public int greedy_best_of;
+        public int beam_search_beam_size;
+        public float beam_search_patience;
+        public NewSegmentCallback new_segment_callback;
+        public Pointer new_segment_callback_user_data;
+        public Pointer progress_callback;
+        public Pointer progress_callback_user_data;
+        public Pointer encoder_begin_callback;
+        public Pointer encoder_begin_callback_user_data;
+        public Pointer abort_callback;
+        public Pointer abort_callback_user_data;
+        public Pointer logits_filter_callback;
+        public Pointer logits_filter_callback_user_data;
+        public Pointer grammar_rules;
+        public long n_grammar_rules;
+        public long i_start_rule;
+        public float grammar_penalty;
+        public byte vad;
+        public Pointer vad_model_path;
+        public float vad_threshold;
+        public int vad_min_speech_duration_ms;
+        public int vad_min_silence_duration_ms;
+        public float vad_max_speech_duration_s;
+        public int vad_speech_pad_ms;
+        public float vad_samples_overlap;
+        public byte[] tail_padding = new byte[PARAMS_TAIL_PADDING];
+
+        public static class ByValue extends FullParams implements Structure.ByValue {
+        }
+
+        /**
+         * Kích thước struct thật của thư viện (không tính vùng đệm cuối)
+         */
+        int nativeSize() {
+            return size() - PARAMS_TAIL_PADDING;
+        }
+    }
+
+    private WhisperNativeBackend() {
+    }
+
+    public static synchronized WhisperNativeBackend getInstance() {
+        if (instance == null) {
+            instance = new WhisperNativeBackend();
+        }
+        return instance;
+    }
+
+    /**
+     * Nạp thư viện và kiểm tra bố cục whisper_full_params khớp với phiên bản của thư viện
+     * @return true nếu có thể phiên âm trong tiến trình
+     */
+    public synchronized boolean isAvailable() {
+        if (library != null) {
+            return true;
+        }
+        if (unavailableReason != null) {
+            return false;
+        }
+        try {
+            NativeLibrary.addSearchPath(LIBRARY_NAME, new File(LIBRARY_DIR).getAbsolutePath());
+            WhisperLibrary loaded = Native.load(LIBRARY_NAME, WhisperLibrary.class);
+
+            FullParams.ByValue defaults = defaultParams(loaded);
+            if (!looksLikeDefaults(defaults)) {
+                unavailableReason = "bố cục whisper_full_params không khớp với phiên bản whisper.dll";
+                System.err.println("Không dùng Whisper native: " + unavailableReason);
+                return false;
+            }
+            library = loaded;
+            System.err.println("Đã nạp thư viện Whisper native từ " + LIBRARY_DIR);
+            return true;
+        } catch (UnsatisfiedLinkError | RuntimeException e) {
+            unavailableReason = e.getMessage();
+            System.err.println("Không thể nạp thư viện Whisper native: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public String getUnavailableReason() {
+        return unavailableReason;
+    }
+
+    /**
+     * Lấy tham số mặc định từ thư viện, sao chép vào struct có vùng đệm cuối
+     */
+    private static FullParams.ByValue defaultParams(WhisperLibrary library) {
+        Pointer defaults = library.whisper_full_default_params_by_ref(WHISPER_SAMPLING_GREEDY);
+        try {
+            FullParams.ByValue params = new FullParams.ByValue();
+            byte[] bytes = defaults.getByteArray(0, params.nativeSize());
+            params.getPointer().write(0, bytes, 0, bytes.length);
+            params.read();
+            return params;
+        } finally {
+            library.whisper_free_params(defaults);
+        }
+    }
+
+    /**
+     * So sánh vài giá trị mặc định đã biết của whisper_full_default_params để phát hiện lệch bố cục struct
+     */
+    private static boolean looksLikeDefaults(FullParams params) {
+        return params.strategy == WHISPER_SAMPLING_GREEDY &&
+               params.n_max_text_ctx == 16384 &&
+               params.greedy_best_of == 5 &&
+               Math.abs(params.temperature_inc - 0.2f) < 1e-6f &&
+               Math.abs(params.entropy_thold - 2.4f) < 1e-6f &&
+               Math.abs(params.grammar_penalty - 100.0f) < 1e-3f &&
+               Math.abs(params.vad_threshold - 0.5f) < 1e-6f;
+    }
+
+    /**
+     * Lấy context của model, nạp từ đĩa ở lần dùng đầu tiên
+     */
+    private Pointer getContext(String modelPath) throws IOException {
+        String key = new File(modelPath).getAbsolutePath();
+        Pointer context = contexts.get(key);
+        if (context != null) {
+            return context;
+        }
+        synchronized (contexts) {
+            context = contexts.get(key);
+            if (context == null) {
+                long started = System.currentTimeMillis();
+                context = library.whisper_init_from_file_no_state(key);
+                if (context == null) {
+                    throw new IOException("Không thể nạp model Whisper: " + key);
+                }
+                contexts.put(key, context);
+                System.err.println("Đã nạp model " + key + " sau " + (System.currentTimeMillis() - started) + " ms");
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Phiên âm file âm thanh trong tiến trình hiện tại
+     * @param audioFile File âm thanh nguồn
+     * @param modelPath Đường dẫn model ggml
+     * @param language Mã ngôn ngữ hoặc "auto"
+     * @param fileId ID của file âm thanh trong database
+     * @return Các phân đoạn theo từng từ, chưa nhóm
+     */
+    public List<AudioSegment> transcribe(File audioFile, String modelPath, String language, int fileId) throws IOException {
+        return transcribe(audioFile, modelPath, language, fileId, null);
+    }
+
+    /**
+     * Phiên âm file âm thanh trong tiến trình hiện tại, báo từng phân đoạn ngay khi whisper tạo ra
+     * @param segmentListener Nhận từng phân đoạn từ callback new_segment, có thể null
+     * @return Các phân đoạn theo từng từ, chưa nhóm
+     */
+    public List<AudioSegment> transcribe(File audioFile, String modelPath, String language, int fileId,
+                                         Consumer<AudioSegment> segmentListener) throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("Whisper native không khả dụng: " + unavailableReason);
+        }
+
+        // Đọc bản PCM 16 kHz mono từ bộ đệm thẳng thành mảng float
+        float[] samples;
+        try (DiskLruCache.Handle pcm = AudioProcessingService.getInstance().acquireWhisperPcm(audioFile)) {
+            samples = WavPcmEngine.readMonoSamples(pcm.getFile());
+        }
+
+        Pointer context = getContext(modelPath);
+        List<AudioSegment> segments = Collections.synchronizedList(new ArrayList<>());
+
+        FullParams.ByValue params = defaultParams(library);
+        params.print_progress = 0;
+        params.print_realtime = 0;
+        params.print_timestamps = 0;
+        params.print_special = 0;
+        // Tách theo từng từ giống tham số -ml 1 của whisper-cli
+        params.token_timestamps = 1;
+        params.max_len = 1;
+        params.split_on_word = 1;
+        Memory languageMemory = toCString(language);
+        params.language = languageMemory;
+        params.detect_language = 0;
+        params.new_segment_callback = (ctx, state, nNew, userData) -> {
+            int total = library.whisper_full_n_segments_from_state(state);
+            for (int i = Math.max(0, total - nNew); i < total; i++) {
+                Pointer textPointer = library.whisper_full_get_segment_text_from_state(state, i);
+                String text = textPointer != null ? textPointer.getString(0, StandardCharsets.UTF_8.name()).trim() : "";
+                if (text.isEmpty()) {
+                    continue;
+                }
+                // t0/t1 tính theo đơn vị 10 ms
+                AudioSegment segment = new AudioSegment();
+                segment.setFileId(fileId);
+                segment.setStartTime((int) (library.whisper_full_get_segment_t0_from_state(state, i) * 10));
+                segment.setEndTime((int) (library.whisper_full_get_segment_t1_from_state(state, i) * 10));
+                segment.setText(text);
+                segments.add(segment);
+                if (segmentListener != null) {
+                    segmentListener.accept(segment);
+                }
+            }
+        };
+
+        Pointer state = library.whisper_init_state(context);
+        if (state == null) {
+            throw new IOException("Không thể tạo whisper_state");
+        }
+        WhisperThreadScheduler scheduler = WhisperThreadScheduler.getInstance();
+        try (WhisperThreadScheduler.Lease lease = scheduler.acquire()) {
+            params.n_threads = lease.getThreads();
+            params.write();
+
+            long started = System.currentTimeMillis();
+            int result = library.whisper_full_with_state(context, state, params, samples, samples.length);
+            if (result != 0) {
+                throw new IOException("whisper_full trả về lỗi: " + result);
+            }
+            System.err.println("Whisper native xong " + segments.size() + " đoạn sau " +
+                               (System.currentTimeMillis() - started) + " ms với " + lease.getThreads() + " threads");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Quá trình phiên âm bị gián đoạn");
+        } finally {
+            library.whisper_free_state(state);
+            // Giữ tham chiếu tới chuỗi ngôn ngữ và callback cho tới khi whisper_full kết thúc
+            languageMemory.clear();
+        }
+
+        return new ArrayList<>(segments);
+    }
+
+    private static Memory toCString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Memory memory = new Memory(bytes.length + 1);
+        memory.write(0, bytes, 0, bytes.length);
+        memory.setByte(bytes.length, (byte) 0);
+        return memory;
+    }
+
+    /**
+     * Giải phóng mọi model đã nạp
+     */
+    public void close() {
+        synchronized (contexts) {
+            for (Pointer context : contexts.values()) {
+                library.whisper_free(context);
+            }
+            contexts.clear();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.soundconverter.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.soundconverter.models.AudioSegment;
+import com.soundconverter.services.AppConfig;
+import com.soundconverter.services.AudioProcessingService;
+import com.soundconverter.services.DiskLruCache;
+import com.soundconverter.services.ExternalProcessRunner;
+
+/**
+ * Phiên âm qua một tiến trình whisper.cpp server chạy lâu dài trên localhost.
+ * Model chỉ được nạp một lần khi server khởi động; mỗi file chỉ tốn thời gian suy luận.
+ * Server được khởi động khi cần, kiểm tra bằng /health, khởi động lại nếu bị dừng hoặc
+ * đổi model (chỉ khi không còn yêu cầu nào đang chạy), và các kết nối HTTP được dùng lại qua một HttpClient chung.
+ */
+public class WhisperServerBackend {
+
+    private static final String SERVER_PATH = AppConfig.getString("whisper.server.path", "./lib/whisper-server.exe");
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = AppConfig.getInt("whisper.server.port", 8178);
+    private static final long STARTUP_TIMEOUT_MS = AppConfig.getLong("whisper.server.startup.timeout.ms", 60000);
+    private static final long REQUEST_TIMEOUT_MS = AppConfig.getLong("whisper.server.request.timeout.ms", 600000);
+
+    private static WhisperServerBackend instance;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    // Yêu cầu phiên âm giữ khóa đọc; khởi động, khởi động lại hay đổi model cần khóa ghi
+    private final ReentrantReadWriteLock serverLock = new ReentrantReadWriteLock(true);
+
+    // Server đã chạy sẵn do bên ngoài quản lý (kiểm thử): không khởi động, dừng hay đổi model
+    private final boolean external;
+    private final int port;
+
+    private CompletableFuture<ExternalProcessRunner.Result> serverProcess;
+    private String loadedModel;
+    private int restartCount;
+
+    private WhisperServerBackend() {
+        this.external = false;
+        this.port = PORT;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "whisper-server-shutdown"));
+    }
+
+    /**
+     * Dùng một server tương thích API whisper.cpp đang chạy sẵn trên localhost, ví dụ server giả lập trong kiểm thử
+     */
+    WhisperServerBackend(int port) {
+        this.external = true;
+        this.port = port;
+    }
+
+    public static synchronized WhisperServerBackend getInstance() {
+        if (instance == null) {
+            instance = new WhisperServerBackend();
+        }
+        return instance;
+    }
+
+    /**
+     * Server có thể dùng được: có chương trình server hoặc đang dùng server bên ngoài
+     */
+    public boolean isAvailable() {
+        return external || new File(SERVER_PATH).exists();
+    }
+
+    public int getRestartCount() {
+        return restartCount;
+    }
+
+    /**
+     * Đảm bảo server đang chạy với model chỉ định, khởi động (lại) nếu cần
+     */
+    private synchronized void ensureStarted(String modelPath) throws IOException {
+        String model = new File(modelPath).getAbsolutePath();
+
+        if (external) {
+            loadedModel = model;
+            return;
+        }
+
+        boolean running = serverProcess != null && !serverProcess.isDone();
+        if (running && model.equals(loadedModel)) {
+            return;
+        }
+        if (serverProcess != null) {
+            if (!running) {
+                restartCount++;
+                System.err.println("Whisper server đã dừng, đang khởi động lại (lần " + restartCount + ")");
+            }
+            stopProcess();
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(SERVER_PATH);
+        command.add("-m");
+        command.add(model);
+        command.add("--host");
+        command.add(HOST);
+        command.add("--port");
+        command.add(String.valueOf(port));
+        command.add("-t");
+        command.add(String.valueOf(WhisperThreadScheduler.getInstance().getMaxThreadsPerJob()));
+
+        System.err.println("Khởi động Whisper server: " + String.join(" ", command));
+        long started = System.currentTimeMillis();
+        serverProcess = ExternalProcessRunner.getInstance().start(
+                new ExternalProcessRunner.Request(command).logTag("Whisper Server"));
+        loadedModel = model;
+
+        // Chờ model được nạp và server trả lời /health
+        while (!isHealthy()) {
+            if (serverProcess.isDone()) {
+                ExternalProcessRunner.Result result = serverProcess.getNow(null);
+                throw new IOException("Whisper server dừng khi khởi động" +
+                        (result != null ? ":\n" + result.getTailText() : ""));
+            }
+            if (System.currentTimeMillis() - started > STARTUP_TIMEOUT_MS) {
+                stopProcess();
+                throw new IOException("Whisper server không sẵn sàng sau " + STARTUP_TIMEOUT_MS + " ms");
+            }
+            try {
+                Thread.sleep(250);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Bị gián đoạn khi chờ Whisper server khởi động");
+            }
+        }
+        System.err.println("Whisper server sẵn sàng sau " + (System.currentTimeMillis() - started) + " ms");
+    }
+
+    /**
+     * Kiểm tra server bằng GET /health
+     */
+    public boolean isHealthy() {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(endpoint("/health"))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Phiên âm file âm thanh qua server, thử lại một lần sau khi khởi động lại nếu server bị lỗi
+     * @return Các phân đoạn theo từng từ, chưa nhóm
+     */
+    public List<AudioSegment> transcribe(File audioFile, String modelPath, String language, int fileId) throws IOException {
+        // Server nhận WAV 16 kHz mono, dùng bản PCM từ bộ đệm để không phụ thuộc vào tùy chọn --convert của server
+        try (DiskLruCache.Handle pcm = AudioProcessingService.getInstance().acquireWhisperPcm(audioFile)) {
+            File pcmFile = pcm.getFile();
+
+            try {
+                return SrtParser.parse(infer(pcmFile, modelPath, language, false), fileId);
+            } catch (IOException e) {
+                if (external || isHealthy()) {
+                    throw e;
+                }
+                System.err.println("Whisper server không phản hồi, khởi động lại và thử lại: " + e.getMessage());
+                return SrtParser.parse(infer(pcmFile, modelPath, language, true), fileId);
+            }
+        }
+    }
+
+    /**
+     * Gửi một yêu cầu phiên âm trong khi giữ khóa đọc của server, để server không bị dừng hay đổi model
+     * khi còn yêu cầu đang chạy
+     * @param restart Server vừa không phản hồi: khởi động lại nếu chưa có luồng nào khởi động lại nó
+     */
+    private String infer(File wavFile, String modelPath, String language, boolean restart) throws IOException {
+        Lock requestLock = lockServer(modelPath, restart);
+        try {
+            return postInference(wavFile, language);
+        } finally {
+            requestLock.unlock();
+        }
+    }
+
+    /**
+     * Lấy khóa đọc khi server đang chạy đúng model. Nếu phải khởi động hoặc đổi model thì giữ khóa ghi,
+     * tức là chờ mọi yêu cầu đang chạy xong, rồi hạ xuống khóa đọc sau khi server sẵn sàng
+     * @return Khóa đọc đang giữ, người gọi phải unlock sau khi yêu cầu xong
+     */
+    private Lock lockServer(String modelPath, boolean restart) throws IOException {
+        String model = new File(modelPath).getAbsolutePath();
+        if (!restart) {
+            serverLock.readLock().lock();
+            if (isRunningWith(model)) {
+                return serverLock.readLock();
+            }
+            serverLock.readLock().unlock();
+        }
+
+        serverLock.writeLock().lock();
+        try {
+            if (restart && !isHealthy()) {
+                synchronized (this) {
+                    stopProcess();
+                }
+            }
+            ensureStarted(modelPath);
+            serverLock.readLock().lock();
+            return serverLock.readLock();
+        } finally {
+            serverLock.writeLock().unlock();
+        }
+    }
+
+    private synchronized boolean isRunningWith(String model) {
+        boolean running = external || serverProcess != null && !serverProcess.isDone();
+        return running && model.equals(loadedModel);
+    }
+
+    private String postInference(File wavFile, String language) throws IOException {
+        String boundary = "----SoundConverter" + UUID.randomUUID().toString().replace("-", "");
+
+        StringBuilder head = new StringBuilder();
+        appendField(head, boundary, "response_format", "srt");
+        appendField(head, boundary, "language", language);
+        appendField(head, boundary, "temperature", "0.0");
+        // Tách theo từng từ giống tham số -ml 1 của whisper-cli
+        appendField(head, boundary, "max_len", "1");
+        appendField(head, boundary, "split_on_word", "true");
+        head.append("--").append(boundary).append("\r\n")
+            .append("Content-Disposition: form-data; name=\"file\"; filename=\"audio.wav\"\r\n")
+            .append("Content-Type: audio/wav\r\n\r\n");
+        String tail = "\r\n--" + boundary + "--\r\n";
+
+        HttpRequest request = HttpRequest.newBuilder(endpoint("/inference"))
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.concat(
+                        HttpRequest.BodyPublishers.ofString(head.toString(), StandardCharsets.UTF_8),
+                        HttpRequest.BodyPublishers.ofFile(wavFile.toPath()),
+                        HttpRequest.BodyPublishers.ofString(tail, StandardCharsets.UTF_8)))
+                .build();
+
+        long started = System.currentTimeMillis();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            if (response.statusCode() != 200) {
+                throw new IOException("Whisper server trả về mã " + response.statusCode() + ": " + response.body());
+            }
+            System.err.println("Whisper server xử lý xong sau " + (System.currentTimeMillis() - started) + " ms");
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Yêu cầu tới Whisper server bị gián đoạn");
+        }
+    }
+
+    private static void appendField(StringBuilder body, String boundary, String name, String value) {
+        body.append("--").append(boundary).append("\r\n")
+            .append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n\r\n")
+            .append(value).append("\r\n");
+    }
+
+    private URI endpoint(String path) {
+        return URI.create("http://" + HOST + ":" + port + path);
+    }
+
+    private void stopProcess() {
+        if (serverProcess != null) {
+            serverProcess.cancel(true);
+            serverProcess = null;
+        }
+        loadedModel = null;
+    }
+
+    /**
+     * Dừng tiến trình server
+     */
+    public synchronized void stop() {
+        stopProcess();
+    }
+}
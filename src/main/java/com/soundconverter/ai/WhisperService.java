@@ -1,23 +1,34 @@
 package com.soundconverter.ai;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import com.soundconverter.dao.AudioSegmentDAO;
+import com.soundconverter.dao.RawSegmentDAO;
+import com.soundconverter.dao.TranscriptCacheDAO;
 import com.soundconverter.models.AudioSegment;
+import com.soundconverter.services.AppConfig;
+import com.soundconverter.services.AudioProcessingService;
+import com.soundconverter.services.DiskLruCache;
+import com.soundconverter.services.ExternalProcessRunner;
+import com.soundconverter.services.PathStager;
 
 public class WhisperService {
     
@@ -27,15 +38,49 @@ public class WhisperService {
     private static final String MODEL_PATH_MULTILINGUAL = "./models/ggml-base-q8_0.bin";
     private static final String TEMP_DIR = "./temp";
     
+    // Tăng khi thay đổi cách giải mã hoặc nhóm phân đoạn để bỏ qua các kết quả cũ trong bộ đệm phiên âm
+    private static final String DECODE_PARAMS_VERSION = "v2";
+    
     // Các ngôn ngữ được hỗ trợ
     public static final String LANG_AUTO = "auto";
     public static final String LANG_ENGLISH = "en";
     public static final String LANG_VIETNAMESE = "vi";
     public static final String LANG_JAPANESE = "ja";
     
+    /**
+     * Nhận các phân đoạn trong lúc đang phiên âm. Được gọi trên luồng xử lý, không phải luồng giao diện;
+     * các phân đoạn nhận được đã được lưu vào database
+     */
+    public interface TranscriptionListener {
+        void onSegments(List<AudioSegment> segments);
+    }
+    
     private static WhisperService instance;
     private boolean initialized = false;
     private AudioSegmentDAO segmentDAO;
+    private TranscriptCacheDAO transcriptCacheDAO;
+    private RawSegmentDAO rawSegmentDAO;
+    private final ChunkedTranscriber chunkedTranscriber = new ChunkedTranscriber();
+    private final VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector();
+    
+    // Mỗi file chỉ có một job phiên âm chạy tại một thời điểm (các job cùng ghi audio_segments của file đó),
+    // các file khác nhau chạy song song
+    private final Map<Integer, ReentrantLock> fileLocks = new ConcurrentHashMap<>();
+    private volatile ExecutorService jobExecutor;
+    
+    // Các cách nhóm đã tính từ phân đoạn thô, theo "fileId:độ dài nhóm (ms)"; truy cập gần nhất được giữ lại
+    private static final int GROUPED_VIEW_CACHE_SIZE = 32;
+    private final Map<String, List<AudioSegment>> groupedViews =
+            new LinkedHashMap<String, List<AudioSegment>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<AudioSegment>> eldest) {
+                    return size() > GROUPED_VIEW_CACHE_SIZE;
+                }
+            };
+    
+    // Thống kê thời gian từ lúc bắt đầu phiên âm tới khi phân đoạn đầu tiên được gửi đi
+    private final AtomicLong firstSegmentRuns = new AtomicLong();
+    private final AtomicLong firstSegmentTotalMs = new AtomicLong();
     
     static {
         try {
@@ -89,6 +134,8 @@ public class WhisperService {
         try {
             // Khởi tạo DAO
             segmentDAO = new AudioSegmentDAO();
+            transcriptCacheDAO = new TranscriptCacheDAO();
+            rawSegmentDAO = new RawSegmentDAO();
             
             // Kiểm tra xem whisper CLI có tồn tại không
             File whisperExe = new File(WHISPER_CLI_PATH);
@@ -120,29 +167,19 @@ public class WhisperService {
     // Kiểm tra phiên bản whisper CLI
     private void testWhisperCLI() {
         try {
-            ProcessBuilder pb = new ProcessBuilder(WHISPER_CLI_PATH, "--version");
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
+            ExternalProcessRunner.Request request = new ExternalProcessRunner.Request(List.of(WHISPER_CLI_PATH, "--version"))
+                    .logTag("Whisper CLI")
+                    .timeout(10, TimeUnit.SECONDS);
+            ExternalProcessRunner.Result result = ExternalProcessRunner.getInstance().start(request).get();
             
-            // Đọc output
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.err.println("[Whisper CLI] " + line);
-                }
-            }
-            
-            // Đợi cho process kết thúc
-            boolean completed = process.waitFor(10, TimeUnit.SECONDS);
-            if (!completed) {
+            if (result.isTimedOut()) {
                 System.err.println("Không thể kiểm tra phiên bản Whisper CLI");
-                process.destroyForcibly();
             } else {
-                int exitCode = process.exitValue();
+                int exitCode = result.getExitCode();
                 if (exitCode == 0) {
                     System.err.println("Whisper CLI hoạt động bình thường");
                 } else {
-                    System.err.println("Whisper CLI trả về lỗi: " + exitCode);
+                    System.err.println("Whisper CLI trả về lỗi: " + exitCode + "\n" + result.getTailText());
                     initialized = false;
                 }
             }
@@ -190,7 +227,83 @@ public class WhisperService {
      * @return Danh sách các phân đoạn âm thanh
      */
     public List<AudioSegment> transcribeAudio(String audioFilePath, int fileId, boolean force, String language, int segmentLengthSeconds) {
+        return transcribeAudioStreaming(audioFilePath, fileId, force, language, segmentLengthSeconds, null);
+    }
+    
+    /**
+     * Phiên âm file âm thanh và gửi từng lô phân đoạn cho listener ngay khi Whisper in ra,
+     * các phân đoạn được lưu dần vào database trong lúc phiên âm
+     * @param audioFilePath Đường dẫn file âm thanh
+     * @param fileId ID của file âm thanh trong database
+     * @param force Bắt buộc phân tích lại ngay cả khi đã có kết quả
+     * @param language Ngôn ngữ cần phát hiện (auto, en, vi, ja)
+     * @param segmentLengthSeconds Độ dài mỗi phân đoạn tính bằng giây (0 = tự động phân đoạn theo Whisper)
+     * @param listener Nhận các phân đoạn trong lúc phiên âm, có thể null
+     * @return Danh sách các phân đoạn âm thanh cuối cùng
+     */
+    public List<AudioSegment> transcribeAudioStreaming(String audioFilePath, int fileId, boolean force, String language,
+                                                       int segmentLengthSeconds, TranscriptionListener listener) {
+        return transcribe(new TranscriptionJob(audioFilePath, fileId, force, language, segmentLengthSeconds, listener));
+    }
+    
+    /**
+     * Đưa job vào hàng đợi phiên âm. Số job chạy đồng thời được giới hạn bởi whisper.jobs.parallelism;
+     * các job của cùng một file được chạy lần lượt
+     * @return Kết quả của job, hoàn thành trên luồng phiên âm
+     */
+    public CompletableFuture<List<AudioSegment>> submit(TranscriptionJob job) {
+        return CompletableFuture.supplyAsync(() -> transcribe(job), getJobExecutor());
+    }
+    
+    private ExecutorService getJobExecutor() {
+        ExecutorService executor = jobExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                if (jobExecutor == null) {
+                    int parallelism = Math.max(1, AppConfig.getInt("whisper.jobs.parallelism", 2));
+                    AtomicInteger threadCount = new AtomicInteger();
+                    jobExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+                        Thread thread = new Thread(runnable, "whisper-job-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                executor = jobExecutor;
+            }
+        }
+        return executor;
+    }
+    
+    /**
+     * Chạy một job phiên âm trên luồng hiện tại. Mọi cấu hình được lấy từ job, file tạm mang mã của job
+     * và kết quả (phân đoạn, thời gian tới phân đoạn đầu tiên, VAD) được ghi vào job, nên nhiều job
+     * có thể chạy song song an toàn
+     * @return Danh sách các phân đoạn âm thanh cuối cùng
+     */
+    public List<AudioSegment> transcribe(TranscriptionJob job) {
+        ReentrantLock fileLock = fileLocks.computeIfAbsent(job.getFileId(), id -> new ReentrantLock());
+        long started = System.currentTimeMillis();
+        fileLock.lock();
+        try {
+            List<AudioSegment> segments = runJob(job);
+            job.setSegments(segments);
+            return segments;
+        } finally {
+            fileLock.unlock();
+            job.setWallMillis(System.currentTimeMillis() - started);
+        }
+    }
+    
+    private List<AudioSegment> runJob(TranscriptionJob job) {
+        String audioFilePath = job.getAudioFilePath();
+        int fileId = job.getFileId();
+        String language = job.getLanguage();
+        int segmentLengthSeconds = job.getSegmentLengthSeconds();
+        int segmentLengthMs = job.getSegmentLengthMs();
+        TranscriptionListener listener = job.getListener();
         List<AudioSegment> segments = new ArrayList<>();
+        long started = System.currentTimeMillis();
+        SegmentStream stream = null;
         
         if (!initialized) {
             System.err.println("Whisper chưa được khởi tạo");
@@ -215,60 +328,144 @@ public class WhisperService {
             System.err.println("Đang xử lý file âm thanh: " + audioFilePath);
             
             // Nếu không bắt buộc phân tích lại, kiểm tra xem có phân đoạn nào trong database không
-            if (!force) {
+            if (!job.isForce()) {
                 List<AudioSegment> existingSegments = segmentDAO.getSegmentsByFileId(fileId);
                 if (!existingSegments.isEmpty()) {
                     System.err.println("Đã tìm thấy " + existingSegments.size() + " phân đoạn trong database");
+                    job.setFromCache(true);
+                    // Độ dài phân đoạn khác lần trước: nhóm lại từ phân đoạn thô thay vì chạy lại Whisper
+                    int groupedLengthMs = rawSegmentDAO.getGroupedLengthMs(fileId);
+                    if (groupedLengthMs >= 0 && groupedLengthMs != segmentLengthMs) {
+                        List<AudioSegment> regrouped = regroupLocked(fileId, segmentLengthMs);
+                        if (regrouped != null) {
+                            return regrouped;
+                        }
+                    }
                     return existingSegments;
                 }
             } else {
                 // Xóa các phân đoạn cũ nếu bắt buộc phân tích lại
                 int deleted = segmentDAO.deleteSegmentsByFileId(fileId);
                 System.err.println("Đã xóa " + deleted + " phân đoạn cũ");
+                rawSegmentDAO.deleteByFileId(fileId);
+                invalidateGroupedViews(fileId);
             }
             
-            // Thiết lập độ dài segment (chuyển đổi từ giây sang mili giây)
-            if (segmentLengthSeconds > 0) {
-                setActiveSegmentLengthMs(segmentLengthSeconds * 1000);
-                System.err.println("Thiết lập độ dài segment: " + segmentLengthSeconds + " giây (" + getActiveSegmentLengthMs() + " ms)");
-            } else {
-                setActiveSegmentLengthMs(0); // Không nhóm segment
+            if (segmentLengthMs > 0) {
+                System.err.println("Độ dài segment: " + segmentLengthSeconds + " giây (" + segmentLengthMs + " ms)");
+            }
+            
+            // Cùng nội dung âm thanh, model, ngôn ngữ và tham số: lấy kết quả từ bộ đệm phiên âm,
+            // không chạy Whisper (ví dụ khi nhập lại một bản ghi đã từng phân tích)
+            TranscriptKey transcriptKey = buildTranscriptKey(audioFile, language, segmentLengthSeconds);
+            if (!job.isForce() && transcriptKey != null) {
+                List<AudioSegment> cachedSegments = loadFromTranscriptCache(transcriptKey, fileId, segmentLengthMs);
+                if (!cachedSegments.isEmpty()) {
+                    job.setFromCache(true);
+                    // Phân đoạn thô được chép cùng từ bộ đệm nên nhóm lại sau này không phải chạy lại Whisper
+                    invalidateGroupedViews(fileId);
+                    recordFirstSegment(job, System.currentTimeMillis() - started);
+                    if (listener != null) {
+                        listener.onSegments(cachedSegments);
+                    }
+                    return cachedSegments;
+                }
+            }
+            
+            // Phân đoạn được nhóm, lưu và gửi đi ngay khi Whisper in ra
+            stream = new SegmentStream(fileId, segmentLengthMs, segmentDAO, listener, started);
+            
+            // Backend giữ model trong bộ nhớ: không phải nạp lại model cho mỗi file
+            List<AudioSegment> rawSegments = transcribeWithResidentBackend(audioFile, language, fileId, stream);
+            if (rawSegments != null) {
+                storeRawSegments(fileId, rawSegments, segmentLengthMs);
+                segments = finishStream(job, stream, applySegmentGrouping(rawSegments, segmentLengthMs, fileId), started);
+                
+                if (!segments.isEmpty()) {
+                    storeInTranscriptCache(transcriptKey, fileId);
+                }
+                System.err.println("Đã xử lý thành công: " + segments.size() + " đoạn");
+                return segments;
             }
             
-            // Tạo file tạm để lưu kết quả
-            String uniqueId = UUID.randomUUID().toString();
-            File outputFile = new File(TEMP_DIR, "whisper_" + uniqueId + "_output.txt");
+            // File tạm mang mã của job để các job chạy song song không ghi đè lên nhau
+            String uniqueId = job.getJobId();
+            File outputFile = new File(TEMP_DIR, "whisper_" + uniqueId + "_output.srt");
             String outputFilePath = outputFile.getAbsolutePath();
             
             // Chạy Whisper CLI với ngôn ngữ được chỉ định
             // Lưu ý: Không cần truyền segmentLengthSeconds vào processAudioWithWhisperCLI nữa
             // vì chúng ta sẽ xử lý việc nhóm segment sau khi phân tích
-            boolean success = processAudioWithWhisperCLI(audioFilePath, outputFilePath, language);
+            // Whisper CLI đọc bản PCM 16 kHz mono từ bộ đệm: không giải mã lại khi phân tích lại,
+            // tên file trong bộ đệm chỉ gồm ký tự ASCII nên không cần sao chép file có tên Unicode
+            // Mục bộ đệm được giữ tới khi Whisper chạy xong để không bị loại trong lúc đang đọc
+            DiskLruCache.Handle pcm = AudioProcessingService.getInstance().acquireWhisperPcm(audioFile);
+            final VoiceActivityDetector.Result speech;
+            File speechFile = null;
+            boolean success;
+            try {
+                File whisperInput = pcm.getFile();
+                
+                // Chỉ gửi các vùng có tiếng nói cho Whisper, mốc thời gian được ánh xạ lại về file gốc
+                speech = detectSpeech(audioFile);
+                job.setVadReport(speech);
+                if (speech != null) {
+                    speechFile = new File(TEMP_DIR, "whisper_" + uniqueId + "_speech.wav");
+                    VoiceActivityDetector.writeSpeechOnly(whisperInput, speech, speechFile);
+                    whisperInput = speechFile;
+                }
+                SegmentStream targetStream = stream;
+                SrtParser.CueHandler cueSink = speech == null ? stream::accept :
+                        (startMs, endMs, text) -> targetStream.accept(
+                                speech.toOriginalMs(startMs, false), speech.toOriginalMs(endMs, true), text);
+                
+                if (shouldTranscribeInChunks(whisperInput)) {
+                    success = transcribeInChunks(whisperInput, outputFile, language, uniqueId, cueSink);
+                } else {
+                    success = processAudioWithWhisperCLI(whisperInput.getAbsolutePath(), outputFilePath, language, 0, 1,
+                            line -> streamCliLine(line, cueSink));
+                }
+            } finally {
+                if (speechFile != null) {
+                    speechFile.delete();
+                }
+                pcm.close();
+            }
             
             if (!success) {
                 System.err.println("Không thể xử lý file âm thanh - có thể do lỗi encoding hoặc lỗi định dạng file");
+                discardStream(stream, fileId);
                 return segments;
             }
             
             // Đọc kết quả từ file output
             if (!outputFile.exists()) {
                 System.err.println("Không tìm thấy file kết quả tại: " + outputFile.getAbsolutePath());
+                discardStream(stream, fileId);
                 return segments;
             }
             
             // Kiểm tra kích thước file
             if (outputFile.length() == 0) {
                 System.err.println("File kết quả có kích thước 0 byte");
+                discardStream(stream, fileId);
                 return segments;
             }
             
-            // Phân tích kết quả và tạo các đoạn âm thanh
-            segments = parseWhisperOutput(outputFile, fileId);
+            // Đọc phụ đề SRT một lượt thành các đoạn âm thanh, đối chiếu với các phân đoạn đã gửi trong lúc chạy
+            List<AudioSegment> parsedSegments = SrtParser.parse(outputFile, fileId);
+            System.err.println("Đã đọc " + parsedSegments.size() + " phân đoạn từ file SRT");
+            if (speech != null) {
+                for (AudioSegment segment : parsedSegments) {
+                    segment.setStartTime(speech.toOriginalMs(segment.getStartTime(), false));
+                    segment.setEndTime(speech.toOriginalMs(segment.getEndTime(), true));
+                }
+            }
+            storeRawSegments(fileId, parsedSegments, segmentLengthMs);
+            segments = finishStream(job, stream, applySegmentGrouping(parsedSegments, segmentLengthMs, fileId), started);
             
-            // Lưu các phân đoạn vào database
             if (!segments.isEmpty()) {
-                int savedCount = segmentDAO.saveSegments(segments);
-                System.err.println("Đã lưu " + savedCount + " phân đoạn vào database");
+                storeInTranscriptCache(transcriptKey, fileId);
             }
             
             // Xóa file kết quả tạm thời
@@ -279,11 +476,289 @@ public class WhisperService {
         } catch (Exception e) {
             System.err.println("Lỗi trong quá trình phiên âm: " + e.getMessage());
             e.printStackTrace();
+            discardStream(stream, fileId);
         }
         
         return segments;
     }
     
+    /**
+     * Kết thúc luồng phân đoạn và đối chiếu với kết quả cuối cùng. Nếu các phân đoạn đã gửi trùng với
+     * kết quả cuối thì chúng đã nằm trong database; ngược lại kết quả cuối thay thế toàn bộ.
+     * @return Các phân đoạn cuối cùng
+     */
+    private List<AudioSegment> finishStream(TranscriptionJob job, SegmentStream stream, List<AudioSegment> finalSegments,
+                                            long started) {
+        List<AudioSegment> streamed = stream.finish();
+        if (stream.getFirstSegmentMs() >= 0) {
+            recordFirstSegment(job, stream.getFirstSegmentMs());
+        } else if (!finalSegments.isEmpty()) {
+            // Không có phân đoạn nào được gửi trong lúc chạy: phân đoạn đầu tiên xuất hiện khi xong
+            recordFirstSegment(job, System.currentTimeMillis() - started);
+        }
+        
+        if (!streamed.isEmpty() && stream.matches(finalSegments)) {
+            System.err.println("Đã lưu dần " + streamed.size() + " phân đoạn vào database");
+            return streamed;
+        }
+        if (finalSegments.isEmpty()) {
+            return streamed;
+        }
+        if (!streamed.isEmpty()) {
+            System.err.println("Kết quả cuối khác " + streamed.size() + " phân đoạn đã gửi, thay thế bằng kết quả cuối");
+        }
+        int savedCount = segmentDAO.saveSegments(finalSegments);
+        System.err.println("Đã lưu " + savedCount + " phân đoạn vào database");
+        return finalSegments;
+    }
+    
+    /**
+     * Hủy các phân đoạn đã lưu dần khi phiên âm thất bại, để lần phân tích sau không dùng kết quả dở dang
+     */
+    private void discardStream(SegmentStream stream, int fileId) {
+        if (stream != null && !stream.finish().isEmpty()) {
+            segmentDAO.deleteSegmentsByFileId(fileId);
+        }
+    }
+    
+    /**
+     * Đọc một dòng stdout của Whisper CLI dạng "[00:00:01.000 --> 00:00:01.320]  text",
+     * chuyển phân đoạn (nếu có) cho sink
+     */
+    private static void streamCliLine(String line, SrtParser.CueHandler sink) {
+        int open = line.indexOf('[');
+        int close = line.indexOf(']', open + 1);
+        if (open < 0 || close < 0) {
+            return;
+        }
+        long[] timing = new long[2];
+        if (SrtParser.parseTiming(line, open + 1, close, timing)) {
+            sink.onCue((int) timing[0], (int) timing[1], line.substring(close + 1).trim());
+        }
+    }
+    
+    private void recordFirstSegment(TranscriptionJob job, long milliseconds) {
+        job.setTimeToFirstSegmentMs(milliseconds);
+        firstSegmentRuns.incrementAndGet();
+        firstSegmentTotalMs.addAndGet(milliseconds);
+    }
+    
+    /**
+     * Thời gian trung bình tới phân đoạn đầu tiên (ms), -1 nếu chưa có lần phiên âm nào
+     */
+    public long getAverageTimeToFirstSegmentMs() {
+        long runs = firstSegmentRuns.get();
+        return runs > 0 ? firstSegmentTotalMs.get() / runs : -1;
+    }
+    
+    public String getStreamingStatsSummary() {
+        return "Thời gian tới phân đoạn đầu tiên: trung bình " + getAverageTimeToFirstSegmentMs() + " ms qua " +
+               firstSegmentRuns.get() + " lần phiên âm";
+    }
+    
+    /**
+     * Khóa của một kết quả phiên âm trong bộ đệm
+     */
+    private static final class TranscriptKey {
+        final String cacheKey;
+        final String contentHash;
+        final String model;
+        final String language;
+        final String params;
+        
+        TranscriptKey(String contentHash, String model, String language, String params) {
+            this.cacheKey = DiskLruCache.hashKey(contentHash, model, language, params);
+            this.contentHash = contentHash;
+            this.model = model;
+            this.language = language;
+            this.params = params;
+        }
+    }
+    
+    /**
+     * Tạo khóa bộ đệm phiên âm từ mã băm nội dung file, model (tên và kích thước file model),
+     * ngôn ngữ, backend phiên âm và các tham số giải mã
+     * @return Khóa, null nếu không tính được mã băm (khi đó bộ đệm không được dùng)
+     */
+    private TranscriptKey buildTranscriptKey(File audioFile, String language, int segmentLengthSeconds) {
+        try {
+            String contentHash = AudioProcessingService.getInstance().getContentHash(audioFile);
+            File modelFile = new File(selectModelPath(language));
+            String model = modelFile.getName() + ":" + modelFile.length();
+            String params = DECODE_PARAMS_VERSION + ";max_len=1;temperature=0;segment_s=" + Math.max(0, segmentLengthSeconds) +
+                            ";vad=" + AppConfig.getBoolean("whisper.vad", true) +
+                            ";vad_min_skip=" + AppConfig.getInt("whisper.vad.min.skip.percent", 10) +
+                            ";backend=" + describeBackend(selectBackend());
+            return new TranscriptKey(contentHash, model, language, params);
+        } catch (IOException e) {
+            System.err.println("Không thể tính mã băm nội dung, bỏ qua bộ đệm phiên âm: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Điền audio_segments của file từ bộ đệm phiên âm nếu có kết quả trùng khóa
+     * @return Các phân đoạn đã điền, danh sách rỗng nếu không có trong bộ đệm
+     */
+    private List<AudioSegment> loadFromTranscriptCache(TranscriptKey key, int fileId, int segmentLengthMs) {
+        int cacheId = transcriptCacheDAO.findCacheId(key.cacheKey);
+        if (cacheId <= 0) {
+            return new ArrayList<>();
+        }
+        
+        int copied = transcriptCacheDAO.copyToFile(cacheId, fileId, segmentLengthMs);
+        if (copied <= 0) {
+            return new ArrayList<>();
+        }
+        System.err.println("Lấy " + copied + " phân đoạn từ bộ đệm phiên âm, không chạy Whisper");
+        return segmentDAO.getSegmentsByFileId(fileId);
+    }
+    
+    /**
+     * Lưu các phân đoạn vừa phiên âm của file vào bộ đệm phiên âm
+     */
+    private void storeInTranscriptCache(TranscriptKey key, int fileId) {
+        if (key == null) {
+            return;
+        }
+        int stored = transcriptCacheDAO.storeFromFile(key.cacheKey, key.contentHash, key.model, key.language, key.params, fileId);
+        if (stored > 0) {
+            System.err.println("Đã lưu " + stored + " phân đoạn vào bộ đệm phiên âm");
+        }
+    }
+    
+    /**
+     * Chọn mô hình phù hợp với ngôn ngữ
+     */
+    private String selectModelPath(String language) {
+        String modelToUse = MODEL_PATH;
+        if (language.equals(LANG_ENGLISH)) {
+            // Sử dụng mô hình tiếng Anh cho tiếng Anh
+            modelToUse = MODEL_PATH_EN;
+            System.err.println("Sử dụng mô hình tiếng Anh: " + modelToUse);
+        } else if (language.equals(LANG_VIETNAMESE) || language.equals(LANG_JAPANESE) || language.equals(LANG_AUTO)) {
+            // Sử dụng mô hình đa ngôn ngữ cho tiếng Việt, tiếng Nhật hoặc tự động phát hiện
+            modelToUse = MODEL_PATH_MULTILINGUAL;
+            System.err.println("Sử dụng mô hình đa ngôn ngữ (base-q8_0): " + modelToUse);
+        }
+        return modelToUse;
+    }
+    
+    /**
+     * Backend sẽ phiên âm file: backend được chọn trong cấu hình nếu dùng được, không thì Whisper CLI
+     * @return "native", "server" hoặc "cli"
+     */
+    private String selectBackend() {
+        String backend = AppConfig.getString("whisper.backend", "cli");
+        if ("native".equalsIgnoreCase(backend) && WhisperNativeBackend.getInstance().isAvailable()) {
+            return "native";
+        }
+        if ("server".equalsIgnoreCase(backend) && WhisperServerBackend.getInstance().isAvailable()) {
+            return "server";
+        }
+        return "cli";
+    }
+    
+    /**
+     * Mô tả backend cùng các cấu hình làm thay đổi kết quả phiên âm của nó, dùng trong khóa bộ đệm phiên âm.
+     * Whisper CLI có thể chia file dài thành các cửa sổ chồng lấn nên cấu hình chia cửa sổ cũng được tính
+     */
+    private String describeBackend(String backend) {
+        switch (backend) {
+            case "cli":
+                if (!AppConfig.getBoolean("whisper.chunked", true)) {
+                    return "cli;chunked=false";
+                }
+                return "cli;chunked=true;chunk_min_s=" + AppConfig.getInt("whisper.chunk.min.seconds", 120) +
+                       ";chunk_s=" + AppConfig.getInt("whisper.chunk.seconds", 60) +
+                       ";overlap_ms=" + AppConfig.getInt("whisper.chunk.overlap.ms", 2000) +
+                       ";search_ms=" + AppConfig.getInt("whisper.chunk.search.ms", 5000);
+            default:
+                return backend;
+        }
+    }
+    
+    /**
+     * Phiên âm bằng backend giữ model trong bộ nhớ (native hoặc server) nếu được chọn trong cấu hình
+     * @return Các phân đoạn chưa nhóm, null nếu dùng Whisper CLI
+     */
+    private List<AudioSegment> transcribeWithResidentBackend(File audioFile, String language, int fileId,
+                                                              SegmentStream stream) throws IOException {
+        switch (selectBackend()) {
+            case "native":
+                return WhisperNativeBackend.getInstance().transcribe(audioFile, selectModelPath(language), language, fileId,
+                        segment -> stream.accept(segment.getStartTime(), segment.getEndTime(), segment.getText()));
+            case "server":
+                return WhisperServerBackend.getInstance().transcribe(audioFile, selectModelPath(language), language, fileId);
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Chạy VAD trên bản PCM của file và ghi lại thời lượng im lặng bỏ qua
+     * @return Các vùng tiếng nói, null nếu VAD bị tắt, lỗi, hoặc phần im lặng quá ít để đáng cắt
+     */
+    private VoiceActivityDetector.Result detectSpeech(File audioFile) {
+        if (!AppConfig.getBoolean("whisper.vad", true)) {
+            return null;
+        }
+        try {
+            long started = System.currentTimeMillis();
+            VoiceActivityDetector.Result result = voiceActivityDetector.detect(audioFile);
+            System.err.println(result.getSummary() + " - " + audioFile.getName() + ", sau " +
+                               (System.currentTimeMillis() - started) + " ms");
+            
+            if (result.getRegions().isEmpty()) {
+                // Không phát hiện được tiếng nói: vẫn phiên âm cả file để không mất nội dung nói nhỏ
+                System.err.println("VAD không tìm thấy tiếng nói, phiên âm toàn bộ file");
+                return null;
+            }
+            double minSkipRatio = AppConfig.getInt("whisper.vad.min.skip.percent", 10) / 100.0;
+            if (result.getSkippedRatio() < minSkipRatio) {
+                System.err.println("Phần im lặng dưới " + Math.round(minSkipRatio * 100) + "%, phiên âm toàn bộ file");
+                return null;
+            }
+            return result;
+        } catch (IOException e) {
+            System.err.println("Không thể chạy VAD, phiên âm toàn bộ file: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Chỉ chia cửa sổ cho file đủ dài, file ngắn chạy một lần Whisper CLI sẽ nhanh hơn
+     */
+    private boolean shouldTranscribeInChunks(File audioFile) {
+        if (!AppConfig.getBoolean("whisper.chunked", true)) {
+            return false;
+        }
+        try {
+            long durationMs = AudioProcessingService.getInstance().getAudioDurationMs(audioFile.getPath());
+            return durationMs >= AppConfig.getInt("whisper.chunk.min.seconds", 120) * 1000L;
+        } catch (IOException e) {
+            System.err.println("Không thể xác định độ dài file, phiên âm một lần: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Phiên âm file dài theo các cửa sổ chồng lấn, mỗi cửa sổ là một tiến trình Whisper CLI chạy song song
+     */
+    private boolean transcribeInChunks(File audioFile, File outputFile, String language, String uniqueId,
+                                       SrtParser.CueHandler cueSink) {
+        File workDir = new File(TEMP_DIR, "whisper_" + uniqueId + "_chunks");
+        try {
+            return chunkedTranscriber.transcribe(audioFile, outputFile, workDir,
+                    (chunkFile, chunkOutput, concurrentJobs) -> processAudioWithWhisperCLI(
+                            chunkFile.getAbsolutePath(), chunkOutput.getAbsolutePath(), language, 0, concurrentJobs, null),
+                    cueSink);
+        } catch (IOException e) {
+            System.err.println("Lỗi khi phiên âm theo cửa sổ: " + e.getMessage());
+            return false;
+        }
+    }
+    
     private boolean processAudioWithWhisperCLI(String audioFilePath, String outputFilePath) {
         return processAudioWithWhisperCLI(audioFilePath, outputFilePath, LANG_AUTO);
     }
@@ -296,18 +771,22 @@ public class WhisperService {
      * @return true nếu xử lý thành công, false nếu có lỗi
      */
     private boolean processAudioWithWhisperCLI(String audioFilePath, String outputFilePath, String language) {
-        return processAudioWithWhisperCLI(audioFilePath, outputFilePath, language, 0);
+        return processAudioWithWhisperCLI(audioFilePath, outputFilePath, language, 0, 1, null);
     }
     
     /**
      * Xử lý file âm thanh với Whisper CLI và ngôn ngữ cụ thể
      * @param audioFilePath Đường dẫn file âm thanh
-     * @param outputFilePath Đường dẫn file output
+     * @param outputFilePath Đường dẫn file phụ đề SRT kết quả
      * @param language Ngôn ngữ cần phát hiện (auto, en, vi, ja)
      * @param segmentLengthSeconds Độ dài mỗi phân đoạn tính bằng giây (0 = tự động phân đoạn theo Whisper)
+     * @param concurrentJobs Số tiến trình Whisper người gọi chạy đồng thời, dùng để chia threads
+     * @param outputListener Nhận từng dòng Whisper CLI in ra trong lúc chạy, có thể null
      * @return true nếu xử lý thành công, false nếu có lỗi
      */
-    private boolean processAudioWithWhisperCLI(String audioFilePath, String outputFilePath, String language, int segmentLengthSeconds) {
+    private boolean processAudioWithWhisperCLI(String audioFilePath, String outputFilePath, String language,
+                                               int segmentLengthSeconds, int concurrentJobs,
+                                               Consumer<String> outputListener) {
         try {
             // Kiểm tra xem file có tồn tại không
             File audioFile = new File(audioFilePath);
@@ -316,24 +795,14 @@ public class WhisperService {
                 return false;
             }
             
-            // Tạo file tạm nếu file gốc có ký tự đặc biệt
-            File tempAudioFile = audioFile;
-            boolean usingTempFile = false;
-            
-            if (audioFilePath.matches(".*[^\\x00-\\x7F].*")) {
-                // File chứa ký tự Unicode (không phải ASCII), cần tạo symlink hoặc copy
-                File tempFile = new File(TEMP_DIR, "temp_audio_" + UUID.randomUUID().toString() + getFileExtension(audioFilePath));
-                try {
-                    // Copy file để đảm bảo tên file không có ký tự đặc biệt
-                    java.nio.file.Files.copy(audioFile.toPath(), tempFile.toPath(), 
-                                         java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                    tempAudioFile = tempFile;
-                    usingTempFile = true;
-                    System.err.println("Đã tạo file tạm: " + tempFile.getAbsolutePath());
-                } catch (Exception e) {
-                    System.err.println("Lỗi khi tạo file tạm: " + e.getMessage());
-                    return false;
-                }
+            // File có đường dẫn Unicode: dùng đường dẫn ASCII trỏ tới cùng file (hard link, symlink,
+            // chỉ sao chép khi không tạo được liên kết), được dùng lại cho các lần chạy sau
+            File whisperInputFile;
+            try {
+                whisperInputFile = PathStager.getInstance().stage(audioFile);
+            } catch (IOException e) {
+                System.err.println("Lỗi khi tạo đường dẫn tạm: " + e.getMessage());
+                return false;
             }
             
             // Xây dựng command line
@@ -341,29 +810,18 @@ public class WhisperService {
             command.add(WHISPER_CLI_PATH);
             
             // Chọn mô hình phù hợp với ngôn ngữ
-            String modelToUse = MODEL_PATH;
-            if (language.equals(LANG_ENGLISH)) {
-                // Sử dụng mô hình tiếng Anh cho tiếng Anh
-                modelToUse = MODEL_PATH_EN;
-                System.err.println("Sử dụng mô hình tiếng Anh: " + modelToUse);
-            } else if (language.equals(LANG_VIETNAMESE) || language.equals(LANG_JAPANESE) || language.equals(LANG_AUTO)) {
-                // Sử dụng mô hình đa ngôn ngữ cho tiếng Việt, tiếng Nhật hoặc tự động phát hiện
-                modelToUse = MODEL_PATH_MULTILINGUAL;
-                System.err.println("Sử dụng mô hình đa ngôn ngữ (base-q8_0): " + modelToUse);
-            }
+            String modelToUse = selectModelPath(language);
             
             // Cấu hình Whisper
             command.add("-m"); // Model file
             command.add(modelToUse);
             
             command.add("-f"); // Input file
-            command.add(tempAudioFile.getAbsolutePath()); // Sử dụng đường dẫn tuyệt đối của file tạm
-            
-            command.add("-otxt"); // Output text file format
+            command.add(whisperInputFile.getAbsolutePath()); // Đường dẫn tuyệt đối, chỉ gồm ký tự ASCII
             
-            // Xử lý tham số output file - cần loại bỏ đuôi .txt nếu có
+            // Xử lý tham số output file - Whisper tự thêm đuôi .srt vào tiền tố
             String baseOutputPath = outputFilePath;
-            if (baseOutputPath.toLowerCase().endsWith(".txt")) {
+            if (baseOutputPath.toLowerCase().endsWith(".srt")) {
                 baseOutputPath = baseOutputPath.substring(0, baseOutputPath.length() - 4);
             }
             
@@ -389,8 +847,9 @@ public class WhisperService {
             // Tùy chọn xuất từng phân đoạn riêng biệt
             command.add("-osrt"); // Output SRT format (timestamp + text)
                         
-            // Tùy chọn sử dụng số lượng threads ít để tăng độ ổn định
+            // Số threads do WhisperThreadScheduler cấp theo tải hiện tại, điền ngay trước khi chạy
             command.add("-t"); // Threads
+            int threadsArgIndex = command.size();
             command.add("1");
             
             // Tùy chọn chia nhỏ văn bản
@@ -399,8 +858,8 @@ public class WhisperService {
             
             // Thêm tùy chọn đặc biệt cho tiếng Việt
             if (language.equals(LANG_VIETNAMESE)) {
-                // Thêm các tham số tối ưu cho tiếng Việt
-                command.add("--no-timestamps"); // Tắt timestamps để tập trung vào độ chính xác của văn bản
+                // Không dùng --no-timestamps: phân đoạn chỉ được gửi đi trong lúc chạy khi mỗi dòng stdout
+                // có mốc [t0 --> t1]; tùy chọn này không ảnh hưởng độ chính xác hay file -osrt
                 command.add("--language"); // Chỉ định ngôn ngữ rõ ràng
                 command.add("vi");
             }
@@ -419,129 +878,59 @@ public class WhisperService {
             System.err.println("Thực thi lệnh: " + cmdString.toString());
             
             // Thực thi lệnh
-            ProcessBuilder pb = new ProcessBuilder(command);
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            
-            // Đọc và in ra output với UTF-8
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), java.nio.charset.StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.err.println("[Whisper] " + line);
+            ExternalProcessRunner.Result result;
+            WhisperThreadScheduler scheduler = WhisperThreadScheduler.getInstance();
+            try (WhisperThreadScheduler.Lease lease = scheduler.acquire(concurrentJobs)) {
+                command.set(threadsArgIndex, String.valueOf(lease.getThreads()));
+                System.err.println("Whisper CLI dùng " + lease.getThreads() + " threads. " + scheduler.getStatusSummary());
+                
+                ExternalProcessRunner.Request request = new ExternalProcessRunner.Request(command)
+                        .logTag("Whisper")
+                        .timeout(10, TimeUnit.MINUTES)
+                        .lineListener(outputListener);
+                CompletableFuture<ExternalProcessRunner.Result> process = ExternalProcessRunner.getInstance().start(request);
+                try {
+                    result = process.get();
+                } catch (InterruptedException e) {
+                    // Job bị hủy (ví dụ một cửa sổ khác thất bại): kết thúc whisper-cli và chờ nó thoát
+                    // trước khi trả luồng về bộ lập lịch
+                    process.cancel(true);
+                    throw e;
                 }
             }
             
-            // Đợi cho process kết thúc (tối đa 10 phút)
-            boolean completed = process.waitFor(10, TimeUnit.MINUTES);
-            if (!completed) {
-                System.err.println("Quá thời gian xử lý, đang hủy...");
-                process.destroyForcibly();
-                
-                // Xóa file tạm nếu đã tạo
-                if (usingTempFile && tempAudioFile.exists()) {
-                    tempAudioFile.delete();
-                    System.err.println("Đã xóa file tạm: " + tempAudioFile.getAbsolutePath());
-                }
-                
+            // Quá thời gian xử lý (tối đa 10 phút)
+            if (result.isTimedOut()) {
+                System.err.println("Quá thời gian xử lý, đã hủy Whisper CLI");
                 return false;
             }
             
-            int exitCode = process.exitValue();
-            System.err.println("Whisper CLI kết thúc với mã: " + exitCode);
+            int exitCode = result.getExitCode();
+            System.err.println("Whisper CLI kết thúc với mã: " + exitCode + " sau " + result.getWallMillis() + " ms");
+            if (exitCode != 0) {
+                System.err.println(result.getTailText());
+            }
             
-            try {
-                // Kiểm tra file output đã được tạo chưa
-                // Whisper có thể tạo ra nhiều loại file output khác nhau (.txt, .srt, .vtt)
-                File expectedOutput = new File(baseOutputPath + ".srt");
-                if (exitCode == 0 && expectedOutput.exists()) {
-                    // Kiểm tra kích thước file có hợp lệ không
-                    if (expectedOutput.length() > 0) {
-                        try {
-                            // Đọc file SRT và chuyển đổi thành định dạng text
-                            convertSrtToText(expectedOutput, new File(outputFilePath));
-                            
-                            // Kiểm tra file output đã được tạo và có nội dung
-                            File outputTextFile = new File(outputFilePath);
-                            if (outputTextFile.exists() && outputTextFile.length() > 0) {
-                                // Xóa file tạm nếu đã tạo
-                                if (usingTempFile && tempAudioFile.exists()) {
-                                    tempAudioFile.delete();
-                                    System.err.println("Đã xóa file tạm: " + tempAudioFile.getAbsolutePath());
-                                }
-                                
-                                return true;
-                            } else {
-                                System.err.println("File output không có nội dung hợp lệ sau khi chuyển đổi");
-                                // Hiển thị nội dung file SRT gốc để debug
-                                try {
-                                    byte[] content = Files.readAllBytes(expectedOutput.toPath());
-                                    System.err.println("Nội dung file SRT gốc (hex): " + bytesToHex(content, 100));
-                                } catch (Exception e) {
-                                    System.err.println("Không thể đọc nội dung file SRT gốc: " + e.getMessage());
-                                }
-                            }
-                        } catch (Exception e) {
-                            System.err.println("Lỗi khi chuyển đổi file SRT: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    } else {
-                        System.err.println("File SRT được tạo nhưng có kích thước 0 byte");
-                    }
-                }
-                
-                // Thử tìm file .txt nếu không có .srt
-                expectedOutput = new File(baseOutputPath + ".txt");
-                if (exitCode == 0 && expectedOutput.exists()) {
-                    // Kiểm tra kích thước file có hợp lệ không
-                    if (expectedOutput.length() > 0) {
-                        try {
-                            System.err.println("Đang đọc file TXT từ: " + expectedOutput.getAbsolutePath());
-                            
-                            // In một số thông tin về file
-                            System.err.println("Kích thước file TXT: " + expectedOutput.length() + " bytes");
-                            
-                            // Đọc toàn bộ file dưới dạng mảng byte
-                            byte[] fileContent = Files.readAllBytes(expectedOutput.toPath());
-                            
-                            // In 100 byte đầu tiên để debug
-                            System.err.println("100 byte đầu tiên của file TXT: " + bytesToHex(fileContent, 100));
-                            
-                            // Tạo chuỗi từ mảng byte với ISO-8859-1 (không làm hỏng byte nào)
-                            String contentStr = new String(fileContent, java.nio.charset.StandardCharsets.ISO_8859_1);
-                            
-                            // Tách dòng theo cả Windows và Unix line endings
-                            String[] linesArray = contentStr.split("\\r?\\n");
-                            List<String> textLines = Arrays.asList(linesArray);
-                            
-                            // Ghi ra file với UTF-8
-                            Files.write(new File(outputFilePath).toPath(), textLines, java.nio.charset.StandardCharsets.UTF_8);
-                            expectedOutput.delete(); // Xóa file tạm sau khi sao chép
-                            
-                            // Xóa file tạm nếu đã tạo
-                            if (usingTempFile && tempAudioFile.exists()) {
-                                tempAudioFile.delete();
-                                System.err.println("Đã xóa file tạm: " + tempAudioFile.getAbsolutePath());
-                            }
-                            
-                            return true;
-                        } catch (Exception e) {
-                            System.err.println("Lỗi khi xử lý file TXT: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    } else {
-                        System.err.println("File TXT được tạo nhưng có kích thước 0 byte");
-                    }
+            // Whisper CLI ghi kết quả vào <tiền tố>.srt, được đọc trực tiếp bằng SrtParser
+            File srtOutput = new File(baseOutputPath + ".srt");
+            if (exitCode == 0 && srtOutput.exists()) {
+                if (srtOutput.length() == 0) {
+                    System.err.println("File SRT được tạo nhưng có kích thước 0 byte");
+                    return false;
                 }
-            } finally {
-                // Đảm bảo xóa file tạm dù có lỗi hay không
-                if (usingTempFile && tempAudioFile.exists()) {
-                    tempAudioFile.delete();
-                    System.err.println("Đã xóa file tạm: " + tempAudioFile.getAbsolutePath());
+                File outputFile = new File(outputFilePath);
+                if (!srtOutput.getAbsoluteFile().equals(outputFile.getAbsoluteFile())) {
+                    Files.move(srtOutput.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
                 }
+                return true;
             }
             
             return exitCode == 0;
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Whisper CLI bị hủy do job bị gián đoạn");
+            return false;
         } catch (Exception e) {
             System.err.println("Lỗi khi xử lý với Whisper CLI: " + e.getMessage());
             e.printStackTrace();
@@ -550,279 +939,122 @@ public class WhisperService {
     }
     
     /**
-     * Chuyển đổi file SRT sang định dạng text phù hợp cho phân tích
+     * File đang được phiên âm (hoặc nhóm lại) bởi một luồng khác; khi đó audio_segments có thể mới chỉ
+     * chứa phần đã phiên âm xong
      */
-    private void convertSrtToText(File srtFile, File textFile) throws IOException {
-        System.err.println("Đang đọc file SRT từ: " + srtFile.getAbsolutePath());
-        
-        // In một số thông tin về file
-        System.err.println("Kích thước file SRT: " + srtFile.length() + " bytes");
-        
-                    // Đọc toàn bộ file dưới dạng mảng byte
-            byte[] fileContent = Files.readAllBytes(srtFile.toPath());
-            
-            // In 100 byte đầu tiên để debug
-            System.err.println("100 byte đầu tiên của file SRT: " + bytesToHex(fileContent, 100));
-            
-            // Thử đọc với UTF-8 trước
-            String contentStr;
-            try {
-                contentStr = new String(fileContent, java.nio.charset.StandardCharsets.UTF_8);
-                System.err.println("Đọc file SRT với encoding UTF-8");
-            } catch (Exception e) {
-                // Nếu có lỗi, quay lại dùng ISO-8859-1
-                contentStr = new String(fileContent, java.nio.charset.StandardCharsets.ISO_8859_1);
-                System.err.println("Đọc file SRT với encoding ISO-8859-1");
-            }
-        
-        // Tách dòng theo cả Windows và Unix line endings
-        String[] linesArray = contentStr.split("\\r?\\n");
-        List<String> lines = Arrays.asList(linesArray);
-        
-        List<String> outputLines = new ArrayList<>();
-        
-        System.err.println("Đọc file SRT với " + lines.size() + " dòng");
-        
-        int i = 0;
-        while (i < lines.size()) {
-            String line = lines.get(i).trim();
-            
-            // Kiểm tra xem đây có phải là số thứ tự không (1, 2, 3, ...)
-            if (line.matches("\\d+")) {
-                int segmentNumber = Integer.parseInt(line);
-                i++; // Bỏ qua số thứ tự
-                
-                // Dòng tiếp theo chứa timestamp (00:00:01,000 --> 00:00:02,000)
-                if (i < lines.size()) {
-                    String timestamp = lines.get(i).trim();
-                    i++;
-                    
-                    System.err.println("Xử lý segment #" + segmentNumber + " với timestamp: " + timestamp);
-                    
-                    // Kiểm tra định dạng timestamp
-                    if (timestamp.contains(" --> ")) {
-                        // Cần chuyển dấu phẩy thành dấu chấm cho phù hợp với định dạng phân tích
-                        timestamp = timestamp.replace(',', '.');
-                        
-                        // Dòng tiếp theo chứa text, có thể có nhiều dòng
-                        StringBuilder text = new StringBuilder();
-                        while (i < lines.size() && !lines.get(i).trim().isEmpty()) {
-                            text.append(lines.get(i).trim()).append(" ");
-                            i++;
-                        }
-                        
-                        // Thêm dòng với format phù hợp cho parseWhisperOutput
-                        if (text.length() > 0) {
-                            String formattedLine = "[Whisper] [" + timestamp + "] " + text.toString().trim();
-                            outputLines.add(formattedLine);
-                            System.err.println("Đã chuyển đổi thành: " + formattedLine);
-                        }
-                    } else {
-                        // Không phải định dạng timestamp hợp lệ, bỏ qua
-                        System.err.println("Bỏ qua dòng không phải timestamp: " + timestamp);
-                    }
-                }
-            } else {
-                // Bỏ qua dòng không khớp với định dạng SRT
-                i++;
-            }
+    public boolean isBusy(int fileId) {
+        ReentrantLock fileLock = fileLocks.get(fileId);
+        return fileLock != null && fileLock.isLocked();
+    }
+    
+    /**
+     * Nhóm lại các phân đoạn của file theo độ dài mới từ phân đoạn thô đã lưu, không chạy lại Whisper.
+     * Kết quả thay thế audio_segments của file (các chỉnh sửa nội dung trên cách nhóm cũ không được giữ)
+     * @param fileId ID của file âm thanh
+     * @param segmentLengthSeconds Độ dài mỗi phân đoạn tính bằng giây (0 = phân đoạn theo Whisper)
+     * @return Các phân đoạn theo độ dài mới, null nếu file chưa có phân đoạn thô (cần phân tích lại)
+     */
+    public List<AudioSegment> regroupSegments(int fileId, int segmentLengthSeconds) {
+        ReentrantLock fileLock = fileLocks.computeIfAbsent(fileId, id -> new ReentrantLock());
+        fileLock.lock();
+        try {
+            return regroupLocked(fileId, Math.max(0, segmentLengthSeconds) * 1000);
+        } finally {
+            fileLock.unlock();
         }
-        
-                    // Ghi ra file text với UTF-8
-            System.err.println("Ghi " + outputLines.size() + " dòng vào file text");
-            
-            // Đảm bảo ghi với UTF-8 và thêm BOM để các ứng dụng Windows nhận diện đúng
-            try {
-                java.io.OutputStreamWriter writer = new java.io.OutputStreamWriter(
-                    new java.io.FileOutputStream(textFile), java.nio.charset.StandardCharsets.UTF_8);
-                
-                // Ghi từng dòng
-                for (String line : outputLines) {
-                    writer.write(line + "\n");
-                }
-                
-                writer.close();
-                System.err.println("Đã ghi file text với UTF-8 encoding");
-            } catch (Exception e) {
-                System.err.println("Lỗi khi ghi file: " + e.getMessage());
-                // Fallback to basic method
-                Files.write(textFile.toPath(), outputLines, java.nio.charset.StandardCharsets.UTF_8);
-            }
     }
     
-    private List<AudioSegment> parseWhisperOutput(File outputFile, int fileId) {
-        List<AudioSegment> segments = new ArrayList<>();
+    /**
+     * Nhóm lại khi đang giữ khóa của file. Nếu audio_segments đã ở đúng độ dài thì trả về nguyên trạng
+     * (giữ các chỉnh sửa), ngược lại tính cách nhóm từ phân đoạn thô (hoặc lấy từ bộ đệm) và lưu lại
+     */
+    private List<AudioSegment> regroupLocked(int fileId, int segmentLengthMs) {
+        int groupedLengthMs = rawSegmentDAO.getGroupedLengthMs(fileId);
+        if (groupedLengthMs < 0) {
+            return null;
+        }
+        if (groupedLengthMs == segmentLengthMs) {
+            return segmentDAO.getSegmentsByFileId(fileId);
+        }
         
-        try {
-            System.err.println("Đang đọc file output từ: " + outputFile.getAbsolutePath());
-            
-            // In một số thông tin về file
-            System.err.println("Kích thước file output: " + outputFile.length() + " bytes");
-            
-            // Đọc toàn bộ file dưới dạng mảng byte
-            byte[] fileContent = Files.readAllBytes(outputFile.toPath());
-            
-            // In 100 byte đầu tiên để debug
-            System.err.println("100 byte đầu tiên của file output: " + bytesToHex(fileContent, 100));
-            
-            // Thử đọc với UTF-8 trước
-            String contentStr;
-            try {
-                contentStr = new String(fileContent, java.nio.charset.StandardCharsets.UTF_8);
-                System.err.println("Đọc file output với encoding UTF-8");
-            } catch (Exception e) {
-                // Nếu có lỗi, quay lại dùng ISO-8859-1
-                contentStr = new String(fileContent, java.nio.charset.StandardCharsets.ISO_8859_1);
-                System.err.println("Đọc file output với encoding ISO-8859-1");
-            }
-            
-            // Tách dòng theo cả Windows và Unix line endings
-            String[] linesArray = contentStr.split("\\r?\\n");
-            List<String> lines = Arrays.asList(linesArray);
-            
-            System.err.println("Đọc file output với " + lines.size() + " dòng");
-            
-            // Định dạng sau khi chuyển đổi từ SRT:
-            // [Whisper] [00:00:20.000 --> 00:00:22.000] text
-            // Sử dụng biểu thức chính quy linh hoạt hơn để bắt nhiều định dạng timestamp
-            Pattern pattern = Pattern.compile("\\[Whisper\\]\\s*\\[(\\d{1,2}):(\\d{1,2}):(\\d{1,2})\\.(\\d{1,3})\\s*-->\\s*(\\d{1,2}):(\\d{1,2}):(\\d{1,2})\\.(\\d{1,3})\\]\\s*(.*)");
-            
-            // In ra một vài dòng đầu để xem định dạng thực tế
-            int debugLineCount = Math.min(10, lines.size());
-            System.err.println("--- Debug: " + debugLineCount + " dòng đầu tiên ---");
-            for (int i = 0; i < debugLineCount; i++) {
-                System.err.println("[Line " + i + "]: " + lines.get(i));
-            }
-            System.err.println("--- End Debug ---");
-            
-            // Danh sách tạm thời để lưu các segment nhỏ từ Whisper
-            List<AudioSegment> rawSegments = new ArrayList<>();
-            
-            for (String line : lines) {
-                System.err.println("Phân tích dòng: " + line);
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    try {
-                        // Parse start time
-                        int startHours = Integer.parseInt(matcher.group(1));
-                        int startMinutes = Integer.parseInt(matcher.group(2));
-                        int startSeconds = Integer.parseInt(matcher.group(3));
-                        int startMillis = Integer.parseInt(matcher.group(4));
-                        
-                        // Parse end time
-                        int endHours = Integer.parseInt(matcher.group(5));
-                        int endMinutes = Integer.parseInt(matcher.group(6));
-                        int endSeconds = Integer.parseInt(matcher.group(7));
-                        int endMillis = Integer.parseInt(matcher.group(8));
-                        
-                        // Chuyển đổi sang milliseconds
-                        int startTimeMs = ((startHours * 60 + startMinutes) * 60 + startSeconds) * 1000 + startMillis;
-                        int endTimeMs = ((endHours * 60 + endMinutes) * 60 + endSeconds) * 1000 + endMillis;
-                        
-                        // Trích xuất text
-                        String text = matcher.group(9).trim();
-                        
-                        if (!text.isEmpty()) {
-                            AudioSegment segment = new AudioSegment();
-                            segment.setFileId(fileId);
-                            segment.setStartTime(startTimeMs);
-                            segment.setEndTime(endTimeMs);
-                            segment.setText(text);
-                            rawSegments.add(segment);
-                            
-                            System.err.println("Đã tạo segment: [" + segment.getFormattedStartTime() + "-" + 
-                                              segment.getFormattedEndTime() + "]: '" + text + "' (" + 
-                                              startTimeMs + "ms-" + endTimeMs + "ms)");
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Lỗi khi phân tích dòng: " + line);
-                        e.printStackTrace();
-                    }
-                }
-            }
-            
-            // Nếu không tìm thấy mẫu phù hợp nào, hiển thị cảnh báo
-            if (rawSegments.isEmpty()) {
-                System.err.println("Không tìm thấy định dạng timestamp phù hợp trong file output.");
-                
-                // Thử tìm text bằng cách lọc các dòng bắt đầu bằng [Whisper]
-                List<String> filteredLines = new ArrayList<>();
-                for (String line : lines) {
-                    if (line.contains("[Whisper]")) {
-                        // Trích xuất phần text sau [Whisper]
-                        String text = line.substring(line.indexOf("[Whisper]") + 9).trim();
-                        if (!text.isEmpty()) {
-                            filteredLines.add(text);
-                        }
-                    }
-                }
-                
-                // Nếu tìm được các dòng có ý nghĩa
-                if (!filteredLines.isEmpty()) {
-                    String fullText = String.join(" ", filteredLines);
-                    System.err.println("Đã tìm thấy " + filteredLines.size() + " dòng có chứa text");
-                    
-                    // Tạo segment với toàn bộ text tìm được
-                    AudioSegment segment = new AudioSegment();
-                    segment.setFileId(fileId);
-                    segment.setStartTime(0);
-                    segment.setEndTime(0);
-                    segment.setText(fullText.trim());
-                    segments.add(segment);
-                    
-                    System.err.println("Xử lý " + filteredLines.size() + " dòng như một segment duy nhất");
-                } else {
-                    // Chuyển đổi toàn bộ nội dung thành một segment để không làm mất nội dung
-                    String fullText = String.join(" ", lines);
-                    if (!fullText.trim().isEmpty()) {
-                        AudioSegment segment = new AudioSegment();
-                        segment.setFileId(fileId);
-                        segment.setStartTime(0);
-                        segment.setEndTime(0);
-                        segment.setText(fullText.trim());
-                        segments.add(segment);
-                        
-                        System.err.println("Xử lý toàn bộ nội dung như một segment duy nhất: " + fullText.trim());
-                    }
-                }
-                
-                return segments;
-            }
-            
-            System.err.println("Tổng số raw segments đã phân tích: " + rawSegments.size());
-            
-            // Kiểm tra xem có cần nhóm các segment lại không
-            // Nhóm các segment lại theo segmentLengthSeconds
-            int segmentLengthMs = getActiveSegmentLengthMs();
-            if (segmentLengthMs > 0 && rawSegments.size() > 1) {
-                System.err.println("Thực hiện nhóm segment với độ dài " + segmentLengthMs + " ms");
-                segments = groupSegments(rawSegments, segmentLengthMs, fileId);
-                System.err.println("Đã nhóm thành " + segments.size() + " segment lớn hơn");
-            } else {
-                segments = rawSegments;
+        long started = System.currentTimeMillis();
+        List<AudioSegment> view = getGroupedView(fileId, segmentLengthMs);
+        if (view == null) {
+            return null;
+        }
+        List<AudioSegment> segments = new ArrayList<>(view.size());
+        for (AudioSegment segment : view) {
+            segments.add(new AudioSegment(0, fileId, segment.getStartTime(), segment.getEndTime(), segment.getText()));
+        }
+        if (segments.isEmpty()) {
+            segmentDAO.deleteSegmentsByFileId(fileId);
+        } else {
+            segmentDAO.saveSegments(segments);
+        }
+        rawSegmentDAO.updateGroupedLengthMs(fileId, segmentLengthMs);
+        System.err.println("Đã nhóm lại thành " + segments.size() + " phân đoạn (" + segmentLengthMs + " ms) sau " +
+                           (System.currentTimeMillis() - started) + " ms, không chạy lại Whisper");
+        return segments;
+    }
+    
+    /**
+     * Cách nhóm các phân đoạn thô của file theo độ dài, tính một lượt O(n) trên danh sách đã sắp xếp
+     * @return Danh sách chỉ đọc, null nếu file chưa có phân đoạn thô
+     */
+    private List<AudioSegment> getGroupedView(int fileId, int segmentLengthMs) {
+        String key = fileId + ":" + segmentLengthMs;
+        synchronized (groupedViews) {
+            List<AudioSegment> cached = groupedViews.get(key);
+            if (cached != null) {
+                return cached;
             }
-            
-            System.err.println("Tổng số segments cuối cùng: " + segments.size());
-            
-        } catch (Exception e) {
-            System.err.println("Lỗi khi phân tích file output: " + e.getMessage());
-            e.printStackTrace();
         }
         
-        return segments;
+        List<AudioSegment> raw = rawSegmentDAO.getRawSegments(fileId);
+        if (raw == null) {
+            return null;
+        }
+        List<AudioSegment> view = Collections.unmodifiableList(
+                segmentLengthMs > 0 && raw.size() > 1 ? groupSegments(raw, segmentLengthMs, fileId) : raw);
+        synchronized (groupedViews) {
+            groupedViews.put(key, view);
+        }
+        return view;
     }
     
-    // Biến để lưu độ dài segment hiện tại đang được sử dụng
-    private int activeSegmentLengthMs = 0;
+    private void invalidateGroupedViews(int fileId) {
+        String prefix = fileId + ":";
+        synchronized (groupedViews) {
+            groupedViews.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
     
-    // Thiết lập độ dài segment đang sử dụng (milliseconds)
-    public void setActiveSegmentLengthMs(int milliseconds) {
-        this.activeSegmentLengthMs = milliseconds;
+    /**
+     * Lưu các phân đoạn thô vừa phiên âm để sau này nhóm lại theo độ dài khác mà không chạy lại Whisper
+     */
+    private void storeRawSegments(int fileId, List<AudioSegment> rawSegments, int segmentLengthMs) {
+        invalidateGroupedViews(fileId);
+        if (rawSegments.isEmpty()) {
+            return;
+        }
+        List<AudioSegment> sorted = new ArrayList<>(rawSegments);
+        sorted.sort(Comparator.comparingInt(AudioSegment::getStartTime));
+        if (rawSegmentDAO.saveRawSegments(fileId, sorted, segmentLengthMs)) {
+            System.err.println("Đã lưu " + sorted.size() + " phân đoạn thô để nhóm lại khi cần");
+        }
     }
     
-    // Lấy độ dài segment đang sử dụng (milliseconds)
-    public int getActiveSegmentLengthMs() {
-        return this.activeSegmentLengthMs;
+    /**
+     * Nhóm các segment lại theo độ dài segment của job, nếu có
+     */
+    private List<AudioSegment> applySegmentGrouping(List<AudioSegment> rawSegments, int segmentLengthMs, int fileId) {
+        if (segmentLengthMs > 0 && rawSegments.size() > 1) {
+            System.err.println("Thực hiện nhóm segment với độ dài " + segmentLengthMs + " ms");
+            List<AudioSegment> grouped = groupSegments(rawSegments, segmentLengthMs, fileId);
+            System.err.println("Đã nhóm thành " + grouped.size() + " segment lớn hơn");
+            return grouped;
+        }
+        return rawSegments;
     }
     
     /**
@@ -873,9 +1105,6 @@ public class WhisperService {
                     currentSegment.setText(textBuilder.toString().trim());
                     groupedSegments.add(currentSegment);
                     
-                    System.err.println("Đã tạo grouped segment: [" + currentSegment.getFormattedStartTime() + "-" + 
-                                      currentSegment.getFormattedEndTime() + "]: '" + currentSegment.getText() + "'");
-                    
                     // Reset để tạo segment mới
                     textBuilder = new StringBuilder(segment.getText());
                     currentStartTime = segment.getStartTime();
@@ -893,9 +1122,6 @@ public class WhisperService {
         if (currentSegment != null) {
             currentSegment.setText(textBuilder.toString().trim());
             groupedSegments.add(currentSegment);
-            
-            System.err.println("Đã tạo grouped segment: [" + currentSegment.getFormattedStartTime() + "-" + 
-                              currentSegment.getFormattedEndTime() + "]: '" + currentSegment.getText() + "'");
         }
         
         return groupedSegments;
@@ -918,54 +1144,6 @@ public class WhisperService {
         return false;
     }
     
-    /**
-     * Lấy phần mở rộng của tệp tin, bao gồm dấu chấm
-     * @param filePath Đường dẫn tệp tin
-     * @return Phần mở rộng của tệp tin (ví dụ: .mp3) hoặc chuỗi rỗng nếu không có
-     */
-    private String getFileExtension(String filePath) {
-        if (filePath == null || filePath.isEmpty()) {
-            return "";
-        }
-        
-        int lastDotIndex = filePath.lastIndexOf('.');
-        if (lastDotIndex < 0 || lastDotIndex == filePath.length() - 1) {
-            return "";
-        }
-        
-        return filePath.substring(lastDotIndex);
-    }
-    
-    /**
-     * Chuyển đổi mảng byte thành chuỗi hex để debug
-     * @param bytes Mảng byte cần chuyển đổi
-     * @param maxBytes Số byte tối đa để hiển thị
-     * @return Chuỗi hex
-     */
-    private String bytesToHex(byte[] bytes, int maxBytes) {
-        if (bytes == null) {
-            return "null";
-        }
-        
-        StringBuilder sb = new StringBuilder();
-        int limit = Math.min(bytes.length, maxBytes);
-        
-        for (int i = 0; i < limit; i++) {
-            sb.append(String.format("%02X ", bytes[i]));
-            
-            // Thêm xuống dòng sau mỗi 16 byte
-            if ((i + 1) % 16 == 0) {
-                sb.append("\n");
-            }
-        }
-        
-        if (bytes.length > maxBytes) {
-            sb.append("... (").append(bytes.length - maxBytes).append(" bytes more)");
-        }
-        
-        return sb.toString();
-    }
-    
     // Hướng dẫn cài đặt whisper
     public static String getInstallationGuide() {
         return "# Hướng dẫn cài đặt Whisper\n\n" +
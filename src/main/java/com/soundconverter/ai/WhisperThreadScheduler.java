@@ -0,0 +1,136 @@
+package com.soundconverter.ai;
+
+import com.soundconverter.services.AppConfig;
+
+/**
+ * Quản lý số nhân CPU dành cho các tiến trình Whisper đang chạy.
+ * Mỗi lần chạy xin một lượt thuê (lease) và nhận số luồng (-t) theo tải hiện tại:
+ * chạy một mình thì được nhiều luồng, chạy cùng nhiều job khác thì được chia đều.
+ * Tổng số luồng đang thuê không bao giờ vượt quá ngân sách; khi hết, job mới phải chờ.
+ */
+public class WhisperThreadScheduler {
+
+    private static WhisperThreadScheduler instance;
+
+    private final int budget;
+    private final int maxThreadsPerJob;
+
+    private int threadsInUse;
+    private int activeJobs;
+    private int waitingJobs;
+    private long completedJobs;
+
+    private WhisperThreadScheduler(int budget, int maxThreadsPerJob) {
+        this.budget = budget > 0 ? budget : Runtime.getRuntime().availableProcessors();
+        this.maxThreadsPerJob = maxThreadsPerJob > 0 ? Math.min(maxThreadsPerJob, this.budget) : this.budget;
+    }
+
+    public static synchronized WhisperThreadScheduler getInstance() {
+        if (instance == null) {
+            instance = new WhisperThreadScheduler(
+                    AppConfig.getInt("whisper.threads.budget", 0),
+                    AppConfig.getInt("whisper.threads.max.per.job", 8));
+        }
+        return instance;
+    }
+
+    /**
+     * Lượt thuê luồng của một job, trả lại khi đóng
+     */
+    public final class Lease implements AutoCloseable {
+        private final int threads;
+        private boolean released;
+
+        private Lease(int threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * Số luồng job được dùng (giá trị của tham số -t)
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    /**
+     * Xin luồng cho một job, chờ nếu ngân sách đã dùng hết
+     * @param expectedConcurrentJobs Số job người gọi sắp chạy đồng thời (ví dụ số cửa sổ chạy song song),
+     *                               dùng để chia đều ngân sách ngay từ job đầu tiên
+     */
+    public synchronized Lease acquire(int expectedConcurrentJobs) throws InterruptedException {
+        waitingJobs++;
+        try {
+            while (threadsInUse >= budget) {
+                wait();
+            }
+        } finally {
+            waitingJobs--;
+        }
+
+        // Chia đều ngân sách cho các job đang chạy, đang chờ và job này
+        int sharers = Math.max(Math.max(1, expectedConcurrentJobs), activeJobs + waitingJobs + 1);
+        int share = Math.max(1, budget / sharers);
+        int threads = Math.min(Math.min(share, maxThreadsPerJob), budget - threadsInUse);
+
+        threadsInUse += threads;
+        activeJobs++;
+        return new Lease(threads);
+    }
+
+    public Lease acquire() throws InterruptedException {
+        return acquire(1);
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.released) {
+            return;
+        }
+        lease.released = true;
+        threadsInUse -= lease.threads;
+        activeJobs--;
+        completedJobs++;
+        notifyAll();
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public int getMaxThreadsPerJob() {
+        return maxThreadsPerJob;
+    }
+
+    public synchronized int getThreadsInUse() {
+        return threadsInUse;
+    }
+
+    public synchronized int getActiveJobs() {
+        return activeJobs;
+    }
+
+    public synchronized int getWaitingJobs() {
+        return waitingJobs;
+    }
+
+    public synchronized long getCompletedJobs() {
+        return completedJobs;
+    }
+
+    /**
+     * Tỷ lệ ngân sách đang được dùng (0..1)
+     */
+    public synchronized double getUtilization() {
+        return (double) threadsInUse / budget;
+    }
+
+    public synchronized String getStatusSummary() {
+        return "Luồng Whisper: " + threadsInUse + "/" + budget + " đang dùng, " + activeJobs + " job đang chạy, " +
+               waitingJobs + " job đang chờ, " + completedJobs + " job đã xong";
+    }
+}
@@ -3,11 +3,16 @@ package com.soundconverter.controllers;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.soundconverter.ai.TranscriptionJob;
+import com.soundconverter.ai.VoiceActivityDetector;
 import com.soundconverter.ai.WhisperService;
 import com.soundconverter.dao.AudioFileDAO;
 import com.soundconverter.dao.MergedAudioDAO;
@@ -15,7 +20,10 @@ import com.soundconverter.models.AudioFile;
 import com.soundconverter.models.AudioSegment;
 import com.soundconverter.models.MergedAudio;
 import com.soundconverter.models.MergedAudio.MergeSegment;
+import com.soundconverter.models.SegmentSearchHit;
 import com.soundconverter.services.AudioProcessingService;
+import com.soundconverter.services.TranscriptSearchService;
+import com.soundconverter.services.TranscriptSearchService.SearchPage;
 
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
@@ -25,14 +33,19 @@ import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.ProgressBar;
 import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
@@ -63,13 +76,29 @@ public class MainController implements Initializable {
     @FXML private ComboBox<String> languageComboBox;
     @FXML private TextField segmentLengthField;
     
+    @FXML private TabPane mainTabPane;
+    @FXML private Tab audioFilesTab;
+    @FXML private TextField searchField;
+    @FXML private TableView<SegmentSearchHit> searchResultsTable;
+    @FXML private TableColumn<SegmentSearchHit, String> searchFileColumn;
+    @FXML private TableColumn<SegmentSearchHit, String> searchTimeColumn;
+    @FXML private TableColumn<SegmentSearchHit, String> searchTextColumn;
+    @FXML private Button searchPreviousButton;
+    @FXML private Button searchNextButton;
+    @FXML private Label searchPageLabel;
+    
     private final AudioFileDAO audioFileDAO = new AudioFileDAO();
     private final MergedAudioDAO mergedAudioDAO = new MergedAudioDAO();
     private final AudioProcessingService audioProcessingService = AudioProcessingService.getInstance();
+    private final TranscriptSearchService searchService = TranscriptSearchService.getInstance();
     
     private MergedAudio currentMerge;
     private final ObservableList<MergeItem> mergeItems = FXCollections.observableArrayList();
     
+    // Truy vấn và trang kết quả tìm kiếm đang hiển thị
+    private String currentSearchQuery = "";
+    private int currentSearchOffset = 0;
+    
     // Thư mục output cho file tạm và file cuối cùng
     private static final String OUTPUT_DIR = "./output/";
     
@@ -150,6 +179,21 @@ public class MainController implements Initializable {
             }
         });
         
+        // Show duration next to file name when metadata is known
+        audioFilesList.setCellFactory(listView -> new ListCell<AudioFile>() {
+            @Override
+            protected void updateItem(AudioFile item, boolean empty) {
+                super.updateItem(item, empty);
+                if (empty || item == null) {
+                    setText(null);
+                } else if (item.getMetadata() != null) {
+                    setText(item.getFileName() + " (" + item.getMetadata().getFormattedDuration() + ")");
+                } else {
+                    setText(item.getFileName());
+                }
+            }
+        });
+        
         // Setup audio file selection listener
         audioFilesList.getSelectionModel().selectedItemProperty().addListener(
             (observable, oldValue, newValue) -> loadAudioSegments(newValue));
@@ -162,6 +206,21 @@ public class MainController implements Initializable {
         
         mergeSegmentsTable.setItems(mergeItems);
         
+        // Setup search results table; double-click opens the hit in its file
+        searchFileColumn.setCellValueFactory(new PropertyValueFactory<>("fileName"));
+        searchTimeColumn.setCellValueFactory(cellData -> 
+            new SimpleStringProperty(cellData.getValue().getFormattedStartTime()));
+        searchTextColumn.setCellValueFactory(new PropertyValueFactory<>("text"));
+        searchResultsTable.setRowFactory(table -> {
+            TableRow<SegmentSearchHit> row = new TableRow<>();
+            row.setOnMouseClicked(event -> {
+                if (event.getClickCount() == 2 && !row.isEmpty()) {
+                    openSearchHit(row.getItem());
+                }
+            });
+            return row;
+        });
+        
         // Initialize a new merge
         handleNewMerge();
         
@@ -193,13 +252,25 @@ public class MainController implements Initializable {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Import Audio File");
         fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("Audio Files", "*.mp3", "*.wav", "*.ogg", "*.aac")
+            new FileChooser.ExtensionFilter("Audio Files", "*.mp3", "*.wav", "*.ogg", "*.flac", "*.aac")
         );
         
         Stage stage = (Stage) audioFilesList.getScene().getWindow();
         File selectedFile = fileChooser.showOpenDialog(stage);
         
         if (selectedFile != null) {
+            // File đã nhập trước đó chỉ được chọn lại, không tạo bản ghi trùng
+            AudioFile existing = audioFileDAO.getAudioFileByPath(selectedFile.getAbsolutePath());
+            if (existing != null) {
+                refreshAudioFilesList();
+                audioFilesList.getItems().stream()
+                        .filter(item -> item.getId() == existing.getId())
+                        .findFirst()
+                        .ifPresent(item -> audioFilesList.getSelectionModel().select(item));
+                updateStatus("Audio file already imported: " + selectedFile.getName());
+                return;
+            }
+            
             AudioFile audioFile = new AudioFile();
             audioFile.setFileName(selectedFile.getName());
             audioFile.setFilePath(selectedFile.getAbsolutePath());
@@ -207,8 +278,36 @@ public class MainController implements Initializable {
             int fileId = audioFileDAO.addAudioFile(audioFile);
             if (fileId > 0) {
                 refreshAudioFilesList();
-                audioFilesList.getSelectionModel().select(audioFile);
+                AudioFile listed = audioFilesList.getItems().stream()
+                        .filter(item -> item.getId() == fileId)
+                        .findFirst()
+                        .orElse(audioFile);
+                audioFilesList.getSelectionModel().select(listed);
                 updateStatus("Imported audio file: " + selectedFile.getName());
+                
+                // Đọc và lưu metadata ngay khi nhập để danh sách và kiểm tra trộn không phải đọc lại.
+                // Có thể phải quét mọi frame MP3 hoặc chờ FFprobe nên chạy ngoài luồng giao diện
+                Task<Void> metadataTask = new Task<>() {
+                    @Override
+                    protected Void call() throws Exception {
+                        audioProcessingService.getMetadata(listed);
+                        return null;
+                    }
+                    
+                    @Override
+                    protected void succeeded() {
+                        // Ô của file trong danh sách hiển thị thêm thời lượng
+                        audioFilesList.refresh();
+                    }
+                    
+                    @Override
+                    protected void failed() {
+                        System.err.println("Không thể đọc metadata của file " + selectedFile.getName() + ": " +
+                                           getException().getMessage());
+                    }
+                };
+                
+                new Thread(metadataTask).start();
             } else {
                 showError("Failed to import audio file");
             }
@@ -223,6 +322,25 @@ public class MainController implements Initializable {
             return;
         }
         
+        // Lấy độ dài segment (seconds)
+        int segmentLength = 0; // Mặc định 0 = tự động phân đoạn theo Whisper
+        try {
+            segmentLength = Integer.parseInt(segmentLengthField.getText().trim());
+            if (segmentLength < 0) {
+                segmentLength = 0;
+                segmentLengthField.setText("0");
+            }
+        } catch (NumberFormatException e) {
+            segmentLength = 0;
+            segmentLengthField.setText("0");
+        }
+        
+        // Phân đoạn của file đang phân tích mới chỉ là phần đã xong, không hỏi dùng lại hay phân tích lại lúc này
+        if (WhisperService.getInstance().isBusy(selectedFile.getId())) {
+            updateStatus("Audio file is still being analyzed: " + selectedFile.getFileName());
+            return;
+        }
+        
         // Hiển thị hộp thoại hỏi người dùng có muốn phân tích lại không
         boolean forceAnalyze = false;
         List<AudioSegment> existingSegments = WhisperService.getInstance().getSegments(selectedFile.getId());
@@ -241,11 +359,39 @@ public class MainController implements Initializable {
             if (result.isPresent() && result.get() == buttonReanalyze) {
                 forceAnalyze = true;
             } else {
-                // Hiển thị các phân đoạn hiện có
-                selectedFile.setSegments(existingSegments);
-                segmentsTable.setItems(FXCollections.observableArrayList(existingSegments));
-                segmentsTable.refresh();
-                updateStatus("Using " + existingSegments.size() + " existing segments");
+                // Nhóm lại các phân đoạn thô theo độ dài hiện tại (không chạy lại Whisper), nếu có.
+                // Chạy ngoài luồng giao diện vì phải chờ khóa của file và đọc/ghi database
+                List<AudioSegment> savedSegments = existingSegments;
+                int regroupLength = segmentLength;
+                long regroupStarted = System.currentTimeMillis();
+                updateStatus("Loading existing segments: " + selectedFile.getFileName());
+                
+                Task<List<AudioSegment>> regroupTask = new Task<>() {
+                    @Override
+                    protected List<AudioSegment> call() {
+                        return WhisperService.getInstance().regroupSegments(selectedFile.getId(), regroupLength);
+                    }
+                    
+                    @Override
+                    protected void succeeded() {
+                        List<AudioSegment> regrouped = getValue();
+                        List<AudioSegment> segments = regrouped != null ? regrouped : savedSegments;
+                        
+                        // Hiển thị các phân đoạn hiện có
+                        selectedFile.setSegments(segments);
+                        segmentsTable.setItems(FXCollections.observableArrayList(segments));
+                        segmentsTable.refresh();
+                        updateStatus("Using " + segments.size() + " existing segments" +
+                                     (regrouped != null ? String.format(" (grouped in %d ms)", System.currentTimeMillis() - regroupStarted) : ""));
+                    }
+                    
+                    @Override
+                    protected void failed() {
+                        showError("Failed to regroup segments: " + getException().getMessage());
+                    }
+                };
+                
+                new Thread(regroupTask).start();
                 return;
             }
         }
@@ -253,19 +399,6 @@ public class MainController implements Initializable {
         // Lấy ngôn ngữ đã chọn
         final String selectedLanguage = getSelectedLanguageCode();
         
-        // Lấy độ dài segment (seconds)
-        int segmentLength = 0; // Mặc định 0 = tự động phân đoạn theo Whisper
-        try {
-            segmentLength = Integer.parseInt(segmentLengthField.getText().trim());
-            if (segmentLength < 0) {
-                segmentLength = 0;
-                segmentLengthField.setText("0");
-            }
-        } catch (NumberFormatException e) {
-            segmentLength = 0;
-            segmentLengthField.setText("0");
-        }
-        
         final int finalSegmentLength = segmentLength;
         
         updateStatus("Analyzing audio file: " + selectedFile.getFileName() + 
@@ -275,6 +408,20 @@ public class MainController implements Initializable {
         
         final boolean forceFinal = forceAnalyze; // Sử dụng trong lambda
         
+        // Bảng hiển thị các phân đoạn ngay khi Whisper in ra
+        LiveSegmentFeed liveFeed = new LiveSegmentFeed(selectedFile.getFileName());
+        segmentsTable.setItems(liveFeed.getItems());
+        
+        // Job mang cấu hình và kết quả của riêng lần phân tích này
+        TranscriptionJob job = new TranscriptionJob(
+            selectedFile.getFilePath(), 
+            selectedFile.getId(), 
+            forceFinal,
+            selectedLanguage,
+            finalSegmentLength,
+            liveFeed::offer
+        );
+        
         Task<List<AudioSegment>> task = new Task<>() {
             @Override
             protected List<AudioSegment> call() throws Exception {
@@ -282,15 +429,7 @@ public class MainController implements Initializable {
                 WhisperService whisperService = WhisperService.getInstance();
                 
                 // Transcribe audio - Service tự động lưu vào database
-                // Truyền tham số force để ép phân tích lại nếu cần
-                // Thêm tham số ngôn ngữ được chọn
-                return whisperService.transcribeAudio(
-                    selectedFile.getFilePath(), 
-                    selectedFile.getId(), 
-                    forceFinal,
-                    selectedLanguage,
-                    finalSegmentLength
-                );
+                return whisperService.transcribe(job);
             }
             
             @Override
@@ -304,7 +443,12 @@ public class MainController implements Initializable {
                     segmentsTable.refresh();
                     
                     showAnalysisProgress(false);
-                    updateStatus("Analysis complete: " + segments.size() + " segments found for: " + selectedFile.getFileName());
+                    long firstSegmentMs = job.getTimeToFirstSegmentMs();
+                    VoiceActivityDetector.Result vad = job.getVadReport();
+                    updateStatus("Analysis complete: " + segments.size() + " segments found for: " + selectedFile.getFileName() +
+                                 (firstSegmentMs >= 0 ? String.format(" (first segment after %.1f s)", firstSegmentMs / 1000.0) : "") +
+                                 (vad != null ? String.format(", skipped %.1f s of silence (%.0f%%)",
+                                         vad.getSkippedMs() / 1000.0, vad.getSkippedRatio() * 100) : ""));
                 });
             }
             
@@ -410,6 +554,116 @@ public class MainController implements Initializable {
         updateStatus("Added segment to merge list");
     }
     
+    @FXML
+    private void handleSearch() {
+        String query = searchField.getText() != null ? searchField.getText().trim() : "";
+        if (query.isEmpty()) {
+            showError("Please enter words to search for");
+            return;
+        }
+        runSearch(query, 0);
+    }
+    
+    @FXML
+    private void handleSearchPrevious() {
+        runSearch(currentSearchQuery, Math.max(0, currentSearchOffset - searchService.getPageSize()));
+    }
+    
+    @FXML
+    private void handleSearchNext() {
+        runSearch(currentSearchQuery, currentSearchOffset + searchService.getPageSize());
+    }
+    
+    @FXML
+    private void handleOpenSearchHit() {
+        SegmentSearchHit hit = searchResultsTable.getSelectionModel().getSelectedItem();
+        if (hit == null) {
+            showError("Please select a search result to open");
+            return;
+        }
+        openSearchHit(hit);
+    }
+    
+    /**
+     * Chạy truy vấn tìm kiếm ở luồng nền và hiển thị trang kết quả bắt đầu tại offset
+     */
+    private void runSearch(String query, int offset) {
+        searchPreviousButton.setDisable(true);
+        searchNextButton.setDisable(true);
+        updateStatus("Searching for: " + query);
+        
+        Task<SearchPage> task = new Task<>() {
+            @Override
+            protected SearchPage call() throws Exception {
+                return searchService.search(query, offset);
+            }
+            
+            @Override
+            protected void succeeded() {
+                SearchPage page = getValue();
+                
+                Platform.runLater(() -> {
+                    currentSearchQuery = query;
+                    currentSearchOffset = page.getOffset();
+                    searchResultsTable.setItems(FXCollections.observableArrayList(page.getHits()));
+                    searchPreviousButton.setDisable(page.getOffset() == 0);
+                    searchNextButton.setDisable(!page.hasMore());
+                    
+                    if (page.getHits().isEmpty()) {
+                        searchPageLabel.setText("No results");
+                    } else {
+                        searchPageLabel.setText("Results " + (page.getOffset() + 1) + "-" +
+                                                (page.getOffset() + page.getHits().size()));
+                    }
+                    updateStatus("Search complete: " + page.getHits().size() + " results for \"" + query +
+                                 "\" in " + page.getElapsedMs() + " ms");
+                });
+            }
+            
+            @Override
+            protected void failed() {
+                Platform.runLater(() -> showError("Search failed: " + getException().getMessage()));
+            }
+        };
+        
+        new Thread(task).start();
+    }
+    
+    /**
+     * Chuyển sang tab Audio Files, chọn file chứa kết quả và cuộn tới phân đoạn tương ứng
+     */
+    private void openSearchHit(SegmentSearchHit hit) {
+        AudioFile file = audioFilesList.getItems().stream()
+                .filter(item -> item.getId() == hit.getFileId())
+                .findFirst()
+                .orElse(null);
+        if (file == null) {
+            // Danh sách có thể đã cũ so với database
+            refreshAudioFilesList();
+            file = audioFilesList.getItems().stream()
+                    .filter(item -> item.getId() == hit.getFileId())
+                    .findFirst()
+                    .orElse(null);
+        }
+        if (file == null) {
+            showError("The file for this result no longer exists");
+            return;
+        }
+        
+        mainTabPane.getSelectionModel().select(audioFilesTab);
+        audioFilesList.getSelectionModel().select(file);
+        audioFilesList.scrollTo(file);
+        
+        for (AudioSegment segment : segmentsTable.getItems()) {
+            if (segment.getId() == hit.getSegmentId()) {
+                segmentsTable.getSelectionModel().select(segment);
+                segmentsTable.scrollTo(segment);
+                break;
+            }
+        }
+        updateStatus("Opened " + hit.getFileName() + " at " + hit.getFormattedStartTime());
+    }
+    
     @FXML
     private void handleNewMerge() {
         mergeItems.clear();
@@ -433,8 +687,9 @@ public class MainController implements Initializable {
             mergeFilenameField.setText(filename);
         }
         
-        // Make sure filename has .mp3 extension
-        if (!filename.toLowerCase().endsWith(".mp3")) {
+        // Make sure filename has .mp3 or .wav extension
+        boolean wavOutput = filename.toLowerCase().endsWith(".wav");
+        if (!wavOutput && !filename.toLowerCase().endsWith(".mp3")) {
             filename += ".mp3";
             mergeFilenameField.setText(filename);
         }
@@ -443,9 +698,10 @@ public class MainController implements Initializable {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Merged Audio");
         fileChooser.setInitialFileName(filename);
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("MP3 Files", "*.mp3")
-        );
+        FileChooser.ExtensionFilter mp3Filter = new FileChooser.ExtensionFilter("MP3 Files", "*.mp3");
+        FileChooser.ExtensionFilter wavFilter = new FileChooser.ExtensionFilter("WAV Files", "*.wav");
+        fileChooser.getExtensionFilters().addAll(mp3Filter, wavFilter);
+        fileChooser.setSelectedExtensionFilter(wavOutput ? wavFilter : mp3Filter);
         
         Stage stage = (Stage) mergeFilenameField.getScene().getWindow();
         File selectedFile = fileChooser.showSaveDialog(stage);
@@ -494,8 +750,8 @@ public class MainController implements Initializable {
                 String outputPath = getValue();
                 currentMerge.setFilePath(outputPath);
                 
-                // Save to database
-                int mergeId = mergedAudioDAO.addMergedAudio(currentMerge);
+                // Save to database (cập nhật cấu hình đã lưu thay vì tạo bản trùng)
+                int mergeId = mergedAudioDAO.saveMergedAudio(currentMerge);
                 
                 showProgress(false);
                 if (mergeId > 0) {
@@ -576,8 +832,8 @@ public class MainController implements Initializable {
                 currentMerge.setFileName(mergeFilename);
                 mergeFilenameField.setText(mergeFilename);
                 
-                // Save to database
-                int mergeId = mergedAudioDAO.addMergedAudio(currentMerge);
+                // Save to database: cấu hình đã lưu chỉ ghi lại những phân đoạn thay đổi
+                int mergeId = mergedAudioDAO.saveMergedAudio(currentMerge);
                 
                 if (mergeId > 0) {
                     updateStatus("Saved merge configuration: " + mergeName);
@@ -922,6 +1178,46 @@ public class MainController implements Initializable {
         return WhisperService.LANG_AUTO;
     }
     
+    /**
+     * Gom các phân đoạn nhận từ luồng phiên âm và thêm vào bảng theo lô: mỗi lượt cập nhật giao diện
+     * thêm mọi phân đoạn đã đến kể từ lượt trước, thay vì một Platform.runLater cho mỗi phân đoạn
+     */
+    private class LiveSegmentFeed {
+        private final ObservableList<AudioSegment> items = FXCollections.observableArrayList();
+        private final ConcurrentLinkedQueue<AudioSegment> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final String fileName;
+        
+        LiveSegmentFeed(String fileName) {
+            this.fileName = fileName;
+        }
+        
+        ObservableList<AudioSegment> getItems() {
+            return items;
+        }
+        
+        // Gọi trên luồng phiên âm
+        void offer(List<AudioSegment> segments) {
+            pending.addAll(segments);
+            if (flushScheduled.compareAndSet(false, true)) {
+                Platform.runLater(this::flush);
+            }
+        }
+        
+        private void flush() {
+            flushScheduled.set(false);
+            List<AudioSegment> batch = new ArrayList<>();
+            AudioSegment segment;
+            while ((segment = pending.poll()) != null) {
+                batch.add(segment);
+            }
+            if (!batch.isEmpty()) {
+                items.addAll(batch);
+                statusLabel.setText("Transcribing " + fileName + ": " + items.size() + " segments so far");
+            }
+        }
+    }
+    
     // Lớp hỗ trợ hiển thị các mục trộn trong bảng
     public static class MergeItem {
         private final int sourceFileId;
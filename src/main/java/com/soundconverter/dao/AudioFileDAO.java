@@ -9,18 +9,20 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.soundconverter.models.AudioFile;
+import com.soundconverter.models.AudioMetadata;
 import com.soundconverter.models.AudioSegment;
 
 public class AudioFileDAO {
-    private final Connection connection;
+    private final DatabaseConnection database;
 
     public AudioFileDAO() {
-        connection = DatabaseConnection.getInstance().getConnection();
+        database = DatabaseConnection.getInstance();
     }
 
     public int addAudioFile(AudioFile audioFile) {
         String sql = "INSERT INTO audio_files (file_name, file_path) VALUES (?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, audioFile.getFileName());
             pstmt.setString(2, audioFile.getFilePath());
             pstmt.executeUpdate();
@@ -40,7 +42,8 @@ public class AudioFileDAO {
 
     public boolean updateAudioFile(AudioFile audioFile) {
         String sql = "UPDATE audio_files SET file_name = ?, file_path = ? WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setString(1, audioFile.getFileName());
             pstmt.setString(2, audioFile.getFilePath());
             pstmt.setInt(3, audioFile.getId());
@@ -53,7 +56,8 @@ public class AudioFileDAO {
 
     public boolean deleteAudioFile(int id) {
         String sql = "DELETE FROM audio_files WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             return pstmt.executeUpdate() > 0;
         } catch (SQLException e) {
@@ -64,7 +68,8 @@ public class AudioFileDAO {
 
     public AudioFile getAudioFileById(int id) {
         String sql = "SELECT * FROM audio_files WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -73,8 +78,9 @@ public class AudioFileDAO {
                             rs.getString("file_name"),
                             rs.getString("file_path")
                     );
+                    audioFile.setMetadata(readMetadata(rs));
                     // Load segments
-                    loadSegments(audioFile);
+                    loadSegments(connection, audioFile);
                     return audioFile;
                 }
             }
@@ -84,10 +90,37 @@ public class AudioFileDAO {
         return null;
     }
 
+    /**
+     * Tìm file đã nhập theo đường dẫn (dùng chỉ mục idx_audio_files_path), không tải phân đoạn
+     * @return File đã nhập, null nếu chưa có hoặc có lỗi
+     */
+    public AudioFile getAudioFileByPath(String filePath) {
+        String sql = "SELECT * FROM audio_files WHERE file_path = ? LIMIT 1";
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, filePath);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    AudioFile audioFile = new AudioFile(
+                            rs.getInt("id"),
+                            rs.getString("file_name"),
+                            rs.getString("file_path")
+                    );
+                    audioFile.setMetadata(readMetadata(rs));
+                    return audioFile;
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting audio file by path: " + e.getMessage());
+        }
+        return null;
+    }
+
     public List<AudioFile> getAllAudioFiles() {
         List<AudioFile> audioFiles = new ArrayList<>();
         String sql = "SELECT * FROM audio_files";
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = database.getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
                 AudioFile audioFile = new AudioFile(
@@ -95,6 +128,7 @@ public class AudioFileDAO {
                         rs.getString("file_name"),
                         rs.getString("file_path")
                 );
+                audioFile.setMetadata(readMetadata(rs));
                 // Optional: Load segments for each file
                 // loadSegments(audioFile);
                 audioFiles.add(audioFile);
@@ -105,7 +139,50 @@ public class AudioFileDAO {
         return audioFiles;
     }
 
+    public boolean updateMetadata(int fileId, AudioMetadata metadata) {
+        String sql = "UPDATE audio_files SET file_size = ?, file_mtime = ?, duration_ms = ?, " +
+                     "sample_rate = ?, channels = ?, codec = ? WHERE id = ?";
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setLong(1, metadata.getFileSize());
+            pstmt.setLong(2, metadata.getLastModified());
+            pstmt.setLong(3, metadata.getDurationMs());
+            pstmt.setInt(4, metadata.getSampleRate());
+            pstmt.setInt(5, metadata.getChannels());
+            pstmt.setString(6, metadata.getCodec());
+            pstmt.setInt(7, fileId);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error updating audio metadata: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private AudioMetadata readMetadata(ResultSet rs) throws SQLException {
+        long durationMs = rs.getLong("duration_ms");
+        if (rs.wasNull()) {
+            return null;
+        }
+        return new AudioMetadata(
+                rs.getLong("file_size"),
+                rs.getLong("file_mtime"),
+                durationMs,
+                rs.getInt("sample_rate"),
+                rs.getInt("channels"),
+                rs.getString("codec")
+        );
+    }
+
     public void loadSegments(AudioFile audioFile) {
+        try (Connection connection = database.getConnection()) {
+            loadSegments(connection, audioFile);
+        } catch (SQLException e) {
+            System.err.println("Error loading segments: " + e.getMessage());
+        }
+    }
+
+    // Dùng kết nối người gọi đang mượn, không mượn thêm kết nối thứ hai
+    private void loadSegments(Connection connection, AudioFile audioFile) throws SQLException {
         String sql = "SELECT * FROM audio_segments WHERE file_id = ? ORDER BY start_time";
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, audioFile.getId());
@@ -121,14 +198,13 @@ public class AudioFileDAO {
                     audioFile.addSegment(segment);
                 }
             }
-        } catch (SQLException e) {
-            System.err.println("Error loading segments: " + e.getMessage());
         }
     }
 
     public int addSegment(AudioSegment segment) {
         String sql = "INSERT INTO audio_segments (file_id, start_time, end_time, text) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setInt(1, segment.getFileId());
             pstmt.setInt(2, segment.getStartTime());
             pstmt.setInt(3, segment.getEndTime());
@@ -150,7 +226,8 @@ public class AudioFileDAO {
 
     public boolean updateSegment(AudioSegment segment) {
         String sql = "UPDATE audio_segments SET start_time = ?, end_time = ?, text = ? WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, segment.getStartTime());
             pstmt.setInt(2, segment.getEndTime());
             pstmt.setString(3, segment.getText());
@@ -164,7 +241,8 @@ public class AudioFileDAO {
 
     public boolean deleteSegment(int id) {
         String sql = "DELETE FROM audio_segments WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             return pstmt.executeUpdate() > 0;
         } catch (SQLException e) {
@@ -176,7 +254,8 @@ public class AudioFileDAO {
     public List<AudioSegment> getSegmentsByFileId(int fileId) {
         List<AudioSegment> segments = new ArrayList<>();
         String sql = "SELECT * FROM audio_segments WHERE file_id = ? ORDER BY start_time";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, fileId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
@@ -11,10 +11,13 @@ import java.util.List;
 import com.soundconverter.models.AudioSegment;
 
 public class AudioSegmentDAO {
-    private Connection connection;
+    // Số dòng tối đa trong một lần gửi batch
+    private static final int BATCH_SIZE = 1000;
+    
+    private final DatabaseConnection database;
     
     public AudioSegmentDAO() {
-        connection = DatabaseConnection.getInstance().getConnection();
+        database = DatabaseConnection.getInstance();
     }
     
     /**
@@ -25,7 +28,8 @@ public class AudioSegmentDAO {
     public int saveSegment(AudioSegment segment) {
         String sql = "INSERT INTO audio_segments (file_id, start_time, end_time, text) VALUES (?, ?, ?, ?)";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setInt(1, segment.getFileId());
             stmt.setInt(2, segment.getStartTime());
             stmt.setInt(3, segment.getEndTime());
@@ -52,27 +56,105 @@ public class AudioSegmentDAO {
     }
     
     /**
-     * Lưu nhiều phân đoạn âm thanh cùng lúc
-     * @param segments Danh sách các phân đoạn cần lưu
-     * @return Số lượng phân đoạn đã lưu thành công
+     * Lưu nhiều phân đoạn âm thanh cùng lúc, thay thế các phân đoạn cũ của file.
+     * Việc xóa và toàn bộ lệnh INSERT chạy trong một giao dịch dưới dạng batch
+     * @param segments Danh sách các phân đoạn cần lưu (id được gán lại sau khi lưu)
+     * @return Số lượng phân đoạn đã lưu thành công, 0 nếu có lỗi (khi đó các phân đoạn cũ được giữ nguyên)
      */
     public int saveSegments(List<AudioSegment> segments) {
-        int savedCount = 0;
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        int fileId = segments.get(0).getFileId();
+        return writeSegments(segments, fileId);
+    }
+    
+    /**
+     * Thêm các phân đoạn vào cuối danh sách phân đoạn của file, không xóa phân đoạn đã có.
+     * Dùng khi lưu dần kết quả trong lúc đang phiên âm; cả lô được ghi trong một giao dịch
+     * @param segments Danh sách các phân đoạn cần thêm
+     * @return Số lượng phân đoạn đã lưu thành công
+     */
+    public int appendSegments(List<AudioSegment> segments) {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        return writeSegments(segments, -1);
+    }
+    
+    /**
+     * Ghi các phân đoạn trong một giao dịch
+     * @param replaceFileId Xóa các phân đoạn cũ của file này trước khi ghi, -1 nếu không xóa
+     */
+    private int writeSegments(List<AudioSegment> segments, int replaceFileId) {
+        long started = System.currentTimeMillis();
         
-        // Xóa các phân đoạn cũ của file này (nếu có)
-        if (!segments.isEmpty()) {
-            int fileId = segments.get(0).getFileId();
-            deleteSegmentsByFileId(fileId);
+        try (Connection connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (replaceFileId >= 0) {
+                    try (PreparedStatement delete = connection.prepareStatement("DELETE FROM audio_segments WHERE file_id = ?")) {
+                        delete.setInt(1, replaceFileId);
+                        delete.executeUpdate();
+                    }
+                }
+                int savedCount = insertBatch(connection, segments);
+                connection.commit();
+                
+                if (segments.size() >= BATCH_SIZE) {
+                    System.err.println("Đã lưu " + savedCount + " phân đoạn trong " +
+                                       (System.currentTimeMillis() - started) + " ms");
+                }
+                return savedCount;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi lưu các phân đoạn: " + e.getMessage());
         }
         
-        // Lưu các phân đoạn mới
-        for (AudioSegment segment : segments) {
-            if (saveSegment(segment) > 0) {
-                savedCount++;
+        return 0;
+    }
+    
+    /**
+     * Chèn các phân đoạn bằng JDBC batch (driver gộp thành INSERT nhiều dòng nhờ rewriteBatchedStatements),
+     * mỗi lần gửi tối đa BATCH_SIZE dòng, rồi gán id được sinh cho từng phân đoạn theo thứ tự
+     */
+    private int insertBatch(Connection connection, List<AudioSegment> segments) throws SQLException {
+        String sql = "INSERT INTO audio_segments (file_id, start_time, end_time, text) VALUES (?, ?, ?, ?)";
+        int savedCount = 0;
+        
+        try (PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (int from = 0; from < segments.size(); from += BATCH_SIZE) {
+                List<AudioSegment> batch = segments.subList(from, Math.min(segments.size(), from + BATCH_SIZE));
+                for (AudioSegment segment : batch) {
+                    stmt.setInt(1, segment.getFileId());
+                    stmt.setInt(2, segment.getStartTime());
+                    stmt.setInt(3, segment.getEndTime());
+                    stmt.setString(4, segment.getText());
+                    stmt.addBatch();
+                }
+                
+                for (int count : stmt.executeBatch()) {
+                    if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                        savedCount++;
+                    }
+                }
+                
+                try (ResultSet rs = stmt.getGeneratedKeys()) {
+                    int index = 0;
+                    while (rs.next() && index < batch.size()) {
+                        batch.get(index++).setId(rs.getInt(1));
+                    }
+                }
             }
         }
         
-        return savedCount;
+        return Math.min(savedCount, segments.size());
     }
     
     /**
@@ -83,7 +165,8 @@ public class AudioSegmentDAO {
     public boolean updateSegment(AudioSegment segment) {
         String sql = "UPDATE audio_segments SET start_time = ?, end_time = ?, text = ? WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, segment.getStartTime());
             stmt.setInt(2, segment.getEndTime());
             stmt.setString(3, segment.getText());
@@ -107,7 +190,8 @@ public class AudioSegmentDAO {
     public boolean deleteSegment(int segmentId) {
         String sql = "DELETE FROM audio_segments WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, segmentId);
             
             int affectedRows = stmt.executeUpdate();
@@ -128,7 +212,8 @@ public class AudioSegmentDAO {
     public int deleteSegmentsByFileId(int fileId) {
         String sql = "DELETE FROM audio_segments WHERE file_id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, fileId);
             
             return stmt.executeUpdate();
@@ -149,7 +234,8 @@ public class AudioSegmentDAO {
         List<AudioSegment> segments = new ArrayList<>();
         String sql = "SELECT * FROM audio_segments WHERE file_id = ? ORDER BY start_time";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, fileId);
             
             try (ResultSet rs = stmt.executeQuery()) {
@@ -180,7 +266,8 @@ public class AudioSegmentDAO {
     public AudioSegment getSegmentById(int segmentId) {
         String sql = "SELECT * FROM audio_segments WHERE id = ?";
         
-        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setInt(1, segmentId);
             
             try (ResultSet rs = stmt.executeQuery()) {
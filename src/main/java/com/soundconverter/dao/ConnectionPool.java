@@ -0,0 +1,361 @@
+package com.soundconverter.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Vùng kết nối JDBC có giới hạn kích thước. Mỗi thao tác DAO mượn một kết nối và trả lại khi đóng
+ * (close() trên kết nối mượn trả nó về vùng, không đóng kết nối vật lý). Kết nối nhàn rỗi quá lâu được
+ * kiểm tra trước khi cho mượn, kết nối hỏng bị thay bằng kết nối mới. Kết nối bị giữ quá ngưỡng được
+ * báo cùng vị trí mượn để tìm chỗ quên đóng. Thống kê thời gian chờ và mức sử dụng được cập nhật liên tục.
+ */
+public class ConnectionPool {
+
+    private final String url;
+    private final Properties connectionProperties;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final long validateAfterMs;
+    private final long leakThresholdMs;
+
+    // Kết nối nhàn rỗi, phần tử đầu là kết nối được trả lại gần nhất
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Map<PooledConnection, Throwable> borrowed = new ConcurrentHashMap<>();
+    // Giá trị thay cho vị trí mượn khi tắt phát hiện rò rỉ (ConcurrentHashMap không nhận null)
+    private static final Throwable UNTRACKED = new Throwable("Không ghi vị trí mượn");
+    private int totalConnections = 0;
+    private boolean closed = false;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong discardedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private int peakActive = 0;
+
+    private final ScheduledExecutorService leakDetector;
+
+    /**
+     * @param url URL JDBC
+     * @param connectionProperties Thuộc tính kết nối (user, password, bộ đệm prepared statement của driver...)
+     * @param maxSize Số kết nối tối đa
+     * @param borrowTimeoutMs Thời gian chờ tối đa khi mọi kết nối đều đang được mượn
+     * @param validateAfterMs Kiểm tra kết nối nhàn rỗi lâu hơn chừng này trước khi cho mượn
+     * @param leakThresholdMs Báo kết nối bị giữ lâu hơn chừng này (0 = tắt)
+     */
+    public ConnectionPool(String url, Properties connectionProperties, int maxSize, long borrowTimeoutMs,
+                          long validateAfterMs, long leakThresholdMs) {
+        this.url = url;
+        this.connectionProperties = connectionProperties;
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutMs = Math.max(0, borrowTimeoutMs);
+        this.validateAfterMs = Math.max(0, validateAfterMs);
+        this.leakThresholdMs = leakThresholdMs;
+
+        if (leakThresholdMs > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "db-pool-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000, leakThresholdMs / 2);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    /**
+     * Mượn một kết nối. Người gọi phải đóng kết nối (try-with-resources) để trả nó về vùng
+     * @throws SQLException Khi hết thời gian chờ hoặc không tạo được kết nối
+     */
+    public Connection getConnection() throws SQLException {
+        long waitStarted = System.nanoTime();
+        long deadline = waitStarted + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+
+        while (true) {
+            PooledConnection candidate = null;
+            boolean create = false;
+
+            synchronized (this) {
+                while (!closed && idle.isEmpty() && totalConnections >= maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLException("Hết thời gian chờ kết nối cơ sở dữ liệu sau " + borrowTimeoutMs +
+                                               " ms (" + borrowed.size() + "/" + maxSize + " đang được mượn)");
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Bị gián đoạn khi chờ kết nối cơ sở dữ liệu", e);
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Vùng kết nối đã đóng");
+                }
+                if (!idle.isEmpty()) {
+                    candidate = idle.pollFirst();
+                } else {
+                    // Giữ chỗ trước, tạo kết nối ngoài khóa
+                    totalConnections++;
+                    create = true;
+                }
+            }
+
+            if (create) {
+                try {
+                    candidate = new PooledConnection(DriverManager.getConnection(url, connectionProperties));
+                    createdCount.incrementAndGet();
+                } catch (SQLException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            } else if (!isUsable(candidate)) {
+                discard(candidate);
+                continue;
+            }
+
+            recordWait(System.nanoTime() - waitStarted);
+            candidate.borrowedAt = System.currentTimeMillis();
+            // Chỉ chụp stack trace vị trí mượn khi bật phát hiện rò rỉ
+            borrowed.put(candidate, leakThresholdMs > 0 ? new Throwable("Kết nối được mượn tại") : UNTRACKED);
+            synchronized (this) {
+                peakActive = Math.max(peakActive, borrowed.size());
+            }
+            return new Lease(candidate).proxy;
+        }
+    }
+
+    /**
+     * Kết nối nhàn rỗi lâu được kiểm tra bằng isValid trước khi cho mượn lại
+     */
+    private boolean isUsable(PooledConnection connection) {
+        try {
+            if (connection.physical.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - connection.returnedAt < validateAfterMs) {
+                return true;
+            }
+            return connection.physical.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection connection) {
+        if (borrowed.remove(connection) == null) {
+            return;
+        }
+        boolean healthy;
+        try {
+            healthy = !connection.physical.isClosed();
+            if (healthy && !connection.physical.getAutoCommit()) {
+                // Giao dịch dở dang của người mượn trước không được để lại cho người mượn sau
+                connection.physical.rollback();
+                connection.physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            healthy = false;
+        }
+
+        if (!healthy) {
+            discard(connection);
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                closeQuietly(connection);
+                totalConnections--;
+                return;
+            }
+            connection.returnedAt = System.currentTimeMillis();
+            idle.addFirst(connection);
+            notifyAll();
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        closeQuietly(connection);
+        discardedCount.incrementAndGet();
+        releaseSlot();
+    }
+
+    private synchronized void releaseSlot() {
+        totalConnections--;
+        notifyAll();
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<PooledConnection, Throwable> entry : borrowed.entrySet()) {
+            PooledConnection connection = entry.getKey();
+            if (!connection.leakReported && now - connection.borrowedAt > leakThresholdMs) {
+                connection.leakReported = true;
+                leakCount.incrementAndGet();
+                System.err.println("Kết nối cơ sở dữ liệu bị giữ " + (now - connection.borrowedAt) +
+                                   " ms mà chưa trả lại, có thể bị rò rỉ:");
+                entry.getValue().printStackTrace();
+            }
+        }
+    }
+
+    private static void closeQuietly(PooledConnection connection) {
+        try {
+            connection.physical.close();
+        } catch (SQLException e) {
+            // Kết nối đã hỏng
+        }
+    }
+
+    /**
+     * Đóng mọi kết nối nhàn rỗi; kết nối đang được mượn sẽ bị đóng khi trả lại
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (PooledConnection connection : idle) {
+                closeQuietly(connection);
+                totalConnections--;
+            }
+            idle.clear();
+            notifyAll();
+        }
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Tỷ lệ kết nối đang được mượn trên số kết nối tối đa (0..1)
+     */
+    public double getUtilization() {
+        return (double) borrowed.size() / maxSize;
+    }
+
+    /**
+     * Thời gian chờ trung bình khi mượn kết nối (ms)
+     */
+    public double getAverageWaitMs() {
+        long count = borrowCount.get();
+        return count > 0 ? totalWaitNanos.get() / 1_000_000.0 / count : 0;
+    }
+
+    public double getMaxWaitMs() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public String getStatsSummary() {
+        int peak;
+        int total;
+        synchronized (this) {
+            peak = peakActive;
+            total = totalConnections;
+        }
+        return String.format("Vùng kết nối: %d/%d đang mượn (cao nhất %d), %d nhàn rỗi, %d đã mở; %d lần mượn, " +
+                             "chờ trung bình %.2f ms, lâu nhất %.1f ms, %d lần hết thời gian chờ, " +
+                             "%d kết nối tạo mới, %d bị loại, %d nghi rò rỉ",
+                getActiveCount(), maxSize, peak, getIdleCount(), total, borrowCount.get(),
+                getAverageWaitMs(), getMaxWaitMs(), timeoutCount.get(),
+                createdCount.get(), discardedCount.get(), leakCount.get());
+    }
+
+    /**
+     * Kết nối vật lý trong vùng cùng trạng thái mượn hiện tại
+     */
+    private static final class PooledConnection {
+        final Connection physical;
+        volatile long borrowedAt;
+        volatile long returnedAt;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.returnedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Một lần mượn kết nối: mỗi lần mượn có proxy riêng, close() trên proxy trả kết nối về vùng.
+     * Proxy đã đóng không dùng lại được kể cả khi kết nối vật lý đã được cho người khác mượn,
+     * nên tham chiếu cũ bị giữ lại không thể chạy lệnh trên kết nối của người mượn sau
+     */
+    private final class Lease implements InvocationHandler {
+        final PooledConnection pooled;
+        final Connection proxy;
+        final AtomicBoolean returned = new AtomicBoolean();
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (returned.compareAndSet(false, true)) {
+                        pooled.leakReported = false;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned.get() || pooled.physical.isClosed();
+                case "equals":
+                    return target == args[0];
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (returned.get()) {
+                throw new SQLException("Kết nối đã được trả về vùng");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -3,11 +3,11 @@ package com.soundconverter.dao;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Properties;
 
+import com.soundconverter.services.AppConfig;
+
 public class DatabaseConnection {
     private static final String CONFIG_FILE = "/config.properties";
     
@@ -16,16 +16,28 @@ public class DatabaseConnection {
     private static String DB_PASSWORD;
 
     private static DatabaseConnection instance;
-    private Connection connection;
+    private final ConnectionPool pool;
 
     private DatabaseConnection() {
         loadConfig();
-        try {
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            initializeDatabase();
-        } catch (SQLException e) {
-            System.err.println("Lỗi kết nối cơ sở dữ liệu: " + e.getMessage());
-        }
+        
+        Properties connectionProperties = new Properties();
+        connectionProperties.setProperty("user", DB_USER != null ? DB_USER : "");
+        connectionProperties.setProperty("password", DB_PASSWORD != null ? DB_PASSWORD : "");
+        // Bộ đệm prepared statement của driver, giữ theo từng kết nối vật lý trong vùng
+        connectionProperties.setProperty("cachePrepStmts", "true");
+        connectionProperties.setProperty("useServerPrepStmts", "true");
+        connectionProperties.setProperty("prepStmtCacheSize", String.valueOf(AppConfig.getInt("db.pool.statement.cache.size", 250)));
+        connectionProperties.setProperty("prepStmtCacheSqlLimit", "2048");
+        // Gộp các lệnh INSERT trong một batch thành INSERT nhiều dòng
+        connectionProperties.setProperty("rewriteBatchedStatements", "true");
+        
+        pool = new ConnectionPool(DB_URL, connectionProperties,
+                AppConfig.getInt("db.pool.max.size", 8),
+                AppConfig.getLong("db.pool.borrow.timeout.ms", 10000),
+                AppConfig.getLong("db.pool.validate.after.ms", 5000),
+                AppConfig.getLong("db.pool.leak.threshold.ms", 30000));
+        initializeDatabase();
     }
     
     private void loadConfig() {
@@ -64,62 +76,29 @@ public class DatabaseConnection {
         return instance;
     }
 
-    public Connection getConnection() {
-        return connection;
+    /**
+     * Mượn một kết nối từ vùng kết nối. Đóng kết nối (try-with-resources) để trả nó về vùng
+     */
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+    
+    public ConnectionPool getPool() {
+        return pool;
     }
 
     private void initializeDatabase() {
-        try (Statement stmt = connection.createStatement()) {
-            // Tạo các bảng nếu chúng chưa tồn tại
-            String createAudioFilesTable = "CREATE TABLE IF NOT EXISTS audio_files (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "file_name VARCHAR(255) NOT NULL," +
-                    "file_path VARCHAR(1024) NOT NULL" +
-                    ")";
-            
-            String createAudioSegmentsTable = "CREATE TABLE IF NOT EXISTS audio_segments (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "file_id INT NOT NULL," +
-                    "start_time INT NOT NULL," + // Lưu trữ mili giây
-                    "end_time INT NOT NULL," +   // Lưu trữ mili giây
-                    "text TEXT," +
-                    "FOREIGN KEY (file_id) REFERENCES audio_files(id) ON DELETE CASCADE" +
-                    ")";
-            
-            String createMergedAudioTable = "CREATE TABLE IF NOT EXISTS merged_audio (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "file_name VARCHAR(255) NOT NULL," +
-                    "file_path VARCHAR(1024) NOT NULL" +
-                    ")";
-            
-            String createMergedSegmentsTable = "CREATE TABLE IF NOT EXISTS merged_segments (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "merged_id INT NOT NULL," +
-                    "source_file_id INT NOT NULL," +
-                    "start_time INT NOT NULL," + // Lưu trữ mili giây
-                    "end_time INT NOT NULL," +   // Lưu trữ mili giây
-                    "sequence_order INT NOT NULL," +
-                    "FOREIGN KEY (merged_id) REFERENCES merged_audio(id) ON DELETE CASCADE," +
-                    "FOREIGN KEY (source_file_id) REFERENCES audio_files(id)" +
-                    ")";
-            
-            stmt.executeUpdate(createAudioFilesTable);
-            stmt.executeUpdate(createAudioSegmentsTable);
-            stmt.executeUpdate(createMergedAudioTable);
-            stmt.executeUpdate(createMergedSegmentsTable);
-            
+        try {
+            // Tạo và nâng cấp lược đồ theo các script trong db/migration; mọi thay đổi lược đồ
+            // đều nằm trong các script này và được ghi lại trong schema_version
+            new SchemaMigrator(this).migrate();
         } catch (SQLException e) {
             System.err.println("Lỗi khi khởi tạo cơ sở dữ liệu: " + e.getMessage());
         }
     }
     
     public void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            System.err.println("Lỗi khi đóng kết nối: " + e.getMessage());
-        }
+        System.err.println(pool.getStatsSummary());
+        pool.close();
     }
 } 
\ No newline at end of file
@@ -6,64 +6,347 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 import com.soundconverter.models.MergedAudio;
 import com.soundconverter.models.MergedAudio.MergeSegment;
 
 public class MergedAudioDAO {
-    private final Connection connection;
+    // Giới hạn bảng so sánh dãy con chung (số ô int), phần giữa lớn hơn thì so sánh theo vị trí
+    private static final long MAX_DIFF_CELLS = 1_000_000;
+
+    private final DatabaseConnection database;
 
     public MergedAudioDAO() {
-        connection = DatabaseConnection.getInstance().getConnection();
+        database = DatabaseConnection.getInstance();
     }
 
+    /**
+     * Lưu cấu hình trộn: thêm mới nếu chưa có id, ngược lại chỉ ghi những dòng đã thay đổi
+     * @return id của cấu hình, -1 nếu có lỗi
+     */
+    public int saveMergedAudio(MergedAudio mergedAudio) {
+        if (mergedAudio.getId() <= 0) {
+            return addMergedAudio(mergedAudio);
+        }
+        return updateMergedAudio(mergedAudio) >= 0 ? mergedAudio.getId() : -1;
+    }
+
+    /**
+     * Thêm cấu hình trộn cùng các phân đoạn trong một giao dịch, phân đoạn được chèn bằng một batch.
+     * Lỗi ở bất kỳ bước nào hủy toàn bộ, không để lại cấu hình ghi dở
+     * @return id của cấu hình mới, -1 nếu có lỗi
+     */
     public int addMergedAudio(MergedAudio mergedAudio) {
         String sql = "INSERT INTO merged_audio (file_name, file_path) VALUES (?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            pstmt.setString(1, mergedAudio.getFileName());
-            pstmt.setString(2, mergedAudio.getFilePath());
-            pstmt.executeUpdate();
-
-            try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int id = generatedKeys.getInt(1);
-                    mergedAudio.setId(id);
-                    
-                    // Thêm tất cả các phân đoạn
-                    List<MergeSegment> segments = mergedAudio.getSegments();
+        try (Connection connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                pstmt.setString(1, mergedAudio.getFileName());
+                pstmt.setString(2, mergedAudio.getFilePath());
+                pstmt.executeUpdate();
+
+                int id;
+                try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                    if (!generatedKeys.next()) {
+                        connection.rollback();
+                        return -1;
+                    }
+                    id = generatedKeys.getInt(1);
+                }
+
+                // Thêm tất cả các phân đoạn
+                List<MergeSegment> segments = mergedAudio.getSegments();
+                List<Integer> sequenceOrders = new ArrayList<>();
+                for (int i = 0; i < segments.size(); i++) {
+                    sequenceOrders.add(i);
+                }
+                insertMergeSegments(connection, id, segments, sequenceOrders);
+                connection.commit();
+
+                mergedAudio.setId(id);
+                return id;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi thêm audio đã trộn: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Cập nhật cấu hình trộn đã lưu bằng cách so sánh với bản trong database, tất cả trong một giao dịch.
+     * Các dòng được ghép với phân đoạn mới theo dãy con chung dài nhất (matchStoredRows), nên chèn hay xóa
+     * một phân đoạn ở đầu danh sách chỉ ghi đúng dòng đó: dòng giữ nguyên không bị ghi lại, dòng mới lấy
+     * sequence_order của dòng đứng trước (thứ tự đọc là sequence_order rồi id, id mới luôn lớn hơn)
+     * @return Số dòng đã ghi (0 nếu không có gì thay đổi), -1 nếu có lỗi hoặc cấu hình không còn tồn tại
+     */
+    public int updateMergedAudio(MergedAudio mergedAudio) {
+        String headerSql = "SELECT file_name, file_path FROM merged_audio WHERE id = ? FOR UPDATE";
+        String rowsSql = "SELECT id, source_file_id, start_time, end_time, sequence_order FROM merged_segments " +
+                         "WHERE merged_id = ? ORDER BY sequence_order, id";
+        String updateHeaderSql = "UPDATE merged_audio SET file_name = ?, file_path = ? WHERE id = ?";
+        String updateRowSql = "UPDATE merged_segments SET source_file_id = ?, start_time = ?, end_time = ?, " +
+                              "sequence_order = ? WHERE id = ?";
+        String deleteRowSql = "DELETE FROM merged_segments WHERE id = ?";
+        int mergedId = mergedAudio.getId();
+
+        try (Connection connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int written = 0;
+                try (PreparedStatement header = connection.prepareStatement(headerSql)) {
+                    header.setInt(1, mergedId);
+                    try (ResultSet rs = header.executeQuery()) {
+                        if (!rs.next()) {
+                            connection.rollback();
+                            System.err.println("Không tìm thấy audio đã trộn với id " + mergedId);
+                            return -1;
+                        }
+                        if (!Objects.equals(rs.getString("file_name"), mergedAudio.getFileName()) ||
+                            !Objects.equals(rs.getString("file_path"), mergedAudio.getFilePath())) {
+                            try (PreparedStatement update = connection.prepareStatement(updateHeaderSql)) {
+                                update.setString(1, mergedAudio.getFileName());
+                                update.setString(2, mergedAudio.getFilePath());
+                                update.setInt(3, mergedId);
+                                written += update.executeUpdate();
+                            }
+                        }
+                    }
+                }
+
+                // Các dòng đang lưu, theo thứ tự: {id, source_file_id, start_time, end_time, sequence_order}
+                List<int[]> stored = new ArrayList<>();
+                try (PreparedStatement rows = connection.prepareStatement(rowsSql)) {
+                    rows.setInt(1, mergedId);
+                    try (ResultSet rs = rows.executeQuery()) {
+                        while (rs.next()) {
+                            stored.add(new int[] { rs.getInt("id"), rs.getInt("source_file_id"),
+                                                   rs.getInt("start_time"), rs.getInt("end_time"),
+                                                   rs.getInt("sequence_order") });
+                        }
+                    }
+                }
+
+                List<MergeSegment> segments = mergedAudio.getSegments();
+                int[] match = matchStoredRows(stored, segments);
+                int[] orders = assignSequenceOrders(stored, match);
+                if (orders == null) {
+                    // Không còn chỗ chen giữa hai dòng cùng sequence_order: đánh số lại toàn bộ
+                    orders = new int[segments.size()];
+                    for (int i = 0; i < orders.length; i++) {
+                        orders[i] = i;
+                    }
+                }
+
+                boolean[] kept = new boolean[stored.size()];
+                List<MergeSegment> inserted = new ArrayList<>();
+                List<Integer> insertedOrders = new ArrayList<>();
+                try (PreparedStatement update = connection.prepareStatement(updateRowSql)) {
+                    int changed = 0;
                     for (int i = 0; i < segments.size(); i++) {
                         MergeSegment segment = segments.get(i);
-                        addMergeSegment(id, segment, i);
+                        if (match[i] < 0) {
+                            inserted.add(segment);
+                            insertedOrders.add(orders[i]);
+                            continue;
+                        }
+                        int[] row = stored.get(match[i]);
+                        kept[match[i]] = true;
+                        if (sameSegment(row, segment) && row[4] == orders[i]) {
+                            continue;
+                        }
+                        update.setInt(1, segment.getSourceFileId());
+                        update.setInt(2, segment.getStartTime());
+                        update.setInt(3, segment.getEndTime());
+                        update.setInt(4, orders[i]);
+                        update.setInt(5, row[0]);
+                        update.addBatch();
+                        changed++;
+                    }
+                    if (changed > 0) {
+                        update.executeBatch();
+                        written += changed;
                     }
-                    return id;
                 }
+
+                // Chèn theo thứ tự danh sách để id tăng dần đúng thứ tự của các dòng cùng sequence_order
+                insertMergeSegments(connection, mergedId, inserted, insertedOrders);
+                written += inserted.size();
+
+                try (PreparedStatement delete = connection.prepareStatement(deleteRowSql)) {
+                    int deleted = 0;
+                    for (int i = 0; i < stored.size(); i++) {
+                        if (!kept[i]) {
+                            delete.setInt(1, stored.get(i)[0]);
+                            delete.addBatch();
+                            deleted++;
+                        }
+                    }
+                    if (deleted > 0) {
+                        delete.executeBatch();
+                        written += deleted;
+                    }
+                }
+
+                connection.commit();
+                return written;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
         } catch (SQLException e) {
-            System.err.println("Lỗi khi thêm audio đã trộn: " + e.getMessage());
+            System.err.println("Lỗi khi cập nhật audio đã trộn: " + e.getMessage());
         }
         return -1;
     }
 
-    private boolean addMergeSegment(int mergedId, MergeSegment segment, int order) {
+    /**
+     * Ghép phân đoạn mới với dòng đang lưu: phần đầu và phần cuối giống nhau được ghép trực tiếp, phần giữa
+     * theo dãy con chung dài nhất. Trong mỗi khoảng giữa hai cặp đã ghép, dòng cũ và phân đoạn mới còn lại
+     * được ghép theo vị trí để sửa tại chỗ thay vì xóa rồi chèn. Phần giữa quá lớn thì chỉ ghép theo vị trí
+     * @return match[i] là chỉ số dòng đang lưu ứng với phân đoạn i, -1 nếu phân đoạn i phải chèn mới
+     */
+    private static int[] matchStoredRows(List<int[]> stored, List<MergeSegment> segments) {
+        int[] match = new int[segments.size()];
+        Arrays.fill(match, -1);
+
+        int prefix = 0;
+        while (prefix < stored.size() && prefix < segments.size() &&
+               sameSegment(stored.get(prefix), segments.get(prefix))) {
+            match[prefix] = prefix;
+            prefix++;
+        }
+        int storedEnd = stored.size();
+        int segmentEnd = segments.size();
+        while (storedEnd > prefix && segmentEnd > prefix &&
+               sameSegment(stored.get(storedEnd - 1), segments.get(segmentEnd - 1))) {
+            storedEnd--;
+            segmentEnd--;
+            match[segmentEnd] = storedEnd;
+        }
+
+        int rows = storedEnd - prefix;
+        int columns = segmentEnd - prefix;
+        if (rows > 0 && columns > 0 && (long) rows * columns <= MAX_DIFF_CELLS) {
+            // lcs[i][j]: độ dài dãy con chung dài nhất của stored[prefix + i..] và segments[prefix + j..]
+            int[][] lcs = new int[rows + 1][columns + 1];
+            for (int i = rows - 1; i >= 0; i--) {
+                for (int j = columns - 1; j >= 0; j--) {
+                    lcs[i][j] = sameSegment(stored.get(prefix + i), segments.get(prefix + j))
+                            ? lcs[i + 1][j + 1] + 1
+                            : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+            int i = 0;
+            int j = 0;
+            while (i < rows && j < columns) {
+                if (sameSegment(stored.get(prefix + i), segments.get(prefix + j))) {
+                    match[prefix + j] = prefix + i;
+                    i++;
+                    j++;
+                } else if (lcs[i + 1][j] >= lcs[i][j + 1]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+
+        // Ghép theo vị trí trong từng khoảng chưa ghép
+        int nextStored = 0;
+        int gapStart = 0;
+        for (int j = 0; j <= segments.size(); j++) {
+            if (j < segments.size() && match[j] < 0) {
+                continue;
+            }
+            int gapStoredEnd = j < segments.size() ? match[j] : stored.size();
+            for (int k = gapStart; k < j && nextStored < gapStoredEnd; k++) {
+                match[k] = nextStored++;
+            }
+            nextStored = gapStoredEnd + 1;
+            gapStart = j + 1;
+        }
+        return match;
+    }
+
+    /**
+     * Chọn sequence_order cho từng phân đoạn: dòng được ghép giữ sequence_order cũ, dòng chèn mới lấy
+     * sequence_order của dòng giữ lại đứng trước (đứng sau nó nhờ id lớn hơn), hoặc nhỏ hơn dòng giữ lại
+     * đầu tiên một đơn vị nếu chèn ở đầu
+     * @return sequence_order theo phân đoạn, null nếu dòng đứng trước và dòng đứng sau có cùng sequence_order
+     */
+    private static int[] assignSequenceOrders(List<int[]> stored, int[] match) {
+        int[] orders = new int[match.length];
+        // nextKept[i]: sequence_order của dòng giữ lại đầu tiên từ vị trí i, Long.MAX_VALUE nếu không còn
+        long[] nextKept = new long[match.length + 1];
+        nextKept[match.length] = Long.MAX_VALUE;
+        for (int i = match.length - 1; i >= 0; i--) {
+            nextKept[i] = match[i] >= 0 ? stored.get(match[i])[4] : nextKept[i + 1];
+        }
+
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < match.length; i++) {
+            if (match[i] >= 0) {
+                orders[i] = stored.get(match[i])[4];
+                previous = orders[i];
+            } else if (previous != Long.MIN_VALUE) {
+                if (previous >= nextKept[i]) {
+                    return null;
+                }
+                orders[i] = (int) previous;
+            } else if (nextKept[i] == Long.MAX_VALUE) {
+                orders[i] = 0;
+            } else if (nextKept[i] > Integer.MIN_VALUE) {
+                orders[i] = (int) nextKept[i] - 1;
+            } else {
+                return null;
+            }
+        }
+        return orders;
+    }
+
+    private static boolean sameSegment(int[] row, MergeSegment segment) {
+        return row[1] == segment.getSourceFileId() && row[2] == segment.getStartTime() &&
+               row[3] == segment.getEndTime();
+    }
+
+    /**
+     * Chèn các phân đoạn bằng một batch theo thứ tự danh sách, với sequence_order tương ứng
+     */
+    private void insertMergeSegments(Connection connection, int mergedId, List<MergeSegment> segments,
+                                     List<Integer> sequenceOrders) throws SQLException {
+        if (segments.isEmpty()) {
+            return;
+        }
         String sql = "INSERT INTO merged_segments (merged_id, source_file_id, start_time, end_time, sequence_order) " +
                      "VALUES (?, ?, ?, ?, ?)";
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, mergedId);
-            pstmt.setInt(2, segment.getSourceFileId());
-            pstmt.setInt(3, segment.getStartTime());
-            pstmt.setInt(4, segment.getEndTime());
-            pstmt.setInt(5, order);
-            return pstmt.executeUpdate() > 0;
-        } catch (SQLException e) {
-            System.err.println("Lỗi khi thêm phân đoạn trộn: " + e.getMessage());
-            return false;
+            for (int i = 0; i < segments.size(); i++) {
+                MergeSegment segment = segments.get(i);
+                pstmt.setInt(1, mergedId);
+                pstmt.setInt(2, segment.getSourceFileId());
+                pstmt.setInt(3, segment.getStartTime());
+                pstmt.setInt(4, segment.getEndTime());
+                pstmt.setInt(5, sequenceOrders.get(i));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
         }
     }
 
     public boolean deleteMergedAudio(int id) {
         String sql = "DELETE FROM merged_audio WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             return pstmt.executeUpdate() > 0;
         } catch (SQLException e) {
@@ -74,7 +357,8 @@ public class MergedAudioDAO {
 
     public MergedAudio getMergedAudioById(int id) {
         String sql = "SELECT * FROM merged_audio WHERE id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (Connection connection = database.getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, id);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -84,7 +368,7 @@ public class MergedAudioDAO {
                             rs.getString("file_path")
                     );
                     // Tải các phân đoạn
-                    loadMergeSegments(mergedAudio);
+                    loadMergeSegments(connection, mergedAudio);
                     return mergedAudio;
                 }
             }
@@ -97,7 +381,8 @@ public class MergedAudioDAO {
     public List<MergedAudio> getAllMergedAudio() {
         List<MergedAudio> mergedAudios = new ArrayList<>();
         String sql = "SELECT * FROM merged_audio";
-        try (Statement stmt = connection.createStatement();
+        try (Connection connection = database.getConnection();
+             Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             while (rs.next()) {
                 MergedAudio mergedAudio = new MergedAudio(
@@ -116,7 +401,16 @@ public class MergedAudioDAO {
     }
 
     public void loadMergeSegments(MergedAudio mergedAudio) {
-        String sql = "SELECT * FROM merged_segments WHERE merged_id = ? ORDER BY sequence_order";
+        try (Connection connection = database.getConnection()) {
+            loadMergeSegments(connection, mergedAudio);
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi tải các phân đoạn trộn: " + e.getMessage());
+        }
+    }
+
+    // Dùng kết nối người gọi đang mượn, không mượn thêm kết nối thứ hai
+    private void loadMergeSegments(Connection connection, MergedAudio mergedAudio) throws SQLException {
+        String sql = "SELECT * FROM merged_segments WHERE merged_id = ? ORDER BY sequence_order, id";
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setInt(1, mergedAudio.getId());
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -129,8 +423,6 @@ public class MergedAudioDAO {
                     mergedAudio.addSegment(segment);
                 }
             }
-        } catch (SQLException e) {
-            System.err.println("Lỗi khi tải các phân đoạn trộn: " + e.getMessage());
         }
     }
 } 
\ No newline at end of file
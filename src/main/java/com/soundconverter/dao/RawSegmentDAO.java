@@ -0,0 +1,179 @@
+package com.soundconverter.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.soundconverter.models.AudioSegment;
+
+/**
+ * Lưu các phân đoạn thô (từng token của Whisper, -ml 1) của một file âm thanh trong một dòng duy nhất,
+ * dạng nhị phân nén, để có thể nhóm lại theo độ dài phân đoạn bất kỳ mà không chạy lại Whisper
+ */
+public class RawSegmentDAO {
+    private final DatabaseConnection database;
+    
+    public RawSegmentDAO() {
+        database = DatabaseConnection.getInstance();
+    }
+    
+    /**
+     * Lưu (hoặc thay thế) các phân đoạn thô của file
+     * @param fileId ID của file âm thanh
+     * @param rawSegments Các phân đoạn thô, theo thứ tự thời gian
+     * @param groupedLengthMs Độ dài nhóm đang được lưu trong audio_segments (0 = không nhóm)
+     * @return true nếu lưu thành công, false nếu có lỗi
+     */
+    public boolean saveRawSegments(int fileId, List<AudioSegment> rawSegments, int groupedLengthMs) {
+        String sql = "INSERT INTO audio_raw_segments (file_id, token_count, grouped_length_ms, data) VALUES (?, ?, ?, ?) " +
+                     "ON DUPLICATE KEY UPDATE token_count = VALUES(token_count), " +
+                     "grouped_length_ms = VALUES(grouped_length_ms), data = VALUES(data)";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, fileId);
+            stmt.setInt(2, rawSegments.size());
+            stmt.setInt(3, groupedLengthMs);
+            stmt.setBytes(4, encode(rawSegments));
+            
+            return stmt.executeUpdate() > 0;
+        
+        } catch (SQLException | IOException e) {
+            System.err.println("Lỗi khi lưu phân đoạn thô: " + e.getMessage());
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Lấy các phân đoạn thô của file
+     * @param fileId ID của file âm thanh
+     * @return Danh sách phân đoạn thô theo thứ tự thời gian, null nếu chưa lưu hoặc có lỗi
+     */
+    public List<AudioSegment> getRawSegments(int fileId) {
+        String sql = "SELECT data FROM audio_raw_segments WHERE file_id = ?";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, fileId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return decode(rs.getBytes("data"), fileId);
+                }
+            }
+        
+        } catch (SQLException | IOException e) {
+            System.err.println("Lỗi khi đọc phân đoạn thô: " + e.getMessage());
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Độ dài nhóm của các phân đoạn hiện có trong audio_segments
+     * @param fileId ID của file âm thanh
+     * @return Độ dài nhóm (ms, 0 = không nhóm), -1 nếu file chưa có phân đoạn thô
+     */
+    public int getGroupedLengthMs(int fileId) {
+        String sql = "SELECT grouped_length_ms FROM audio_raw_segments WHERE file_id = ?";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, fileId);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("grouped_length_ms");
+                }
+            }
+        
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi đọc độ dài nhóm: " + e.getMessage());
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Ghi lại độ dài nhóm sau khi audio_segments được nhóm lại
+     */
+    public boolean updateGroupedLengthMs(int fileId, int groupedLengthMs) {
+        String sql = "UPDATE audio_raw_segments SET grouped_length_ms = ? WHERE file_id = ?";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, groupedLengthMs);
+            stmt.setInt(2, fileId);
+            
+            return stmt.executeUpdate() > 0;
+        
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi cập nhật độ dài nhóm: " + e.getMessage());
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Xóa các phân đoạn thô của file
+     */
+    public boolean deleteByFileId(int fileId) {
+        String sql = "DELETE FROM audio_raw_segments WHERE file_id = ?";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, fileId);
+            
+            return stmt.executeUpdate() > 0;
+        
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi xóa phân đoạn thô: " + e.getMessage());
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Mã hóa: số phân đoạn, rồi mỗi phân đoạn gồm khoảng cách từ điểm bắt đầu trước, thời lượng và nội dung UTF-8,
+     * toàn bộ được nén bằng Deflate
+     */
+    private static byte[] encode(List<AudioSegment> segments) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(segments.size() * 12 + 16);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(segments.size());
+            int previousStart = 0;
+            for (AudioSegment segment : segments) {
+                out.writeInt(segment.getStartTime() - previousStart);
+                out.writeInt(segment.getEndTime() - segment.getStartTime());
+                out.writeUTF(segment.getText() != null ? segment.getText() : "");
+                previousStart = segment.getStartTime();
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static List<AudioSegment> decode(byte[] data, int fileId) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+            int count = in.readInt();
+            List<AudioSegment> segments = new ArrayList<>(count);
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                start += in.readInt();
+                int end = start + in.readInt();
+                segments.add(new AudioSegment(0, fileId, start, end, in.readUTF()));
+            }
+            return segments;
+        }
+    }
+}
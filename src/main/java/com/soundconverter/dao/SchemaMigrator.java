@@ -0,0 +1,246 @@
+package com.soundconverter.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Áp dụng các script migration có đánh số phiên bản (db/migration/V&lt;số&gt;__&lt;mô tả&gt;.sql) theo thứ tự,
+ * mỗi script đúng một lần. Các phiên bản đã áp dụng được ghi trong bảng schema_version cùng mã băm nội dung;
+ * script đã áp dụng mà bị sửa về sau chỉ được cảnh báo, không chạy lại. Thêm migration mới bằng cách tạo
+ * script với số phiên bản lớn hơn và khai báo trong MIGRATIONS.
+ */
+public class SchemaMigrator {
+    
+    private static final String MIGRATION_DIR = "/db/migration/";
+    
+    // Các script theo thứ tự áp dụng
+    private static final String[] MIGRATIONS = {
+        "V1__baseline.sql",
+        "V2__hot_path_indexes.sql",
+        "V3__segment_text_fulltext.sql",
+        "V4__transcript_cache_raw_segments.sql",
+        "V5__audio_files_metadata_columns.sql"
+    };
+    
+    // Khóa mức server, tránh hai phiên bản ứng dụng cùng migrate một cơ sở dữ liệu
+    private static final String LOCK_NAME = "soundconverter_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    
+    private final DatabaseConnection database;
+    
+    public SchemaMigrator(DatabaseConnection database) {
+        this.database = database;
+    }
+    
+    /**
+     * Áp dụng các migration chưa có trong schema_version
+     * @return Số migration đã áp dụng
+     * @throws SQLException Khi một migration thất bại (các migration sau nó không được chạy)
+     */
+    public int migrate() throws SQLException {
+        try (Connection connection = database.getConnection()) {
+            acquireLock(connection);
+            try {
+                createVersionTable(connection);
+                Map<Integer, String> applied = loadAppliedVersions(connection);
+                
+                int count = 0;
+                for (String script : MIGRATIONS) {
+                    int version = parseVersion(script);
+                    String sql = readScript(script);
+                    String checksum = checksum(sql);
+                    
+                    String appliedChecksum = applied.get(version);
+                    if (appliedChecksum != null) {
+                        if (!appliedChecksum.equals(checksum)) {
+                            System.err.println("Cảnh báo: migration " + script + " đã thay đổi sau khi được áp dụng");
+                        }
+                        continue;
+                    }
+                    
+                    long started = System.currentTimeMillis();
+                    applyScript(connection, script, sql);
+                    long elapsed = System.currentTimeMillis() - started;
+                    recordVersion(connection, version, script, checksum, elapsed);
+                    System.err.println("Đã áp dụng migration " + script + " sau " + elapsed + " ms");
+                    count++;
+                }
+                return count;
+            } finally {
+                releaseLock(connection);
+            }
+        }
+    }
+    
+    /**
+     * Phiên bản lược đồ hiện tại, 0 nếu chưa có migration nào
+     */
+    public int getCurrentVersion() {
+        String sql = "SELECT COALESCE(MAX(version), 0) FROM schema_version";
+        
+        try (Connection connection = database.getConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            if (rs.next()) {
+                return rs.getInt(1);
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi đọc phiên bản lược đồ: " + e.getMessage());
+        }
+        
+        return 0;
+    }
+    
+    private void createVersionTable(Connection connection) throws SQLException {
+        String sql = "CREATE TABLE IF NOT EXISTS schema_version (" +
+                     "version INT PRIMARY KEY," +
+                     "script VARCHAR(255) NOT NULL," +
+                     "checksum CHAR(64) NOT NULL," +
+                     "execution_ms BIGINT NOT NULL," +
+                     "installed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                     ")";
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(sql);
+        }
+    }
+    
+    private Map<Integer, String> loadAppliedVersions(Connection connection) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+    
+    /**
+     * Chạy từng câu lệnh của script. MySQL tự commit sau mỗi lệnh DDL nên một script thất bại giữa chừng
+     * không được ghi vào schema_version; các script nên viết sao cho chạy lại được hoặc chỉ gồm một lệnh DDL
+     */
+    private void applyScript(Connection connection, String script, String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String statement : splitStatements(sql)) {
+                try {
+                    stmt.execute(statement);
+                } catch (SQLException e) {
+                    throw new SQLException("Migration " + script + " thất bại: " + e.getMessage(), e.getSQLState(),
+                                           e.getErrorCode(), e);
+                }
+            }
+        }
+    }
+    
+    private void recordVersion(Connection connection, int version, String script, String checksum, long elapsed)
+            throws SQLException {
+        String sql = "INSERT INTO schema_version (version, script, checksum, execution_ms) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, version);
+            stmt.setString(2, script);
+            stmt.setString(3, checksum);
+            stmt.setLong(4, elapsed);
+            stmt.executeUpdate();
+        }
+    }
+    
+    private void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Không lấy được khóa migration sau " + LOCK_TIMEOUT_SECONDS + " giây");
+                }
+            }
+        }
+    }
+    
+    private void releaseLock(Connection connection) {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.executeQuery().close();
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi trả khóa migration: " + e.getMessage());
+        }
+    }
+    
+    private static int parseVersion(String script) {
+        int separator = script.indexOf("__");
+        if (!script.startsWith("V") || separator < 2) {
+            throw new IllegalArgumentException("Tên migration không hợp lệ: " + script);
+        }
+        return Integer.parseInt(script.substring(1, separator));
+    }
+    
+    private static String readScript(String script) throws SQLException {
+        try (InputStream input = SchemaMigrator.class.getResourceAsStream(MIGRATION_DIR + script)) {
+            if (input == null) {
+                throw new SQLException("Không tìm thấy migration: " + MIGRATION_DIR + script);
+            }
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Không đọc được migration " + script + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Tách script thành các câu lệnh: bỏ chú thích "--" đến cuối dòng, mỗi câu lệnh kết thúc bằng dấu chấm phẩy.
+     * Không hỗ trợ dấu chấm phẩy hay "--" nằm trong chuỗi ký tự
+     */
+    static List<String> splitStatements(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : sql.split("\r?\n")) {
+            int comment = line.indexOf("--");
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int from = 0;
+            int semicolon;
+            while ((semicolon = line.indexOf(';', from)) >= 0) {
+                current.append(line, from, semicolon);
+                addStatement(statements, current);
+                from = semicolon + 1;
+            }
+            current.append(line.substring(from)).append('\n');
+        }
+        addStatement(statements, current);
+        return statements;
+    }
+    
+    private static void addStatement(List<String> statements, StringBuilder current) {
+        String statement = current.toString().trim();
+        if (!statement.isEmpty()) {
+            statements.add(statement);
+        }
+        current.setLength(0);
+    }
+    
+    private static String checksum(String sql) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
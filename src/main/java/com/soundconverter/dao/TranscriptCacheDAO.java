@@ -0,0 +1,183 @@
+package com.soundconverter.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class TranscriptCacheDAO {
+    private final DatabaseConnection database;
+    
+    public TranscriptCacheDAO() {
+        database = DatabaseConnection.getInstance();
+    }
+    
+    /**
+     * Tìm mục bộ đệm phiên âm theo khóa
+     * @param cacheKey Khóa tạo từ mã băm nội dung, model, ngôn ngữ và tham số giải mã
+     * @return id của mục, -1 nếu chưa có
+     */
+    public int findCacheId(String cacheKey) {
+        String sql = "SELECT id FROM transcript_cache WHERE cache_key = ?";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, cacheKey);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("id");
+                }
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi tìm bộ đệm phiên âm: " + e.getMessage());
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Sao chép một mục bộ đệm sang file âm thanh: các phân đoạn đã nhóm vào audio_segments và phân đoạn thô
+     * vào audio_raw_segments, trong cùng một giao dịch bằng các câu lệnh INSERT ... SELECT trên server.
+     * Mục cũ không có phân đoạn thô thì phân đoạn thô cũ của file (nếu có) bị xóa để không lệch với phân đoạn mới
+     * @param cacheId ID của mục bộ đệm
+     * @param fileId ID của file âm thanh nhận các phân đoạn
+     * @param groupedLengthMs Độ dài nhóm của các phân đoạn trong mục bộ đệm (mili giây)
+     * @return Số phân đoạn đã sao chép, -1 nếu có lỗi
+     */
+    public int copyToFile(int cacheId, int fileId, int groupedLengthMs) {
+        String segmentsSql = "INSERT INTO audio_segments (file_id, start_time, end_time, text) " +
+                             "SELECT ?, start_time, end_time, text FROM transcript_cache_segments " +
+                             "WHERE cache_id = ? ORDER BY id";
+        String clearRawSql = "DELETE FROM audio_raw_segments WHERE file_id = ?";
+        String rawSql = "INSERT INTO audio_raw_segments (file_id, token_count, grouped_length_ms, data) " +
+                        "SELECT ?, raw_token_count, ?, raw_data FROM transcript_cache " +
+                        "WHERE id = ? AND raw_data IS NOT NULL";
+        
+        try (Connection connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement segments = connection.prepareStatement(segmentsSql);
+                 PreparedStatement clearRaw = connection.prepareStatement(clearRawSql);
+                 PreparedStatement raw = connection.prepareStatement(rawSql)) {
+                segments.setInt(1, fileId);
+                segments.setInt(2, cacheId);
+                int copied = segments.executeUpdate();
+                
+                clearRaw.setInt(1, fileId);
+                clearRaw.executeUpdate();
+                
+                raw.setInt(1, fileId);
+                raw.setInt(2, groupedLengthMs);
+                raw.setInt(3, cacheId);
+                raw.executeUpdate();
+                
+                connection.commit();
+                return copied;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi sao chép phân đoạn từ bộ đệm phiên âm: " + e.getMessage());
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Lưu các phân đoạn hiện có của một file âm thanh vào bộ đệm phiên âm, cùng phân đoạn thô nếu có,
+     * thay thế mục cũ nếu đã có cùng khóa. Mọi câu lệnh chạy trong một giao dịch nên người đọc cùng khóa
+     * không thấy mục đã xóa phân đoạn mà chưa chép xong
+     * @param cacheKey Khóa của mục bộ đệm
+     * @param contentHash Mã băm nội dung file âm thanh
+     * @param model Tên file model đã dùng
+     * @param language Ngôn ngữ đã dùng
+     * @param params Tham số giải mã đã dùng
+     * @param fileId ID của file âm thanh có các phân đoạn cần lưu
+     * @return Số phân đoạn đã lưu, -1 nếu có lỗi
+     */
+    public int storeFromFile(String cacheKey, String contentHash, String model, String language, String params, int fileId) {
+        String upsertSql = "INSERT INTO transcript_cache (cache_key, content_hash, model, language, params, segment_count) " +
+                           "VALUES (?, ?, ?, ?, ?, 0) " +
+                           "ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id), created_at = CURRENT_TIMESTAMP";
+        String clearSql = "DELETE FROM transcript_cache_segments WHERE cache_id = ?";
+        String copySql = "INSERT INTO transcript_cache_segments (cache_id, start_time, end_time, text) " +
+                         "SELECT ?, start_time, end_time, text FROM audio_segments " +
+                         "WHERE file_id = ? ORDER BY start_time, id";
+        String countSql = "UPDATE transcript_cache c LEFT JOIN audio_raw_segments r ON r.file_id = ? " +
+                          "SET c.segment_count = ?, c.raw_token_count = r.token_count, c.raw_data = r.data " +
+                          "WHERE c.id = ?";
+        
+        try (Connection connection = database.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsert = connection.prepareStatement(upsertSql, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement clear = connection.prepareStatement(clearSql);
+                 PreparedStatement copy = connection.prepareStatement(copySql);
+                 PreparedStatement count = connection.prepareStatement(countSql)) {
+                upsert.setString(1, cacheKey);
+                upsert.setString(2, contentHash);
+                upsert.setString(3, model);
+                upsert.setString(4, language);
+                upsert.setString(5, params);
+                upsert.executeUpdate();
+                
+                int cacheId;
+                try (ResultSet rs = upsert.getGeneratedKeys()) {
+                    if (!rs.next()) {
+                        connection.rollback();
+                        return -1;
+                    }
+                    cacheId = rs.getInt(1);
+                }
+                
+                clear.setInt(1, cacheId);
+                clear.executeUpdate();
+                
+                copy.setInt(1, cacheId);
+                copy.setInt(2, fileId);
+                int copied = copy.executeUpdate();
+                
+                count.setInt(1, fileId);
+                count.setInt(2, copied);
+                count.setInt(3, cacheId);
+                count.executeUpdate();
+                
+                connection.commit();
+                return copied;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi lưu bộ đệm phiên âm: " + e.getMessage());
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Xóa toàn bộ bộ đệm phiên âm
+     * @return Số mục đã xóa
+     */
+    public int clear() {
+        String sql = "DELETE FROM transcript_cache";
+        
+        try (Connection connection = database.getConnection();
+             Statement stmt = connection.createStatement()) {
+            return stmt.executeUpdate(sql);
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi xóa bộ đệm phiên âm: " + e.getMessage());
+        }
+        
+        return 0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.soundconverter.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.soundconverter.models.SegmentSearchHit;
+
+/**
+ * Truy vấn chỉ mục toàn văn idx_audio_segments_text trên audio_segments.text
+ */
+public class TranscriptSearchDAO {
+    
+    private final DatabaseConnection database;
+    
+    public TranscriptSearchDAO() {
+        database = DatabaseConnection.getInstance();
+    }
+    
+    /**
+     * Tìm các phân đoạn khớp truy vấn, xếp theo điểm liên quan giảm dần.
+     * Truy vấn con chỉ đọc audio_segments và sắp theo MATCH với LIMIT, để InnoDB lấy thẳng các dòng
+     * điểm cao nhất từ chỉ mục toàn văn; tên file chỉ được nối vào cho các dòng của trang này.
+     * Các dòng cùng điểm được xếp theo id để thứ tự là toàn phần: LIMIT/OFFSET chia trang ổn định, không lặp
+     * hay bỏ sót dòng giữa hai trang. Truy vấn ngoài giữ đúng thứ tự đó (điểm giảm dần, rồi id)
+     * @param booleanQuery Truy vấn dạng BOOLEAN MODE của MySQL
+     * @param offset Số kết quả bỏ qua
+     * @param limit Số kết quả tối đa
+     * @return Danh sách kết quả, rỗng nếu không có hoặc có lỗi
+     */
+    public List<SegmentSearchHit> search(String booleanQuery, int offset, int limit) {
+        List<SegmentSearchHit> hits = new ArrayList<>();
+        String sql = "SELECT h.id, h.file_id, h.start_time, h.end_time, h.text, h.score, f.file_name FROM (" +
+                     "SELECT id, file_id, start_time, end_time, text, " +
+                     "MATCH (text) AGAINST (? IN BOOLEAN MODE) AS score FROM audio_segments " +
+                     "WHERE MATCH (text) AGAINST (? IN BOOLEAN MODE) " +
+                     "ORDER BY score DESC, id LIMIT ? OFFSET ?" +
+                     ") h JOIN audio_files f ON f.id = h.file_id " +
+                     "ORDER BY h.score DESC, h.id";
+        
+        try (Connection connection = database.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, booleanQuery);
+            stmt.setString(2, booleanQuery);
+            stmt.setInt(3, limit);
+            stmt.setInt(4, offset);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    hits.add(new SegmentSearchHit(
+                            rs.getInt("id"),
+                            rs.getInt("file_id"),
+                            rs.getString("file_name"),
+                            rs.getInt("start_time"),
+                            rs.getInt("end_time"),
+                            rs.getString("text"),
+                            rs.getDouble("score")
+                    ));
+                }
+            }
+            
+        } catch (SQLException e) {
+            System.err.println("Lỗi khi tìm kiếm phân đoạn: " + e.getMessage());
+        }
+        
+        return hits;
+    }
+}
@@ -8,6 +8,7 @@ public class AudioFile {
     private String fileName;
     private String filePath;
     private List<AudioSegment> segments;
+    private AudioMetadata metadata;
 
     public AudioFile() {
         segments = new ArrayList<>();
@@ -56,6 +57,14 @@ public class AudioFile {
         this.segments.add(segment);
     }
 
+    public AudioMetadata getMetadata() {
+        return metadata;
+    }
+
+    public void setMetadata(AudioMetadata metadata) {
+        this.metadata = metadata;
+    }
+
     @Override
     public String toString() {
         return fileName;
@@ -0,0 +1,93 @@
+package com.soundconverter.models;
+
+import java.io.File;
+
+public class AudioMetadata {
+    private long fileSize;
+    private long lastModified;
+    private long durationMs;
+    private int sampleRate;
+    private int channels;
+    private String codec;
+
+    public AudioMetadata() {
+    }
+
+    public AudioMetadata(long fileSize, long lastModified, long durationMs, int sampleRate, int channels, String codec) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.durationMs = durationMs;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.codec = codec;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public void setChannels(int channels) {
+        this.channels = channels;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Metadata còn đúng khi kích thước và thời điểm sửa đổi của file không đổi
+     */
+    public boolean isCurrentFor(File file) {
+        return file.length() == fileSize && file.lastModified() == lastModified;
+    }
+
+    public String getFormattedDuration() {
+        long totalSeconds = durationMs / 1000;
+        long hours = totalSeconds / 3600;
+        long minutes = (totalSeconds % 3600) / 60;
+        long seconds = totalSeconds % 60;
+        return hours > 0 ? String.format("%d:%02d:%02d", hours, minutes, seconds)
+                         : String.format("%02d:%02d", minutes, seconds);
+    }
+
+    @Override
+    public String toString() {
+        return codec + ", " + sampleRate + " Hz, " + channels + " ch, " + getFormattedDuration();
+    }
+}
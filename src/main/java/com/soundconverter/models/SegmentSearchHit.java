@@ -0,0 +1,66 @@
+package com.soundconverter.models;
+
+/**
+ * Một phân đoạn khớp với truy vấn tìm kiếm, kèm file chứa nó và điểm liên quan
+ */
+public class SegmentSearchHit {
+    private final int segmentId;
+    private final int fileId;
+    private final String fileName;
+    private final int startTime; // tính bằng mili giây
+    private final int endTime;   // tính bằng mili giây
+    private final String text;
+    private final double score;
+
+    public SegmentSearchHit(int segmentId, int fileId, String fileName, int startTime, int endTime,
+                            String text, double score) {
+        this.segmentId = segmentId;
+        this.fileId = fileId;
+        this.fileName = fileName;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.text = text;
+        this.score = score;
+    }
+
+    public int getSegmentId() {
+        return segmentId;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getStartTime() {
+        return startTime;
+    }
+
+    public int getEndTime() {
+        return endTime;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public String getFormattedStartTime() {
+        int hours = startTime / 3600000;
+        int minutes = (startTime % 3600000) / 60000;
+        int seconds = (startTime % 60000) / 1000;
+        int millis = startTime % 1000;
+        return String.format("%02d:%02d:%02d.%03d", hours, minutes, seconds, millis);
+    }
+
+    @Override
+    public String toString() {
+        return fileName + " @ " + getFormattedStartTime() + ": " + text;
+    }
+}
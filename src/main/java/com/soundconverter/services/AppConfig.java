@@ -0,0 +1,68 @@
+package com.soundconverter.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Đọc các thiết lập ứng dụng từ file config.properties (cùng file với cấu hình database).
+ * Thiếu file hoặc thiếu khóa thì dùng giá trị mặc định.
+ */
+public final class AppConfig {
+    private static final String CONFIG_FILE = "/config.properties";
+    
+    private static Properties properties;
+    
+    private AppConfig() {
+    }
+    
+    private static synchronized Properties getProperties() {
+        if (properties == null) {
+            properties = new Properties();
+            try (InputStream input = AppConfig.class.getResourceAsStream(CONFIG_FILE)) {
+                if (input != null) {
+                    properties.load(input);
+                }
+            } catch (IOException e) {
+                System.err.println("Lỗi khi đọc file cấu hình: " + e.getMessage());
+            }
+        }
+        return properties;
+    }
+    
+    public static String getString(String key, String defaultValue) {
+        String value = getProperties().getProperty(key);
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+    
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Giá trị không hợp lệ cho " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Giá trị không hợp lệ cho " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
@@ -0,0 +1,188 @@
+package com.soundconverter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import com.soundconverter.models.AudioMetadata;
+
+/**
+ * Đọc độ dài, tần số lấy mẫu, số kênh và codec trực tiếp từ header của file âm thanh:
+ * WAV (chunk fmt/data), MP3 (Xing/VBRI hoặc quét frame), FLAC (STREAMINFO) và Ogg
+ * (granule position của trang cuối). Các định dạng khác trả về null để dùng FFprobe.
+ */
+public class AudioMetadataProbe {
+
+    private static final int OGG_TAIL_BYTES = 64 * 1024;
+
+    private final Mp3FrameCutter mp3Cutter;
+
+    public AudioMetadataProbe(Mp3FrameCutter mp3Cutter) {
+        this.mp3Cutter = mp3Cutter;
+    }
+
+    /**
+     * Đọc metadata của file
+     * @return Metadata, null nếu định dạng không được hỗ trợ hoặc không đọc được header
+     */
+    public AudioMetadata probe(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        try {
+            if (name.endsWith(".wav")) {
+                return probeWav(file);
+            } else if (name.endsWith(".mp3")) {
+                return mp3Cutter.probe(file);
+            } else if (name.endsWith(".flac")) {
+                return probeFlac(file);
+            } else if (name.endsWith(".ogg") || name.endsWith(".opus") || name.endsWith(".oga")) {
+                return probeOgg(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Không thể đọc metadata từ header của " + file.getName() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private AudioMetadata probeWav(File file) throws IOException {
+        WavPcmEngine.WavFormat format = WavPcmEngine.readFormat(file);
+        String codec;
+        if (format.getFormatTag() == 3) {
+            codec = "pcm_f" + format.getBitsPerSample() + "le";
+        } else if (format.getBitsPerSample() == 8) {
+            codec = "pcm_u8";
+        } else {
+            codec = "pcm_s" + format.getBitsPerSample() + "le";
+        }
+        return new AudioMetadata(file.length(), file.lastModified(), format.getDurationMs(),
+                format.getSampleRate(), format.getChannels(), codec);
+    }
+
+    private AudioMetadata probeFlac(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(10);
+            readFully(channel, head, 0);
+            long position = 0;
+
+            // Bỏ qua tag ID3v2 nếu có
+            if (head.get(0) == 'I' && head.get(1) == 'D' && head.get(2) == '3') {
+                int size = ((head.get(6) & 0x7F) << 21) | ((head.get(7) & 0x7F) << 14) |
+                           ((head.get(8) & 0x7F) << 7) | (head.get(9) & 0x7F);
+                position = 10 + size + ((head.get(5) & 0x10) != 0 ? 10 : 0);
+            }
+
+            // "fLaC" + header khối metadata (4 byte) + STREAMINFO (34 byte)
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 34).order(ByteOrder.BIG_ENDIAN);
+            readFully(channel, buffer, position);
+            if (buffer.get(0) != 'f' || buffer.get(1) != 'L' || buffer.get(2) != 'a' || buffer.get(3) != 'C') {
+                throw new IOException("Không phải file FLAC");
+            }
+            if ((buffer.get(4) & 0x7F) != 0) {
+                throw new IOException("Khối metadata đầu tiên không phải STREAMINFO");
+            }
+
+            // STREAMINFO: tần số 20 bit, số kênh 3 bit, số bit mẫu 5 bit, tổng số mẫu 36 bit
+            long packed = buffer.getLong(8 + 10);
+            int sampleRate = (int) (packed >>> 44);
+            int channels = (int) ((packed >>> 41) & 0x7) + 1;
+            long totalSamples = packed & 0xFFFFFFFFFL;
+            if (sampleRate <= 0) {
+                throw new IOException("STREAMINFO không hợp lệ");
+            }
+            long durationMs = totalSamples * 1000L / sampleRate;
+            return new AudioMetadata(file.length(), file.lastModified(), durationMs, sampleRate, channels, "flac");
+        }
+    }
+
+    private AudioMetadata probeOgg(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // Trang đầu tiên chứa gói nhận dạng của codec
+            ByteBuffer first = ByteBuffer.allocate((int) Math.min(size, 27 + 255 + 64)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, first, 0);
+            if (!isOggPage(first, 0)) {
+                throw new IOException("Không phải file Ogg");
+            }
+            int serial = first.getInt(14);
+            int segments = first.get(26) & 0xFF;
+            int packet = 27 + segments;
+
+            String codec;
+            int sampleRate;
+            int channels;
+            long preSkip = 0;
+            if (matches(first, packet, "\u0001vorbis")) {
+                codec = "vorbis";
+                channels = first.get(packet + 11) & 0xFF;
+                sampleRate = first.getInt(packet + 12);
+            } else if (matches(first, packet, "OpusHead")) {
+                codec = "opus";
+                channels = first.get(packet + 9) & 0xFF;
+                preSkip = first.getShort(packet + 10) & 0xFFFF;
+                // Granule position của Opus luôn tính theo 48 kHz
+                sampleRate = 48000;
+            } else if (matches(first, packet, "\u007fFLAC")) {
+                codec = "flac";
+                // Gói đầu: 0x7F "FLAC", phiên bản, số header, "fLaC", header khối, rồi STREAMINFO
+                long packed = ByteBuffer.wrap(first.array(), packet + 13 + 4 + 10, 8).order(ByteOrder.BIG_ENDIAN).getLong();
+                sampleRate = (int) (packed >>> 44);
+                channels = (int) ((packed >>> 41) & 0x7) + 1;
+            } else {
+                throw new IOException("Codec Ogg không được hỗ trợ");
+            }
+
+            // Granule position của trang cuối cùng (cùng luồng) là tổng số mẫu
+            int tailLength = (int) Math.min(size, OGG_TAIL_BYTES);
+            ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, tail, size - tailLength);
+            long granule = -1;
+            for (int position = tailLength - 27; position >= 0; position--) {
+                if (isOggPage(tail, position) && tail.getInt(position + 14) == serial) {
+                    granule = tail.getLong(position + 6);
+                    if (granule >= 0) {
+                        break;
+                    }
+                }
+            }
+            if (granule < 0 || sampleRate <= 0) {
+                throw new IOException("Không tìm thấy granule position hợp lệ");
+            }
+
+            long durationMs = Math.max(0, granule - preSkip) * 1000L / sampleRate;
+            return new AudioMetadata(file.length(), file.lastModified(), durationMs, sampleRate, channels, codec);
+        }
+    }
+
+    private static boolean isOggPage(ByteBuffer buffer, int position) {
+        return position + 27 <= buffer.limit() &&
+               buffer.get(position) == 'O' && buffer.get(position + 1) == 'g' &&
+               buffer.get(position + 2) == 'g' && buffer.get(position + 3) == 'S';
+    }
+
+    private static boolean matches(ByteBuffer buffer, int position, String marker) {
+        if (position + marker.length() > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < marker.length(); i++) {
+            if (buffer.get(position + i) != (byte) marker.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Kết thúc file bất ngờ");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -1,17 +1,31 @@
 package com.soundconverter.services;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import com.soundconverter.dao.AudioFileDAO;
 import com.soundconverter.models.AudioFile;
+import com.soundconverter.models.AudioMetadata;
 import com.soundconverter.models.MergedAudio;
 import com.soundconverter.models.MergedAudio.MergeSegment;
 
@@ -24,7 +38,56 @@ public class AudioProcessingService {
     
     private static AudioProcessingService instance;
     
+    // Số đoạn được trích xuất song song khi trộn, 0 = số nhân CPU
+    private final SegmentExtractionEngine extractionEngine =
+            new SegmentExtractionEngine(AppConfig.getInt("audio.extract.parallelism", 0));
+    
+    private final Mp3FrameCutter mp3Cutter = new Mp3FrameCutter();
+    private final WavPcmEngine pcmEngine = new WavPcmEngine();
+    private final ExternalProcessRunner processRunner = ExternalProcessRunner.getInstance();
+    private final AudioMetadataProbe metadataProbe = new AudioMetadataProbe(mp3Cutter);
+    
+    // Metadata đã đọc theo đường dẫn, kiểm tra lại bằng kích thước và thời điểm sửa đổi.
+    // File tạm (vùng tiếng nói của VAD, bản sao tạm) mang tên mới mỗi lần chạy nên chỉ giữ
+    // các mục dùng gần nhất, không tăng theo số lần xử lý
+    private static final int METADATA_CACHE_SIZE = 512;
+    private final Map<String, AudioMetadata> metadataCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, AudioMetadata>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, AudioMetadata> eldest) {
+                    return size() > METADATA_CACHE_SIZE;
+                }
+            });
+    
+    // Mã băm nội dung đã tính, khóa theo đường dẫn, kích thước và thời điểm sửa đổi của file;
+    // mỗi lần file thay đổi là một khóa mới nên chỉ giữ các mục dùng gần nhất
+    private static final int CONTENT_HASH_CACHE_SIZE = 512;
+    private final Map<String, String> contentHashCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CONTENT_HASH_CACHE_SIZE;
+                }
+            });
+    private AudioFileDAO audioFileDAO;
+    
+    // Bộ đệm các đoạn đã trích xuất, dùng lại giữa các lần trộn
+    private final DiskLruCache segmentCache = new DiskLruCache("segments",
+            new File(AppConfig.getString("cache.segments.dir", "./cache/segments")),
+            AppConfig.getLong("cache.segments.max.bytes", 1024L * 1024 * 1024));
+    
+    // Bản PCM 16 kHz mono đã giải mã của các file nguồn, dùng chung cho phiên âm và VAD
+    private final DiskLruCache pcmCache = new DiskLruCache("pcm",
+            new File(AppConfig.getString("cache.pcm.dir", "./cache/pcm")),
+            AppConfig.getLong("cache.pcm.max.bytes", 2048L * 1024 * 1024));
+    
     private AudioProcessingService() {
+        try {
+            audioFileDAO = new AudioFileDAO();
+        } catch (Exception e) {
+            System.err.println("Không thể khởi tạo AudioFileDAO, metadata sẽ không được lưu: " + e.getMessage());
+        }
+        
         // Tạo thư mục output nếu không tồn tại
         try {
             Files.createDirectories(Paths.get(OUTPUT_DIR));
@@ -59,10 +122,52 @@ public class AudioProcessingService {
      * @param sourceFile File âm thanh nguồn
      * @param startTime Thời gian bắt đầu tính bằng giây
      * @param endTime Thời gian kết thúc tính bằng giây
-     * @return Đường dẫn đến file đoạn đã trích xuất
+     * @return Đường dẫn đến file đoạn đã trích xuất trong thư mục output, thuộc về người gọi
      */
     public String extractSegment(String sourceFile, int startTime, int endTime) throws IOException {
-        // Đảm bảo thư mục output tồn tại
+        try (DiskLruCache.Handle segment = extractSegmentFile(sourceFile, startTime * 1000, endTime * 1000)) {
+            if (!segmentCache.isEnabled()) {
+                return segment.getFile().getAbsolutePath();
+            }
+            // Tách khỏi bộ đệm để file không bị mất khi mục bị loại
+            File outputFile = new File(ensureOutputDir(), UUID.randomUUID().toString() + ".mp3").getAbsoluteFile();
+            placeSegmentFile(segment.getFile(), outputFile);
+            return outputFile.getAbsolutePath();
+        }
+    }
+    
+    /**
+     * Trích xuất một đoạn, ưu tiên lấy từ bộ đệm đoạn
+     * @return Handle của file đoạn - mục bộ đệm được giữ tới khi đóng Handle nếu bộ đệm được bật,
+     *         ngược lại là file mới trong thư mục output
+     */
+    private DiskLruCache.Handle extractSegmentFile(String sourceFile, int startMs, int endMs) throws IOException {
+        SeekMode mode = seekMode;
+        if (mode == SeekMode.OUTPUT) {
+            // Cách cũ chỉ cắt theo giây
+            startMs = startMs / 1000 * 1000;
+            endMs = endMs / 1000 * 1000;
+        }
+        if (endMs <= startMs) {
+            throw new IOException("Thời gian kết thúc phải lớn hơn thời gian bắt đầu");
+        }
+        
+        int segmentStartMs = startMs;
+        int segmentEndMs = endMs;
+        if (segmentCache.isEnabled()) {
+            String key = segmentCacheKey(sourceFile, startMs, endMs, "mp3");
+            return segmentCache.acquire(key, "mp3", target -> runExtraction(sourceFile, segmentStartMs, segmentEndMs, mode, target));
+        }
+        
+        File outputFile = new File(ensureOutputDir(), UUID.randomUUID().toString() + ".mp3").getAbsoluteFile();
+        runExtraction(sourceFile, startMs, endMs, mode, outputFile);
+        return DiskLruCache.Handle.unmanaged(outputFile);
+    }
+    
+    /**
+     * Đảm bảo thư mục output tồn tại
+     */
+    private File ensureOutputDir() throws IOException {
         File outputDirFile = new File(OUTPUT_DIR);
         if (!outputDirFile.exists()) {
             boolean created = outputDirFile.mkdirs();
@@ -70,52 +175,56 @@ public class AudioProcessingService {
                 throw new IOException("Không thể tạo thư mục output: " + OUTPUT_DIR);
             }
         }
-        
-        String outputFilename = new File(OUTPUT_DIR, UUID.randomUUID().toString() + ".mp3").getAbsolutePath();
+        return outputDirFile;
+    }
+    
+    /**
+     * Khóa bộ đệm của một đoạn: đường dẫn nguồn, kích thước, thời điểm sửa đổi và khoảng mili giây
+     */
+    private String segmentCacheKey(String sourceFile, int startMs, int endMs, String extension) {
+        File source = new File(sourceFile).getAbsoluteFile();
+        return DiskLruCache.hashKey(source.getPath(), source.length(), source.lastModified(), startMs, endMs, extension);
+    }
+    
+    /**
+     * Chạy FFmpeg để cắt một đoạn của file nguồn vào file đích
+     */
+    private void runExtraction(String sourceFile, int startMs, int endMs, SeekMode mode, File outputFile) throws IOException {
+        // File MP3 được cắt trực tiếp theo frame, FFmpeg chỉ dùng cho các định dạng khác hoặc khi cắt lỗi
+        if (Mp3FrameCutter.isMp3(sourceFile) && Mp3FrameCutter.isMp3(outputFile.getName())) {
+            try {
+                mp3Cutter.cut(new File(sourceFile), startMs, endMs, outputFile);
+                return;
+            } catch (IOException e) {
+                System.err.println("Không thể cắt MP3 bằng Java, chuyển sang FFmpeg: " + e.getMessage());
+            }
+        }
         
         List<String> command = new ArrayList<>();
         command.add(FFMPEG_EXE);
-        command.add("-i");
-        command.add(sourceFile);
-        command.add("-ss");
-        command.add(formatTime(startTime));
-        command.add("-to");
-        command.add(formatTime(endTime));
+        if (mode == SeekMode.INPUT) {
+            // Tìm trên input: FFmpeg nhảy tới vị trí gần điểm cắt thay vì đọc từ đầu file,
+            // -t là độ dài đoạn vì mốc thời gian output bắt đầu lại từ 0 sau khi tìm
+            command.add("-ss");
+            command.add(formatTimeWithMs(startMs));
+            command.add("-i");
+            command.add(sourceFile);
+            command.add("-t");
+            command.add(formatTimeWithMs(endMs - startMs));
+        } else {
+            command.add("-i");
+            command.add(sourceFile);
+            command.add("-ss");
+            command.add(formatTime(startMs / 1000));
+            command.add("-to");
+            command.add(formatTime(endMs / 1000));
+        }
         command.add("-c");
         command.add("copy");
-        command.add(outputFilename);
+        command.add(outputFile.getAbsolutePath());
         
-        System.out.println("Đang chạy lệnh FFmpeg trích xuất: " + String.join(" ", command));
+        runFFmpeg(command, "FFmpeg Extract", "trích xuất", 30);
         
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                System.out.println("[FFmpeg Extract] " + line);
-            }
-        }
-        
-        try {
-            boolean completed = process.waitFor(30, TimeUnit.SECONDS);
-            if (!completed) {
-                process.destroyForcibly();
-                throw new IOException("Quá trình FFmpeg trích xuất đã hết thời gian chờ");
-            }
-            
-            int exitCode = process.exitValue();
-            if (exitCode != 0) {
-                throw new IOException("Quá trình FFmpeg trích xuất thất bại với mã lỗi " + exitCode + ":\n" + output);
-            }
-        } catch (InterruptedException e) {
-            throw new IOException("Quá trình FFmpeg trích xuất bị gián đoạn: " + e.getMessage());
-        }
-        
-        File outputFile = new File(outputFilename);
         if (!outputFile.exists()) {
             throw new IOException("Không thể trích xuất đoạn - file output không được tạo");
         }
@@ -123,8 +232,107 @@ public class AudioProcessingService {
         if (outputFile.length() == 0) {
             throw new IOException("Không thể trích xuất đoạn - file output rỗng");
         }
+    }
+    
+    /**
+     * Đặt file đoạn đã trích xuất vào vị trí đích.
+     * File thuộc bộ đệm được liên kết cứng (hoặc sao chép nếu không thể), file thường được di chuyển.
+     */
+    private void placeSegmentFile(File segmentFile, File target) throws IOException {
+        if (!segmentCache.isEnabled()) {
+            Files.move(segmentFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
         
-        return outputFilename;
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), segmentFile.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(segmentFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Bộ đệm các đoạn đã trích xuất, dùng để theo dõi số liệu hit/miss/evict
+     */
+    public DiskLruCache getSegmentCache() {
+        return segmentCache;
+    }
+    
+    /**
+     * Chế độ dựng file trộn
+     */
+    public enum MergeMode {
+        /**
+         * Tự chọn: nối PCM bằng Java khi mọi nguồn là WAV cùng định dạng, nối frame MP3 bằng Java khi
+         * mọi nguồn là MP3 tương thích, dùng concat demuxer khi mọi nguồn cùng định dạng với output,
+         * ngược lại trích xuất từng đoạn
+         */
+        AUTO,
+        /** Nối trực tiếp các frame MP3 bằng Java, không cần FFmpeg */
+        MP3_FRAMES,
+        /** Nối dữ liệu PCM của các file WAV cùng định dạng bằng Java, chỉ mã hóa một lần nếu output không phải WAV */
+        PCM_WAV,
+        /** Trích xuất từng đoạn ra file riêng rồi nối bằng concat demuxer (cách cũ) */
+        SEGMENT_FILES,
+        /** Một lệnh FFmpeg duy nhất, cắt bằng chỉ thị inpoint/outpoint của concat demuxer, không mã hóa lại */
+        CONCAT_DEMUXER,
+        /** Một lệnh FFmpeg duy nhất với đồ thị atrim/concat trong filter_complex, có mã hóa lại */
+        FILTER_GRAPH
+    }
+    
+    private volatile MergeMode mergeMode = MergeMode.AUTO;
+    
+    /**
+     * Cách FFmpeg tìm tới điểm bắt đầu khi trích xuất một đoạn
+     */
+    public enum SeekMode {
+        /**
+         * -ss đặt trước -i: FFmpeg nhảy thẳng tới vị trí cần cắt dựa trên chỉ mục của file,
+         * thời gian tìm không phụ thuộc vị trí đoạn, giữ nguyên độ chính xác mili giây
+         */
+        INPUT,
+        /** -ss/-to đặt sau -i và làm tròn xuống giây: FFmpeg giải mã từ đầu file tới điểm cắt (cách cũ) */
+        OUTPUT
+    }
+    
+    private volatile SeekMode seekMode = parseSeekMode(AppConfig.getString("audio.extract.seek", "input"));
+    
+    public int getExtractionParallelism() {
+        return extractionEngine.getParallelism();
+    }
+    
+    /**
+     * Thiết lập số đoạn được trích xuất song song khi trộn
+     * @param parallelism Số luồng trích xuất, 0 = số nhân CPU
+     */
+    public void setExtractionParallelism(int parallelism) {
+        extractionEngine.setParallelism(parallelism);
+    }
+    
+    public SeekMode getSeekMode() {
+        return seekMode;
+    }
+    
+    public void setSeekMode(SeekMode seekMode) {
+        this.seekMode = seekMode != null ? seekMode : SeekMode.INPUT;
+    }
+    
+    private static SeekMode parseSeekMode(String value) {
+        try {
+            return SeekMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Giá trị audio.extract.seek không hợp lệ: " + value + ", dùng INPUT");
+            return SeekMode.INPUT;
+        }
+    }
+    
+    public MergeMode getMergeMode() {
+        return mergeMode;
+    }
+    
+    public void setMergeMode(MergeMode mergeMode) {
+        this.mergeMode = mergeMode != null ? mergeMode : MergeMode.AUTO;
     }
     
     /**
@@ -134,75 +342,218 @@ public class AudioProcessingService {
      * @return Đường dẫn đến file âm thanh đã trộn
      */
     public String mergeSegments(MergedAudio mergedAudio, List<AudioFile> audioFiles) throws IOException {
-        // Lấy đường dẫn output do người dùng chỉ định
-        String outputPath = mergedAudio.getFilePath();
+        return mergeSegments(mergedAudio, audioFiles, mergeMode);
+    }
+    
+    /**
+     * Trộn các đoạn từ nhiều file âm thanh với chế độ dựng chỉ định
+     * @param mergedAudio Đối tượng âm thanh đã trộn chứa các đoạn cần trộn
+     * @param audioFiles Danh sách các file âm thanh với thông tin của chúng
+     * @param mode Chế độ dựng file trộn
+     * @return Đường dẫn đến file âm thanh đã trộn
+     */
+    public String mergeSegments(MergedAudio mergedAudio, List<AudioFile> audioFiles, MergeMode mode) throws IOException {
+        if (mergedAudio.getSegments().isEmpty()) {
+            throw new IOException("Không có đoạn nào để trộn");
+        }
         
-        // Tạo thư mục tạm cho các file đoạn
-        String tempDirName = "temp_" + UUID.randomUUID().toString();
-        File tempDir = new File(OUTPUT_DIR, tempDirName);
-        if (!tempDir.exists()) {
-            boolean created = tempDir.mkdirs();
-            if (!created) {
-                throw new IOException("Không thể tạo thư mục tạm: " + tempDir.getAbsolutePath());
+        // Tìm file nguồn cho từng đoạn theo đúng thứ tự
+        List<AudioFile> sources = resolveSourceFiles(mergedAudio, audioFiles);
+        validateSegments(mergedAudio, sources);
+        
+        if (mode == null || mode == MergeMode.AUTO) {
+            if (pcmEngine.canConcat(toWavSlices(mergedAudio, sources))) {
+                mode = MergeMode.PCM_WAV;
+            } else if (!canStreamCopy(sources, mergedAudio.getFilePath())) {
+                mode = MergeMode.SEGMENT_FILES;
+            } else if (Mp3FrameCutter.isMp3(mergedAudio.getFilePath()) && mp3Cutter.canConcat(toMp3Slices(mergedAudio, sources))) {
+                mode = MergeMode.MP3_FRAMES;
+            } else {
+                mode = MergeMode.CONCAT_DEMUXER;
+            }
+        }
+        
+        System.out.println("Chế độ trộn: " + mode + " (" + mergedAudio.getSegments().size() + " đoạn)");
+        
+        switch (mode) {
+            case MP3_FRAMES:
+                return mergeWithMp3Frames(mergedAudio, sources);
+            case PCM_WAV:
+                return mergeWithPcm(mergedAudio, sources);
+            case CONCAT_DEMUXER:
+                return mergeWithConcatDemuxer(mergedAudio, sources);
+            case FILTER_GRAPH:
+                return mergeWithFilterGraph(mergedAudio, sources);
+            default:
+                return mergeWithSegmentFiles(mergedAudio, sources);
+        }
+    }
+    
+    /**
+     * Tìm file nguồn tương ứng với từng đoạn trộn
+     * @return Danh sách file nguồn, phần tử thứ i ứng với đoạn thứ i
+     */
+    private List<AudioFile> resolveSourceFiles(MergedAudio mergedAudio, List<AudioFile> audioFiles) throws IOException {
+        Map<Integer, AudioFile> filesById = new HashMap<>();
+        for (AudioFile file : audioFiles) {
+            filesById.put(file.getId(), file);
+        }
+        
+        List<AudioFile> sources = new ArrayList<>(mergedAudio.getSegments().size());
+        for (MergeSegment segment : mergedAudio.getSegments()) {
+            AudioFile sourceFile = filesById.get(segment.getSourceFileId());
+            if (sourceFile == null) {
+                throw new IOException("Không tìm thấy file nguồn cho đoạn");
+            }
+            sources.add(sourceFile);
+        }
+        return sources;
+    }
+    
+    /**
+     * Kiểm tra khoảng thời gian của từng đoạn so với độ dài file nguồn (lấy từ metadata đã lưu)
+     */
+    private void validateSegments(MergedAudio mergedAudio, List<AudioFile> sources) throws IOException {
+        List<MergeSegment> segments = mergedAudio.getSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            MergeSegment segment = segments.get(i);
+            AudioFile source = sources.get(i);
+            if (segment.getEndTime() <= segment.getStartTime()) {
+                throw new IOException("Đoạn thứ " + (i + 1) + " có thời gian kết thúc không lớn hơn thời gian bắt đầu");
+            }
+            long durationMs = getMetadata(source).getDurationMs();
+            if (segment.getStartTime() >= durationMs) {
+                throw new IOException("Đoạn thứ " + (i + 1) + " bắt đầu sau khi file " + source.getFileName() + " kết thúc");
+            }
+        }
+    }
+    
+    /**
+     * Kiểm tra có thể sao chép luồng (-c copy) hay không: mọi file nguồn cùng định dạng với file output
+     */
+    private boolean canStreamCopy(List<AudioFile> sources, String outputPath) {
+        String outputExtension = getExtension(outputPath);
+        if (outputExtension.isEmpty()) {
+            return false;
+        }
+        for (AudioFile source : sources) {
+            if (!outputExtension.equals(getExtension(source.getFilePath()))) {
+                return false;
             }
         }
+        return true;
+    }
+    
+    private List<Mp3FrameCutter.Slice> toMp3Slices(MergedAudio mergedAudio, List<AudioFile> sources) {
+        List<MergeSegment> segments = mergedAudio.getSegments();
+        List<Mp3FrameCutter.Slice> slices = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            MergeSegment segment = segments.get(i);
+            slices.add(new Mp3FrameCutter.Slice(new File(sources.get(i).getFilePath()).getAbsoluteFile(),
+                    segment.getStartTime(), segment.getEndTime()));
+        }
+        return slices;
+    }
+    
+    /**
+     * Trộn bằng cách nối trực tiếp các frame MP3 của file nguồn vào file output, không chạy FFmpeg
+     */
+    private String mergeWithMp3Frames(MergedAudio mergedAudio, List<AudioFile> sources) throws IOException {
+        String outputPath = mergedAudio.getFilePath();
+        mp3Cutter.concat(toMp3Slices(mergedAudio, sources), new File(outputPath));
+        return verifyOutput(outputPath);
+    }
+    
+    private List<WavPcmEngine.Slice> toWavSlices(MergedAudio mergedAudio, List<AudioFile> sources) {
+        List<MergeSegment> segments = mergedAudio.getSegments();
+        List<WavPcmEngine.Slice> slices = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            MergeSegment segment = segments.get(i);
+            slices.add(new WavPcmEngine.Slice(new File(sources.get(i).getFilePath()).getAbsoluteFile(),
+                    segment.getStartTime(), segment.getEndTime()));
+        }
+        return slices;
+    }
+    
+    /**
+     * Trộn các file WAV cùng định dạng bằng cách nối trực tiếp dữ liệu PCM.
+     * Nếu output là WAV thì không cần FFmpeg, ngược lại chỉ chạy một lệnh FFmpeg để mã hóa file đã nối.
+     */
+    private String mergeWithPcm(MergedAudio mergedAudio, List<AudioFile> sources) throws IOException {
+        String outputPath = mergedAudio.getFilePath();
+        List<WavPcmEngine.Slice> slices = toWavSlices(mergedAudio, sources);
         
-        // Tạo danh sách file cho FFmpeg
-        StringBuilder fileList = new StringBuilder();
-        List<String> extractedFiles = new ArrayList<>();
+        if (WavPcmEngine.isWav(outputPath)) {
+            pcmEngine.concat(slices, new File(outputPath));
+            return verifyOutput(outputPath);
+        }
         
+        File tempDir = createTempDir();
         try {
-            // Trích xuất từng đoạn
-            int segmentIndex = 0;
-            for (MergeSegment segment : mergedAudio.getSegments()) {
-                // Tìm file âm thanh nguồn
-                AudioFile sourceFile = null;
-                for (AudioFile file : audioFiles) {
-                    if (file.getId() == segment.getSourceFileId()) {
-                        sourceFile = file;
-                        break;
+            File joined = new File(tempDir, "joined.wav");
+            pcmEngine.concat(slices, joined);
+            
+            List<String> command = new ArrayList<>();
+            command.add(FFMPEG_EXE);
+            command.add("-y");
+            command.add("-i");
+            command.add(joined.getAbsolutePath());
+            command.add(outputPath);
+            
+            runFFmpeg(command, "FFmpeg Encode", "mã hóa", 0);
+            return verifyOutput(outputPath);
+        } finally {
+            cleanupTempDir(tempDir.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Trộn bằng cách trích xuất từng đoạn ra file riêng rồi nối lại
+     */
+    private String mergeWithSegmentFiles(MergedAudio mergedAudio, List<AudioFile> sources) throws IOException {
+        // Lấy đường dẫn output do người dùng chỉ định
+        String outputPath = mergedAudio.getFilePath();
+        
+        // Tạo thư mục tạm cho các file đoạn
+        File tempDir = createTempDir();
+        
+        try {
+            // Trích xuất song song, đoạn thứ i luôn nằm ở file %03d.mp3 để giữ đúng thứ tự
+            List<MergeSegment> segments = mergedAudio.getSegments();
+            List<SegmentExtractionEngine.SegmentTask> tasks = new ArrayList<>(segments.size());
+            for (int segmentIndex = 0; segmentIndex < segments.size(); segmentIndex++) {
+                MergeSegment segment = segments.get(segmentIndex);
+                AudioFile sourceFile = sources.get(segmentIndex);
+                tasks.add(target -> {
+                    System.out.println("Đang xử lý đoạn từ: " + sourceFile.getFilePath());
+                    System.out.println("Thời gian bắt đầu: " + segment.getStartTime() + ", Thời gian kết thúc: " + segment.getEndTime());
+                    
+                    // Trích xuất đoạn (hoặc lấy từ bộ đệm), mục bộ đệm được giữ tới khi đã liên kết xong
+                    try (DiskLruCache.Handle segmentFile = extractSegmentFile(
+                            sourceFile.getFilePath(),
+                            segment.getStartTime(),
+                            segment.getEndTime()
+                    )) {
+                        // Đặt file đoạn vào đúng vị trí để đảm bảo thứ tự
+                        placeSegmentFile(segmentFile.getFile(), target);
                     }
-                }
-                
-                if (sourceFile == null) {
-                    throw new IOException("Không tìm thấy file nguồn cho đoạn");
-                }
-                
-                System.out.println("Đang xử lý đoạn từ: " + sourceFile.getFilePath());
-                System.out.println("Thời gian bắt đầu: " + segment.getStartTime() + ", Thời gian kết thúc: " + segment.getEndTime());
-                
-                // Trích xuất đoạn
-                String segmentFile = extractSegment(
-                        sourceFile.getFilePath(),
-                        segment.getStartTime() / 1000, // Chuyển ms sang giây
-                        segment.getEndTime() / 1000    // Chuyển ms sang giây
-                );
-                
-                // Đổi tên file đoạn để đảm bảo thứ tự đúng
-                File orderedSegmentFile = new File(tempDir, String.format("%03d.mp3", segmentIndex));
-                Files.move(Paths.get(segmentFile), orderedSegmentFile.toPath(), 
-                           java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-                
-                // Thêm vào danh sách file - sử dụng đường dẫn tuyệt đối với escape đúng
-                String escapedPath = orderedSegmentFile.getAbsolutePath().replace("\\", "/");
-                fileList.append("file '").append(escapedPath).append("'\n");
-                extractedFiles.add(orderedSegmentFile.getAbsolutePath());
-                
-                segmentIndex++;
+                });
             }
             
-            // Ghi danh sách file
-            File fileListFile = new File(tempDir, "list.txt");
-            Files.write(fileListFile.toPath(), fileList.toString().getBytes());
+            List<File> orderedSegmentFiles = extractionEngine.extractAll(tasks, tempDir, "mp3");
+            if (segmentCache.isEnabled()) {
+                System.out.println(segmentCache.getStatsSummary());
+            }
             
-            // Xác minh danh sách file đã được tạo
-            if (!fileListFile.exists() || fileListFile.length() == 0) {
-                throw new IOException("Không thể tạo danh sách file cho FFmpeg");
+            // Tạo danh sách file cho FFmpeg - sử dụng đường dẫn tuyệt đối với escape đúng
+            StringBuilder fileList = new StringBuilder();
+            for (File orderedSegmentFile : orderedSegmentFiles) {
+                fileList.append("file ").append(quoteConcatPath(orderedSegmentFile.getAbsolutePath())).append("\n");
             }
             
-            // Sử dụng đường dẫn output do người dùng chỉ định trực tiếp
-            System.out.println("File được tạo ở: " + fileListFile.getAbsolutePath());
-            System.out.println("Nội dung file danh sách:\n" + fileList.toString());
+            // Ghi danh sách file
+            File fileListFile = writeConcatList(tempDir, fileList);
+            
             // Trộn bằng FFmpeg
             List<String> mergeCommand = new ArrayList<>();
             mergeCommand.add(FFMPEG_EXE);
@@ -216,55 +567,211 @@ public class AudioProcessingService {
             mergeCommand.add("copy");
             mergeCommand.add(outputPath);
             
-            System.out.println("Đang chạy lệnh FFmpeg trộn: " + String.join(" ", mergeCommand));
+            runFFmpeg(mergeCommand, "FFmpeg Merge", "trộn", 0);
+            return verifyOutput(outputPath);
+        } finally {
+            // Dọn dẹp file tạm
+            cleanupTempDir(tempDir.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Trộn bằng một lệnh FFmpeg duy nhất: concat demuxer đọc thẳng các file nguồn,
+     * chỉ thị inpoint/outpoint cắt đúng khoảng thời gian, luồng được sao chép nguyên vẹn
+     */
+    private String mergeWithConcatDemuxer(MergedAudio mergedAudio, List<AudioFile> sources) throws IOException {
+        String outputPath = mergedAudio.getFilePath();
+        File tempDir = createTempDir();
+        
+        try {
+            StringBuilder fileList = new StringBuilder("ffconcat version 1.0\n");
+            List<MergeSegment> segments = mergedAudio.getSegments();
+            for (int i = 0; i < segments.size(); i++) {
+                MergeSegment segment = segments.get(i);
+                String sourcePath = new File(sources.get(i).getFilePath()).getAbsolutePath();
+                fileList.append("file ").append(quoteConcatPath(sourcePath)).append("\n");
+                fileList.append("inpoint ").append(formatSeconds(segment.getStartTime())).append("\n");
+                fileList.append("outpoint ").append(formatSeconds(segment.getEndTime())).append("\n");
+            }
+            
+            File fileListFile = writeConcatList(tempDir, fileList);
             
-            ProcessBuilder pb = new ProcessBuilder(mergeCommand);
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
+            List<String> command = new ArrayList<>();
+            command.add(FFMPEG_EXE);
+            command.add("-y");
+            command.add("-f");
+            command.add("concat");
+            command.add("-safe");
+            command.add("0");
+            command.add("-i");
+            command.add(fileListFile.getAbsolutePath());
+            command.add("-c");
+            command.add("copy");
+            command.add(outputPath);
             
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                    System.out.println("[FFmpeg Merge] " + line);
+            runFFmpeg(command, "FFmpeg Concat", "trộn", 0);
+            return verifyOutput(outputPath);
+        } finally {
+            cleanupTempDir(tempDir.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Trộn bằng một lệnh FFmpeg duy nhất với đồ thị atrim/concat.
+     * Mỗi file nguồn chỉ được mở một lần, asplit chia luồng cho các đoạn dùng chung nguồn.
+     */
+    private String mergeWithFilterGraph(MergedAudio mergedAudio, List<AudioFile> sources) throws IOException {
+        String outputPath = mergedAudio.getFilePath();
+        File tempDir = createTempDir();
+        
+        try {
+            // Đánh chỉ số cho các file nguồn khác nhau
+            Map<String, Integer> inputIndex = new LinkedHashMap<>();
+            List<Integer> segmentInputs = new ArrayList<>(sources.size());
+            for (AudioFile source : sources) {
+                String path = new File(source.getFilePath()).getAbsolutePath();
+                Integer index = inputIndex.get(path);
+                if (index == null) {
+                    index = inputIndex.size();
+                    inputIndex.put(path, index);
                 }
+                segmentInputs.add(index);
             }
             
-            try {
-                int exitCode = process.waitFor();
-                if (exitCode != 0) {
-                    throw new IOException("Quá trình FFmpeg trộn thất bại với mã lỗi " + exitCode + ":\n" + output);
+            // Đếm số đoạn dùng mỗi nguồn để tạo asplit
+            int[] usage = new int[inputIndex.size()];
+            for (int index : segmentInputs) {
+                usage[index]++;
+            }
+            
+            StringBuilder graph = new StringBuilder();
+            for (int input = 0; input < usage.length; input++) {
+                if (usage[input] > 1) {
+                    graph.append('[').append(input).append(":a]asplit=").append(usage[input]);
+                    for (int k = 0; k < usage[input]; k++) {
+                        graph.append("[in").append(input).append('_').append(k).append(']');
+                    }
+                    graph.append(";\n");
                 }
-                
-                // int exitCode = process.exitValue();
-                File outputFile = new File(outputPath);
-                if (!outputFile.exists() || outputFile.length() == 0) {
-                    throw new IOException("File chưa được tạo hoặc rỗng: " + outputPath);
+            }
+            
+            int[] used = new int[usage.length];
+            List<MergeSegment> segments = mergedAudio.getSegments();
+            for (int i = 0; i < segments.size(); i++) {
+                MergeSegment segment = segments.get(i);
+                int input = segmentInputs.get(i);
+                if (usage[input] > 1) {
+                    graph.append("[in").append(input).append('_').append(used[input]++).append(']');
+                } else {
+                    graph.append('[').append(input).append(":a]");
                 }
-
-                return outputPath;
-            } catch (InterruptedException e) {
-                throw new IOException("Quá trình FFmpeg trộn bị gián đoạn: " + e.getMessage());
+                graph.append("atrim=start=").append(formatSeconds(segment.getStartTime()))
+                     .append(":end=").append(formatSeconds(segment.getEndTime()))
+                     .append(",asetpts=PTS-STARTPTS[s").append(i).append("];\n");
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                graph.append("[s").append(i).append(']');
             }
+            graph.append("concat=n=").append(segments.size()).append(":v=0:a=1[out]\n");
             
-            // // Xác minh file output đã được tạo
-            // File mergedFile = new File(outputPath);
-            // if (!mergedFile.exists()) {
-            //     throw new IOException("Không thể trộn các đoạn - file output không được tạo");
-            // }
+            // Đồ thị có thể rất dài với hàng nghìn đoạn nên ghi ra file script thay vì truyền qua dòng lệnh
+            File graphFile = new File(tempDir, "graph.txt");
+            Files.write(graphFile.toPath(), graph.toString().getBytes(StandardCharsets.UTF_8));
             
-            // if (mergedFile.length() == 0) {
-            //     throw new IOException("Không thể trộn các đoạn - file output rỗng");
-            // }
+            List<String> command = new ArrayList<>();
+            command.add(FFMPEG_EXE);
+            command.add("-y");
+            for (String path : inputIndex.keySet()) {
+                command.add("-i");
+                command.add(path);
+            }
+            command.add("-filter_complex_script");
+            command.add(graphFile.getAbsolutePath());
+            command.add("-map");
+            command.add("[out]");
+            command.add(outputPath);
             
-            // return outputPath;
+            runFFmpeg(command, "FFmpeg Filter", "trộn", 0);
+            return verifyOutput(outputPath);
         } finally {
-            // Dọn dẹp file tạm
             cleanupTempDir(tempDir.getAbsolutePath());
         }
     }
     
+    private File createTempDir() throws IOException {
+        File tempDir = new File(OUTPUT_DIR, "temp_" + UUID.randomUUID().toString());
+        if (!tempDir.exists()) {
+            boolean created = tempDir.mkdirs();
+            if (!created) {
+                throw new IOException("Không thể tạo thư mục tạm: " + tempDir.getAbsolutePath());
+            }
+        }
+        return tempDir;
+    }
+    
+    private File writeConcatList(File tempDir, StringBuilder fileList) throws IOException {
+        File fileListFile = new File(tempDir, "list.txt");
+        Files.write(fileListFile.toPath(), fileList.toString().getBytes(StandardCharsets.UTF_8));
+        
+        // Xác minh danh sách file đã được tạo
+        if (!fileListFile.exists() || fileListFile.length() == 0) {
+            throw new IOException("Không thể tạo danh sách file cho FFmpeg");
+        }
+        
+        System.out.println("File được tạo ở: " + fileListFile.getAbsolutePath());
+        return fileListFile;
+    }
+    
+    private String verifyOutput(String outputPath) throws IOException {
+        File outputFile = new File(outputPath);
+        if (!outputFile.exists() || outputFile.length() == 0) {
+            throw new IOException("File chưa được tạo hoặc rỗng: " + outputPath);
+        }
+        return outputPath;
+    }
+    
+    /**
+     * Chạy một lệnh FFmpeg, chờ kết thúc và ném lỗi nếu mã thoát khác 0
+     * @param command Lệnh cần chạy
+     * @param logTag Nhãn của tiến trình trong log
+     * @param action Tên thao tác dùng trong thông báo lỗi
+     * @param timeoutSeconds Thời gian chờ tối đa, 0 = không giới hạn
+     * @return Kết quả chạy, chỉ giữ các dòng output cuối
+     */
+    private ExternalProcessRunner.Result runFFmpeg(List<String> command, String logTag, String action, long timeoutSeconds) throws IOException {
+        System.out.println("Đang chạy lệnh FFmpeg " + action + ": " + String.join(" ", command));
+        
+        ExternalProcessRunner.Request request = new ExternalProcessRunner.Request(command)
+                .logTag(logTag)
+                .timeout(timeoutSeconds, TimeUnit.SECONDS);
+        return processRunner.run(request, "FFmpeg " + action);
+    }
+    
+    /**
+     * Đặt đường dẫn trong dấu nháy đơn theo cú pháp của concat demuxer
+     */
+    private String quoteConcatPath(String path) {
+        return "'" + path.replace("\\", "/").replace("'", "'\\''") + "'";
+    }
+    
+    private String getExtension(String path) {
+        if (path == null) {
+            return "";
+        }
+        int lastDot = path.lastIndexOf('.');
+        if (lastDot < 0 || lastDot < path.lastIndexOf(File.separatorChar)) {
+            return "";
+        }
+        return path.substring(lastDot + 1).toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Định dạng thời gian theo mili giây sang số giây thập phân (ví dụ 12.345) cho FFmpeg
+     */
+    private String formatSeconds(int milliseconds) {
+        return String.format(Locale.ROOT, "%d.%03d", milliseconds / 1000, milliseconds % 1000);
+    }
+    
     private void cleanupTempDir(String tempDir) {
         try {
             File dir = new File(tempDir);
@@ -303,42 +810,239 @@ public class AudioProcessingService {
     }
     
     /**
-     * Lấy độ dài của file âm thanh theo giây
+     * Lấy bản PCM 16 bit, 16 kHz, mono (định dạng đầu vào của Whisper) của file âm thanh.
+     * Bản giải mã được lưu một lần cho mỗi (file, kích thước, thời điểm sửa đổi) trong bộ đệm PCM
+     * và dùng chung cho phiên âm, VAD và các lần phân tích lại.
+     * @return Handle của file WAV - chính file nguồn nếu đã đúng định dạng, ngược lại là file thuộc bộ đệm
+     *         (không được xóa hoặc di chuyển). Mục bộ đệm không bị loại cho tới khi người gọi đóng Handle
      */
-    public int getAudioDuration(String filePath) throws IOException {
+    public DiskLruCache.Handle acquireWhisperPcm(File source) throws IOException {
+        File absolute = source.getAbsoluteFile();
+        if (isWhisperPcm(absolute)) {
+            return DiskLruCache.Handle.unmanaged(absolute);
+        }
+        
+        String key = DiskLruCache.hashKey(absolute.getPath(), absolute.length(), absolute.lastModified(), "pcm_s16le", 16000, 1);
+        if (pcmCache.isEnabled()) {
+            return pcmCache.acquire(key, "wav", target -> decodeToWhisperPcm(absolute, target));
+        }
+        
+        // Bộ đệm bị tắt: giải mã vào file tạm, xóa khi thoát ứng dụng
+        File target = new File(System.getProperty("java.io.tmpdir"), "pcm_" + key + ".wav");
+        if (!target.exists() || target.length() == 0) {
+            decodeToWhisperPcm(absolute, target);
+            target.deleteOnExit();
+        }
+        return DiskLruCache.Handle.unmanaged(target);
+    }
+    
+    /**
+     * Tính mã băm SHA-256 của nội dung file bằng cách đọc tuần tự theo từng khối,
+     * không nạp cả file vào bộ nhớ. Kết quả được ghi nhớ cho đến khi file thay đổi.
+     * @return Mã băm dạng hex (64 ký tự)
+     */
+    public String getContentHash(File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        if (!absolute.isFile()) {
+            throw new IOException("Không tìm thấy file âm thanh: " + absolute.getPath());
+        }
+        
+        String identity = DiskLruCache.hashKey(absolute.getPath(), absolute.length(), absolute.lastModified());
+        String cached = contentHashCache.get(identity);
+        if (cached != null) {
+            return cached;
+        }
+        
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream input = Files.newInputStream(absolute.toPath())) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        String hash = hex.toString();
+        contentHashCache.put(identity, hash);
+        return hash;
+    }
+    
+    /**
+     * Ánh xạ bộ nhớ vùng dữ liệu của bản PCM 16 kHz mono (từ acquireWhisperPcm), mỗi phần tử là một mẫu 16 bit.
+     * Người gọi giữ Handle của bản PCM trong suốt thời gian đọc buffer
+     */
+    public ShortBuffer mapWhisperPcm(DiskLruCache.Handle pcm) throws IOException {
+        File pcmFile = pcm.getFile();
+        WavPcmEngine.WavFormat format = WavPcmEngine.readFormat(pcmFile);
+        try (FileChannel channel = FileChannel.open(pcmFile.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, format.getDataOffset(), format.getDataLength() / 2 * 2)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asShortBuffer();
+        }
+    }
+    
+    public DiskLruCache getPcmCache() {
+        return pcmCache;
+    }
+    
+    private static boolean isWhisperPcm(File file) {
+        if (!WavPcmEngine.isWav(file.getName())) {
+            return false;
+        }
+        try {
+            WavPcmEngine.WavFormat format = WavPcmEngine.readFormat(file);
+            return format.getFormatTag() == 1 && format.getSampleRate() == 16000 &&
+                   format.getChannels() == 1 && format.getBitsPerSample() == 16;
+        } catch (IOException e) {
+            System.err.println("Không thể đọc header WAV, giải mã lại bằng FFmpeg: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * Giải mã file âm thanh sang WAV PCM 16 bit, 16 kHz, mono bằng FFmpeg
+     */
+    private void decodeToWhisperPcm(File source, File target) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(FFMPEG_EXE);
+        command.add("-y");
+        command.add("-i");
+        command.add(source.getAbsolutePath());
+        command.add("-vn");
+        command.add("-ac");
+        command.add("1");
+        command.add("-ar");
+        command.add("16000");
+        command.add("-c:a");
+        command.add("pcm_s16le");
+        command.add(target.getAbsolutePath());
+        
+        runFFmpeg(command, "FFmpeg Decode", "giải mã", 0);
+        verifyOutput(target.getPath());
+    }
+    
+    /**
+     * Lấy metadata của file âm thanh. Giá trị đã lưu trong cơ sở dữ liệu được dùng lại khi kích thước
+     * và thời điểm sửa đổi của file chưa thay đổi, ngược lại file được đọc lại và kết quả được lưu.
+     */
+    public AudioMetadata getMetadata(AudioFile audioFile) throws IOException {
+        File file = new File(audioFile.getFilePath());
+        if (!file.exists()) {
+            throw new IOException("Không tìm thấy file âm thanh: " + audioFile.getFilePath());
+        }
+        
+        AudioMetadata metadata = audioFile.getMetadata();
+        if (metadata != null && metadata.isCurrentFor(file)) {
+            return metadata;
+        }
+        
+        metadata = probeMetadata(file);
+        audioFile.setMetadata(metadata);
+        if (audioFile.getId() > 0 && audioFileDAO != null) {
+            audioFileDAO.updateMetadata(audioFile.getId(), metadata);
+        }
+        return metadata;
+    }
+    
+    /**
+     * Đọc metadata của file, ưu tiên đọc trực tiếp từ header và chỉ dùng FFprobe khi không đọc được
+     */
+    public AudioMetadata probeMetadata(File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        AudioMetadata cached = metadataCache.get(absolute.getPath());
+        if (cached != null && cached.isCurrentFor(absolute)) {
+            return cached;
+        }
+        
+        AudioMetadata metadata = metadataProbe.probe(absolute);
+        if (metadata == null) {
+            metadata = probeWithFFprobe(absolute);
+        }
+        metadataCache.put(absolute.getPath(), metadata);
+        return metadata;
+    }
+    
+    /**
+     * Đọc metadata bằng FFprobe cho các định dạng không đọc được header
+     */
+    private AudioMetadata probeWithFFprobe(File file) throws IOException {
+        long fileSize = file.length();
+        long lastModified = file.lastModified();
+        
         List<String> command = new ArrayList<>();
         command.add(FFPROBE_EXE);
         command.add("-v");
         command.add("error");
+        command.add("-select_streams");
+        command.add("a:0");
         command.add("-show_entries");
-        command.add("format=duration");
+        command.add("format=duration:stream=codec_name,sample_rate,channels");
         command.add("-of");
-        command.add("default=noprint_wrappers=1:nokey=1");
-        command.add(filePath);
-        
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        Process process = pb.start();
-        
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line);
-            }
-        }
+        command.add("default=noprint_wrappers=1");
+        command.add(file.getPath());
         
-        try {
-            process.waitFor();
-        } catch (InterruptedException e) {
-            throw new IOException("Quá trình FFprobe bị gián đoạn: " + e.getMessage());
+        List<String> output = runFFmpeg(command, "FFprobe", "đọc metadata", 30).getTail();
+        
+        AudioMetadata metadata = new AudioMetadata();
+        metadata.setFileSize(fileSize);
+        metadata.setLastModified(lastModified);
+        boolean hasDuration = false;
+        for (String line : output) {
+            int separator = line.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String key = line.substring(0, separator).trim();
+            String value = line.substring(separator + 1).trim();
+            try {
+                switch (key) {
+                    case "duration":
+                        metadata.setDurationMs(Math.round(Double.parseDouble(value) * 1000));
+                        hasDuration = true;
+                        break;
+                    case "sample_rate":
+                        metadata.setSampleRate(Integer.parseInt(value));
+                        break;
+                    case "channels":
+                        metadata.setChannels(Integer.parseInt(value));
+                        break;
+                    case "codec_name":
+                        metadata.setCodec(value);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                // FFprobe ghi "N/A" khi không biết giá trị
+            }
         }
         
-        try {
-            float duration = Float.parseFloat(output.toString().trim());
-            return (int) Math.ceil(duration);
-        } catch (NumberFormatException e) {
+        if (!hasDuration) {
             throw new IOException("Không thể phân tích độ dài âm thanh: " + output);
         }
+        return metadata;
+    }
+    
+    /**
+     * Lấy độ dài của file âm thanh theo mili giây
+     */
+    public long getAudioDurationMs(String filePath) throws IOException {
+        return probeMetadata(new File(filePath)).getDurationMs();
+    }
+    
+    /**
+     * Lấy độ dài của file âm thanh theo giây, làm tròn lên
+     */
+    public int getAudioDuration(String filePath) throws IOException {
+        return (int) ((getAudioDurationMs(filePath) + 999) / 1000);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,351 @@
+package com.soundconverter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bộ đệm file trên đĩa, định danh theo nội dung, giới hạn theo tổng số byte và loại bỏ theo LRU.
+ * Mỗi mục được ghi vào file tạm trong cùng thư mục rồi đổi tên nguyên tử thành tên cuối cùng,
+ * nên một lần tắt máy đột ngột chỉ để lại file tạm (bị xóa ở lần khởi động sau), không bao giờ
+ * để lại một mục ghi dở. Mục đang được dùng được giữ bằng Handle (acquire/close) và không bị loại
+ * cho tới khi mọi Handle của nó được đóng.
+ */
+public class DiskLruCache {
+    
+    /**
+     * Tạo nội dung cho một mục bộ đệm vào file đích cho trước
+     */
+    @FunctionalInterface
+    public interface Producer {
+        void produce(File target) throws IOException;
+    }
+    
+    /**
+     * Quyền dùng một file trong bộ đệm: mục không bị loại khi còn Handle chưa đóng.
+     * Đóng Handle (try-with-resources) ngay khi không còn đọc hoặc liên kết tới file
+     */
+    public static final class Handle implements AutoCloseable {
+        private final DiskLruCache cache;
+        private final Entry entry;
+        private final File file;
+        private boolean closed;
+        
+        private Handle(DiskLruCache cache, Entry entry, File file) {
+            this.cache = cache;
+            this.entry = entry;
+            this.file = file;
+        }
+        
+        /**
+         * Handle cho file không thuộc bộ đệm (bộ đệm tắt hoặc file nguồn dùng trực tiếp), close() không làm gì
+         */
+        public static Handle unmanaged(File file) {
+            return new Handle(null, null, file);
+        }
+        
+        public File getFile() {
+            return file;
+        }
+        
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (cache != null) {
+                cache.release(entry);
+            }
+        }
+    }
+    
+    private static final class Entry {
+        final File file;
+        long size;
+        int pins;
+        
+        Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+    
+    private static final String TEMP_MARKER = ".tmp.";
+    
+    private final String name;
+    private final File directory;
+    private final long maxBytes;
+    
+    // Thứ tự truy cập: phần tử đầu là mục ít được dùng gần đây nhất
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+    
+    // Khóa theo key cho các mục đang được tạo, để hai luồng không cùng chạy producer cho một mục
+    private final ConcurrentHashMap<String, ReentrantLock> keyLocks = new ConcurrentHashMap<>();
+    
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    /**
+     * @param name Tên bộ đệm dùng trong log
+     * @param directory Thư mục chứa các mục
+     * @param maxBytes Tổng dung lượng tối đa, 0 hoặc âm = tắt bộ đệm
+     */
+    public DiskLruCache(String name, File directory, long maxBytes) {
+        this.name = name;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (isEnabled()) {
+            load();
+        }
+    }
+    
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+    
+    public File getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Nạp các mục đã có trên đĩa, thứ tự LRU khôi phục theo thời điểm truy cập cuối (lastModified)
+     */
+    private synchronized void load() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            System.err.println("Không thể tạo thư mục bộ đệm " + name + ": " + directory.getAbsolutePath());
+            return;
+        }
+        
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            if (file.getName().contains(TEMP_MARKER)) {
+                // File tạm còn sót lại từ lần ghi bị gián đoạn
+                file.delete();
+                continue;
+            }
+            long size = file.length();
+            entries.put(keyOf(file), new Entry(file, size));
+            totalBytes += size;
+        }
+        evictIfNeeded();
+        
+        System.err.println("Bộ đệm " + name + ": " + entries.size() + " mục, " + totalBytes + " bytes");
+    }
+    
+    /**
+     * Giữ một mục nếu có
+     * @return Handle của mục (người gọi phải đóng), null nếu chưa có
+     */
+    public Handle get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        
+        Handle handle = pin(key);
+        if (handle != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return handle;
+    }
+    
+    /**
+     * Giữ mục nếu có và file của nó còn trên đĩa, không tính vào số liệu hit/miss
+     */
+    private synchronized Handle pin(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.file.exists()) {
+            entry.file.setLastModified(System.currentTimeMillis());
+            entry.pins++;
+            return new Handle(this, entry, entry.file);
+        }
+        // File bị xóa từ bên ngoài: trừ đúng kích thước đã tính khi thêm mục
+        entries.remove(key);
+        totalBytes -= entry.size;
+        return null;
+    }
+    
+    /**
+     * Giữ file của một mục, tạo mới bằng producer nếu chưa có. Các luồng cùng thiếu một khóa chờ nhau:
+     * chỉ một luồng chạy producer, các luồng sau dùng lại mục vừa tạo. File của mục đã có không bao giờ
+     * bị ghi đè, vì có thể đang được đọc hoặc ánh xạ bộ nhớ qua một Handle khác
+     * @param key Khóa của mục (chỉ gồm ký tự hợp lệ cho tên file)
+     * @param extension Phần mở rộng của file (không có dấu chấm)
+     * @param producer Hàm tạo nội dung khi chưa có trong bộ đệm
+     * @return Handle của mục - file không được xóa hoặc di chuyển, người gọi phải đóng Handle sau khi dùng xong
+     */
+    public Handle acquire(String key, String extension, Producer producer) throws IOException {
+        Handle cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        
+        ReentrantLock keyLock = keyLocks.computeIfAbsent(key, k -> new ReentrantLock());
+        keyLock.lock();
+        try {
+            // Luồng khác có thể đã tạo xong mục trong lúc chờ khóa
+            cached = pin(key);
+            if (cached != null) {
+                return cached;
+            }
+            return produce(key, extension, producer);
+        } finally {
+            keyLock.unlock();
+            if (!keyLock.hasQueuedThreads()) {
+                keyLocks.remove(key, keyLock);
+            }
+        }
+    }
+    
+    private Handle produce(String key, String extension, Producer producer) throws IOException {
+        File target = new File(directory, key + "." + extension);
+        File temp = new File(directory, key + TEMP_MARKER + UUID.randomUUID() + "." + extension);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        
+        try {
+            producer.produce(temp);
+            if (!temp.exists() || temp.length() == 0) {
+                throw new IOException("Không tạo được nội dung cho mục bộ đệm " + key);
+            }
+            
+            synchronized (this) {
+                // Mục đã có (khóa theo key bị bỏ qua khi map khóa vừa được dọn): bỏ bản vừa tạo, dùng mục cũ
+                Handle existing = pin(key);
+                if (existing != null) {
+                    return existing;
+                }
+                // Không có mục nào giữ đường dẫn này, file cùng tên nếu còn là file mồ côi
+                try {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                
+                Entry entry = new Entry(target, target.length());
+                entries.put(key, entry);
+                totalBytes += entry.size;
+                // Giữ trước khi loại để mục vừa tạo không bị loại ngay
+                entry.pins++;
+                evictIfNeeded();
+                return new Handle(this, entry, target);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+    
+    private synchronized void release(Entry entry) {
+        entry.pins--;
+        if (entry.pins == 0 && totalBytes > maxBytes) {
+            evictIfNeeded();
+        }
+    }
+    
+    /**
+     * Loại các mục ít dùng nhất cho tới khi về dưới giới hạn. Mục đang được giữ bị bỏ qua; mục không xóa
+     * được file (file đang mở trên Windows) được giữ lại trong bộ đệm và thử lại ở lần loại sau
+     */
+    private void evictIfNeeded() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.pins > 0) {
+                continue;
+            }
+            if (eldest.file.delete() || !eldest.file.exists()) {
+                iterator.remove();
+                totalBytes -= eldest.size;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+    
+    private static String keyOf(File file) {
+        String fileName = file.getName();
+        int dot = fileName.indexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+    
+    /**
+     * Tạo khóa SHA-256 dạng hex từ các thành phần
+     */
+    public static String hashKey(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    public long getHitCount() {
+        return hits.get();
+    }
+    
+    public long getMissCount() {
+        return misses.get();
+    }
+    
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+    
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+    
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    /**
+     * Tóm tắt số liệu của bộ đệm để giám sát
+     */
+    public String getStatsSummary() {
+        return "Bộ đệm " + name + ": hit=" + getHitCount() + ", miss=" + getMissCount() +
+               ", evict=" + getEvictionCount() + ", " + getEntryCount() + " mục, " +
+               getSizeBytes() + "/" + maxBytes + " bytes";
+    }
+}
@@ -0,0 +1,450 @@
+package com.soundconverter.services;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Chạy chương trình ngoài (FFmpeg, FFprobe, Whisper CLI) không chặn luồng gọi.
+ * Output được đọc trên luồng bơm riêng và chỉ giữ lại một số dòng cuối trong bộ đệm vòng
+ * để đưa vào thông báo lỗi. Hỗ trợ hủy (kết thúc cả tiến trình con), giới hạn thời gian
+ * cho từng lần chạy và thống kê thời gian thực/thời gian CPU.
+ */
+public class ExternalProcessRunner {
+
+    private static final long POLL_INTERVAL_MS = 100;
+    // Thời gian tối đa chờ cây tiến trình thoát sau khi bị hủy
+    private static final long DESTROY_WAIT_MS = 5000;
+    private static final int MAX_LINE_LENGTH = 2000;
+    private static final int DEFAULT_TAIL_LINES = AppConfig.getInt("process.tail.lines", 50);
+    private static final boolean ECHO_OUTPUT = AppConfig.getBoolean("process.echo.output", false);
+
+    private static ExternalProcessRunner instance;
+
+    private final ExecutorService threads;
+
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalWallMs = new AtomicLong();
+    private final AtomicLong totalCpuMs = new AtomicLong();
+
+    private ExternalProcessRunner() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        threads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "process-runner-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized ExternalProcessRunner getInstance() {
+        if (instance == null) {
+            instance = new ExternalProcessRunner();
+        }
+        return instance;
+    }
+
+    /**
+     * Mô tả một lần chạy chương trình ngoài
+     */
+    public static final class Request {
+        private final List<String> command;
+        private String logTag = "Process";
+        private File workingDirectory;
+        private long timeoutMillis;
+        private int tailLines = DEFAULT_TAIL_LINES;
+        private Charset charset = StandardCharsets.UTF_8;
+        private Consumer<String> lineListener;
+        private boolean echo = ECHO_OUTPUT;
+
+        public Request(List<String> command) {
+            this.command = new ArrayList<>(command);
+        }
+
+        public Request logTag(String logTag) {
+            this.logTag = logTag;
+            return this;
+        }
+
+        public Request workingDirectory(File workingDirectory) {
+            this.workingDirectory = workingDirectory;
+            return this;
+        }
+
+        /**
+         * Giới hạn thời gian chạy, 0 = không giới hạn
+         */
+        public Request timeout(long amount, TimeUnit unit) {
+            this.timeoutMillis = unit.toMillis(amount);
+            return this;
+        }
+
+        public Request tailLines(int tailLines) {
+            this.tailLines = Math.max(1, tailLines);
+            return this;
+        }
+
+        public Request charset(Charset charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        /**
+         * Nhận từng dòng output trên luồng bơm, ví dụ để theo dõi tiến độ
+         */
+        public Request lineListener(Consumer<String> lineListener) {
+            this.lineListener = lineListener;
+            return this;
+        }
+
+        /**
+         * In từng dòng output ra console (mặc định theo process.echo.output)
+         */
+        public Request echo(boolean echo) {
+            this.echo = echo;
+            return this;
+        }
+
+        public List<String> getCommand() {
+            return Collections.unmodifiableList(command);
+        }
+
+        public String getLogTag() {
+            return logTag;
+        }
+    }
+
+    /**
+     * Kết quả của một lần chạy
+     */
+    public static final class Result {
+        private final int exitCode;
+        private final boolean timedOut;
+        private final List<String> tail;
+        private final long discardedLines;
+        private final long wallMillis;
+        private final long cpuMillis;
+
+        Result(int exitCode, boolean timedOut, List<String> tail, long discardedLines, long wallMillis, long cpuMillis) {
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.tail = tail;
+            this.discardedLines = discardedLines;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        public boolean isSuccess() {
+            return !timedOut && exitCode == 0;
+        }
+
+        /**
+         * Các dòng output cuối cùng được giữ lại
+         */
+        public List<String> getTail() {
+            return tail;
+        }
+
+        public String getTailText() {
+            StringBuilder text = new StringBuilder();
+            if (discardedLines > 0) {
+                text.append("... (").append(discardedLines).append(" dòng trước đó đã bỏ qua)\n");
+            }
+            for (String line : tail) {
+                text.append(line).append('\n');
+            }
+            return text.toString();
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        /**
+         * Thời gian CPU của tiến trình, -1 nếu hệ điều hành không cung cấp
+         */
+        public long getCpuMillis() {
+            return cpuMillis;
+        }
+
+        /**
+         * Ném IOException kèm các dòng output cuối nếu tiến trình không thành công
+         * @param action Tên thao tác dùng trong thông báo lỗi
+         */
+        public Result checkSuccess(String action) throws IOException {
+            if (timedOut) {
+                throw new IOException("Quá trình " + action + " đã hết thời gian chờ:\n" + getTailText());
+            }
+            if (exitCode != 0) {
+                throw new IOException("Quá trình " + action + " thất bại với mã lỗi " + exitCode + ":\n" + getTailText());
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Bộ đệm vòng giữ N dòng cuối cùng
+     */
+    private static final class TailBuffer {
+        private final String[] lines;
+        private int next;
+        private long total;
+
+        TailBuffer(int capacity) {
+            lines = new String[capacity];
+        }
+
+        synchronized void add(String line) {
+            if (line.length() > MAX_LINE_LENGTH) {
+                line = line.substring(0, MAX_LINE_LENGTH) + "...";
+            }
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            total++;
+        }
+
+        synchronized List<String> snapshot() {
+            int count = (int) Math.min(total, lines.length);
+            List<String> result = new ArrayList<>(count);
+            int first = total > lines.length ? next : 0;
+            for (int i = 0; i < count; i++) {
+                result.add(lines[(first + i) % lines.length]);
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        synchronized long discarded() {
+            return Math.max(0, total - lines.length);
+        }
+    }
+
+    /**
+     * Khởi chạy tiến trình và trả về ngay. Hủy future (cancel) sẽ kết thúc tiến trình cùng các tiến trình con;
+     * cancel chỉ trả về khi chúng đã thoát (tối đa DESTROY_WAIT_MS), để người gọi giải phóng tài nguyên
+     * gắn với tiến trình (ví dụ luồng CPU) mà không đếm nhầm tiến trình còn đang chạy.
+     */
+    public CompletableFuture<Result> start(Request request) {
+        CompletableFuture<Result> future = new CompletableFuture<>();
+
+        ProcessBuilder pb = new ProcessBuilder(request.command);
+        pb.redirectErrorStream(true);
+        if (request.workingDirectory != null) {
+            pb.directory(request.workingDirectory);
+        }
+
+        long startNanos = System.nanoTime();
+        Process process;
+        try {
+            process = pb.start();
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        // Hủy từ phía người gọi: kết thúc cả cây tiến trình
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                destroyTreeAndWait(process);
+            }
+        });
+
+        TailBuffer tail = new TailBuffer(request.tailLines);
+        CompletableFuture<Void> pump = CompletableFuture.runAsync(() -> pumpOutput(process, request, tail), threads);
+
+        threads.execute(() -> {
+            long cpuMillis = -1;
+            boolean timedOut = false;
+            try {
+                long deadline = request.timeoutMillis > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(request.timeoutMillis) : 0;
+                while (!process.waitFor(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    // Thời gian CPU chỉ đọc được khi tiến trình còn chạy nên lấy mẫu trong lúc chờ
+                    cpuMillis = sampleCpuMillis(process, cpuMillis);
+                    if (future.isDone()) {
+                        return;
+                    }
+                    if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                        timedOut = true;
+                        destroyTree(process);
+                        process.waitFor(5, TimeUnit.SECONDS);
+                        break;
+                    }
+                }
+                pump.get(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                destroyTree(process);
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            } catch (Exception e) {
+                // Luồng bơm không kết thúc kịp thời (tiến trình con còn giữ pipe), dùng phần output đã đọc
+            }
+
+            long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            int exitCode = process.isAlive() ? -1 : process.exitValue();
+            Result result = new Result(exitCode, timedOut, tail.snapshot(), tail.discarded(), wallMillis, cpuMillis);
+
+            runCount.incrementAndGet();
+            totalWallMs.addAndGet(wallMillis);
+            if (cpuMillis > 0) {
+                totalCpuMs.addAndGet(cpuMillis);
+            }
+            if (!result.isSuccess()) {
+                failureCount.incrementAndGet();
+            }
+            future.complete(result);
+        });
+
+        return future;
+    }
+
+    /**
+     * Chạy tiến trình và chờ kết quả trên luồng hiện tại
+     * @param action Tên thao tác dùng trong thông báo lỗi
+     * @return Kết quả thành công
+     * @throws IOException Nếu không khởi chạy được, hết thời gian, bị gián đoạn hoặc mã thoát khác 0
+     */
+    public Result run(Request request, String action) throws IOException {
+        CompletableFuture<Result> future = start(request);
+        try {
+            Result result = future.get();
+            System.out.println("[" + request.logTag + "] " + action + " xong sau " + result.getWallMillis() + " ms" +
+                    (result.getCpuMillis() >= 0 ? " (CPU " + result.getCpuMillis() + " ms)" : ""));
+            return result.checkSuccess(action);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Quá trình " + action + " bị gián đoạn: " + e.getMessage());
+        } catch (CancellationException e) {
+            throw new IOException("Quá trình " + action + " đã bị hủy");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Không thể chạy " + action + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    private void pumpOutput(Process process, Request request, TailBuffer tail) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), request.charset))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tail.add(line);
+                if (request.echo) {
+                    System.out.println("[" + request.logTag + "] " + line);
+                }
+                if (request.lineListener != null) {
+                    try {
+                        request.lineListener.accept(line);
+                    } catch (RuntimeException e) {
+                        System.err.println("Lỗi khi xử lý output của " + request.logTag + ": " + e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Pipe bị đóng khi tiến trình bị hủy
+        }
+    }
+
+    private static long sampleCpuMillis(Process process, long previous) {
+        try {
+            return process.info().totalCpuDuration().map(Duration::toMillis).orElse(previous);
+        } catch (UnsupportedOperationException e) {
+            return previous;
+        }
+    }
+
+    /**
+     * Kết thúc cả cây tiến trình và chờ chúng thoát. Luồng gọi thường đang bị gián đoạn (hủy job),
+     * nên cờ gián đoạn được tạm gỡ trong lúc chờ rồi đặt lại
+     */
+    private static void destroyTreeAndWait(Process process) {
+        List<ProcessHandle> handles = new ArrayList<>();
+        try {
+            process.descendants().forEach(handles::add);
+        } catch (UnsupportedOperationException e) {
+            // Không liệt kê được tiến trình con, chỉ chờ tiến trình chính
+        }
+        handles.add(process.toHandle());
+        destroyTree(process);
+
+        boolean interrupted = Thread.interrupted();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DESTROY_WAIT_MS);
+            for (ProcessHandle handle : handles) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    handle.onExit().get(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (Exception e) {
+                    // Hết thời gian chờ hoặc không theo dõi được tiến trình, bỏ qua
+                }
+            }
+            if (process.isAlive()) {
+                System.err.println("Tiến trình " + process.pid() + " chưa thoát sau " + DESTROY_WAIT_MS + " ms kể từ khi bị hủy");
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void destroyTree(Process process) {
+        try {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+        } catch (UnsupportedOperationException e) {
+            // Không liệt kê được tiến trình con, chỉ kết thúc tiến trình chính
+        }
+        process.destroyForcibly();
+    }
+
+    public long getRunCount() {
+        return runCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    public long getTotalWallMillis() {
+        return totalWallMs.get();
+    }
+
+    public long getTotalCpuMillis() {
+        return totalCpuMs.get();
+    }
+
+    public String getStatsSummary() {
+        return "Tiến trình ngoài: " + runCount.get() + " lần chạy, " + failureCount.get() + " lỗi, " +
+               totalWallMs.get() + " ms thời gian thực, " + totalCpuMs.get() + " ms CPU";
+    }
+}
@@ -0,0 +1,534 @@
+package com.soundconverter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.soundconverter.models.AudioMetadata;
+
+/**
+ * Cắt và nối file MP3 theo ranh giới frame hoàn toàn bằng Java.
+ * Header của từng frame được quét một lần để lập chỉ mục vị trí byte, sau đó mỗi khoảng
+ * mili giây được ánh xạ sang khoảng byte và sao chép bằng FileChannel.transferTo mà không
+ * cần giải mã hay chạy FFmpeg.
+ */
+public class Mp3FrameCutter {
+
+    // Bảng bitrate (kbps) theo [phiên bản MPEG-1 / MPEG-2,2.5][layer I, II, III][chỉ số]
+    private static final int[][][] BITRATES = {
+        {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448, -1},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, -1},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, -1}
+        },
+        {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256, -1},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, -1},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, -1}
+        }
+    };
+
+    // Tần số lấy mẫu theo [MPEG-1, MPEG-2, MPEG-2.5][chỉ số]
+    private static final int[][] SAMPLE_RATES = {
+        {44100, 48000, 32000},
+        {22050, 24000, 16000},
+        {11025, 12000, 8000}
+    };
+
+    private static final int INDEX_CACHE_SIZE = 32;
+
+    /**
+     * Thông tin header của một frame MP3
+     */
+    public static final class FrameHeader {
+        final int version;      // 1 = MPEG-1, 2 = MPEG-2, 25 = MPEG-2.5
+        final int layer;        // 1, 2, 3
+        final int bitrate;      // kbps
+        final int sampleRate;
+        final int channels;
+        final int frameLength;
+        final int samplesPerFrame;
+
+        FrameHeader(int version, int layer, int bitrate, int sampleRate, int channels, int frameLength, int samplesPerFrame) {
+            this.version = version;
+            this.layer = layer;
+            this.bitrate = bitrate;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.frameLength = frameLength;
+            this.samplesPerFrame = samplesPerFrame;
+        }
+    }
+
+    /**
+     * Chỉ mục frame của một file MP3
+     */
+    public static final class FrameIndex {
+        private final long[] offsets;     // vị trí byte của từng frame âm thanh
+        private final int frameCount;
+        private final long audioEnd;      // vị trí byte ngay sau frame cuối
+        private final int sampleRate;
+        private final int channels;
+        private final int samplesPerFrame;
+        private final int version;
+        private final int layer;
+        private final int declaredFrames; // số frame khai báo trong Xing/VBRI, -1 nếu không có
+        private final boolean vbr;
+
+        FrameIndex(long[] offsets, int frameCount, long audioEnd, FrameHeader first, int declaredFrames, boolean vbr) {
+            this.offsets = offsets;
+            this.frameCount = frameCount;
+            this.audioEnd = audioEnd;
+            this.sampleRate = first.sampleRate;
+            this.channels = first.channels;
+            this.samplesPerFrame = first.samplesPerFrame;
+            this.version = first.version;
+            this.layer = first.layer;
+            this.declaredFrames = declaredFrames;
+            this.vbr = vbr;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getDeclaredFrames() {
+            return declaredFrames;
+        }
+
+        public boolean isVbr() {
+            return vbr;
+        }
+
+        public long getDurationMs() {
+            return (long) frameCount * samplesPerFrame * 1000L / sampleRate;
+        }
+
+        /**
+         * Hai file có thể nối trực tiếp theo frame khi cùng phiên bản, layer, tần số và số kênh
+         */
+        boolean isCompatibleWith(FrameIndex other) {
+            return version == other.version && layer == other.layer &&
+                   sampleRate == other.sampleRate && channels == other.channels;
+        }
+
+        /**
+         * Ánh xạ khoảng mili giây sang khoảng byte nằm trên ranh giới frame
+         * @return Mảng {vị trí bắt đầu, vị trí kết thúc} (kết thúc không bao gồm)
+         */
+        long[] byteRange(int startMs, int endMs) {
+            long samplesPerSecond = sampleRate;
+            int startFrame = (int) Math.min(frameCount, (startMs * samplesPerSecond) / (1000L * samplesPerFrame));
+            int endFrame = (int) Math.min(frameCount,
+                    (endMs * samplesPerSecond + 1000L * samplesPerFrame - 1) / (1000L * samplesPerFrame));
+            long start = startFrame < frameCount ? offsets[startFrame] : audioEnd;
+            long end = endFrame < frameCount ? offsets[endFrame] : audioEnd;
+            return new long[] {start, end};
+        }
+    }
+
+    // Chỉ mục của các file dùng gần đây, khóa = đường dẫn + kích thước + thời điểm sửa đổi
+    private final Map<String, FrameIndex> indexCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FrameIndex> eldest) {
+            return size() > INDEX_CACHE_SIZE;
+        }
+    };
+
+    public static boolean isMp3(String path) {
+        return path != null && path.toLowerCase(Locale.ROOT).endsWith(".mp3");
+    }
+
+    /**
+     * Lấy chỉ mục frame của một file, dùng lại chỉ mục đã lập nếu file không thay đổi
+     */
+    public FrameIndex index(File file) throws IOException {
+        File source = file.getAbsoluteFile();
+        String key = source.getPath() + "|" + source.length() + "|" + source.lastModified();
+        synchronized (indexCache) {
+            FrameIndex cached = indexCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        FrameIndex index = buildIndex(source);
+        synchronized (indexCache) {
+            indexCache.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Cắt một khoảng thời gian của file MP3 vào file đích
+     * @param source File MP3 nguồn
+     * @param startMs Thời gian bắt đầu (mili giây)
+     * @param endMs Thời gian kết thúc (mili giây)
+     * @param target File đích
+     */
+    public void cut(File source, int startMs, int endMs, File target) throws IOException {
+        long[] range = index(source).byteRange(startMs, endMs);
+        if (range[1] <= range[0]) {
+            throw new IOException("Khoảng thời gian không chứa frame nào: " + startMs + "-" + endMs + " ms");
+        }
+
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            transferFully(in, range[0], range[1] - range[0], out);
+        }
+    }
+
+    /**
+     * Một khoảng cần nối: file nguồn và khoảng mili giây
+     */
+    public static final class Slice {
+        final File source;
+        final int startMs;
+        final int endMs;
+
+        public Slice(File source, int startMs, int endMs) {
+            this.source = source;
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+    }
+
+    /**
+     * Kiểm tra các file nguồn có thể nối trực tiếp theo frame hay không
+     */
+    public boolean canConcat(List<Slice> slices) {
+        FrameIndex first = null;
+        try {
+            for (Slice slice : slices) {
+                FrameIndex index = index(slice.source);
+                if (first == null) {
+                    first = index;
+                } else if (!first.isCompatibleWith(index)) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Không thể lập chỉ mục MP3: " + e.getMessage());
+            return false;
+        }
+        return first != null;
+    }
+
+    /**
+     * Nối nhiều khoảng của các file MP3 vào một file đích
+     */
+    public void concat(List<Slice> slices, File target) throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            File openFile = null;
+            FileChannel in = null;
+            try {
+                for (Slice slice : slices) {
+                    long[] range = index(slice.source).byteRange(slice.startMs, slice.endMs);
+                    if (range[1] <= range[0]) {
+                        continue;
+                    }
+                    // Các đoạn liên tiếp thường dùng chung nguồn nên giữ kênh đang mở
+                    if (!slice.source.equals(openFile)) {
+                        if (in != null) {
+                            in.close();
+                        }
+                        in = FileChannel.open(slice.source.toPath(), StandardOpenOption.READ);
+                        openFile = slice.source;
+                    }
+                    transferFully(in, range[0], range[1] - range[0], out);
+                }
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Không thể sao chép dữ liệu MP3 tại vị trí " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * Quét toàn bộ header frame của file để lập chỉ mục
+     */
+    private FrameIndex buildIndex(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File MP3 quá lớn để lập chỉ mục: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            int limit = (int) size;
+
+            Leading leading = readLeading(buffer, limit, file);
+            FrameHeader first = leading.first;
+            int declaredFrames = leading.declaredFrames;
+            boolean vbr = leading.vbr;
+            int position = leading.audioStart;
+
+            long[] offsets = new long[declaredFrames > 0 ? declaredFrames + 1 : Math.max(16, limit / 400)];
+            int count = 0;
+            int end = position;
+            int lastBitrate = -1;
+
+            while (position + 4 <= limit) {
+                FrameHeader header = parseHeader(buffer.getInt(position));
+                if (header == null || header.sampleRate != first.sampleRate || position + header.frameLength > limit) {
+                    // Dừng ở tag ID3v1/APE cuối file, ngược lại dò lại điểm đồng bộ
+                    if (matches(buffer, position, limit, "TAG") || matches(buffer, position, limit, "APETAGEX")) {
+                        break;
+                    }
+                    int next = findFrame(buffer, position + 1, limit);
+                    if (next < 0) {
+                        break;
+                    }
+                    position = next;
+                    continue;
+                }
+
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = position;
+                if (lastBitrate >= 0 && lastBitrate != header.bitrate) {
+                    vbr = true;
+                }
+                lastBitrate = header.bitrate;
+                position += header.frameLength;
+                end = position;
+            }
+
+            if (count == 0) {
+                throw new IOException("File MP3 không có frame âm thanh: " + file);
+            }
+
+            return new FrameIndex(offsets, count, end, first, declaredFrames, vbr);
+        }
+    }
+
+    /**
+     * Thông tin phần đầu file: frame đầu tiên và header Xing/VBRI nếu có
+     */
+    private static final class Leading {
+        FrameHeader first;
+        int audioStart;          // vị trí frame âm thanh đầu tiên (sau frame Xing/VBRI)
+        int declaredFrames = -1;
+        boolean vbr;
+    }
+
+    private static Leading readLeading(MappedByteBuffer buffer, int limit, File file) throws IOException {
+        int position = skipId3v2(buffer, limit);
+        position = findFrame(buffer, position, limit);
+        if (position < 0) {
+            throw new IOException("Không tìm thấy frame MP3 hợp lệ: " + file);
+        }
+
+        Leading leading = new Leading();
+        leading.first = parseHeader(buffer.getInt(position));
+        leading.audioStart = position;
+
+        // Frame đầu có thể là frame thông tin Xing/Info/VBRI, không chứa âm thanh
+        int xingOffset = position + 4 + sideInfoLength(leading.first);
+        int vbriOffset = position + 4 + 32;
+        if (matches(buffer, xingOffset, limit, "Xing") || matches(buffer, xingOffset, limit, "Info")) {
+            leading.vbr = matches(buffer, xingOffset, limit, "Xing");
+            int flags = xingOffset + 8 <= limit ? buffer.getInt(xingOffset + 4) : 0;
+            if ((flags & 0x1) != 0 && xingOffset + 12 <= limit) {
+                leading.declaredFrames = buffer.getInt(xingOffset + 8);
+            }
+            leading.audioStart += leading.first.frameLength;
+        } else if (matches(buffer, vbriOffset, limit, "VBRI")) {
+            leading.vbr = true;
+            if (vbriOffset + 18 <= limit) {
+                leading.declaredFrames = buffer.getInt(vbriOffset + 14);
+            }
+            leading.audioStart += leading.first.frameLength;
+        }
+        return leading;
+    }
+
+    /**
+     * Đọc nhanh thông tin của file MP3 mà không lập chỉ mục khi có thể:
+     * dùng số frame trong header Xing/VBRI, file CBR được tính theo kích thước,
+     * chỉ quét toàn bộ frame khi là VBR không có header
+     */
+    public AudioMetadata probe(File file) throws IOException {
+        File source = file.getAbsoluteFile();
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            int limit = buffer.limit();
+
+            Leading leading = readLeading(buffer, limit, source);
+            FrameHeader first = leading.first;
+            long durationMs = -1;
+
+            if (leading.declaredFrames > 0) {
+                durationMs = (long) leading.declaredFrames * first.samplesPerFrame * 1000L / first.sampleRate;
+            } else {
+                // Kiểm tra vài frame đầu: nếu cùng bitrate thì coi là CBR và tính theo kích thước
+                boolean constant = true;
+                int position = leading.audioStart;
+                for (int i = 0; i < 32 && position + 4 <= limit; i++) {
+                    FrameHeader header = parseHeader(buffer.getInt(position));
+                    if (header == null) {
+                        break;
+                    }
+                    if (header.bitrate != first.bitrate) {
+                        constant = false;
+                        break;
+                    }
+                    position += header.frameLength;
+                }
+                if (constant) {
+                    long audioBytes = size - leading.audioStart;
+                    if (size >= 128 && matches(buffer, (int) Math.min(limit, size - 128), limit, "TAG")) {
+                        audioBytes -= 128;
+                    }
+                    durationMs = audioBytes * 8L / first.bitrate;
+                }
+            }
+
+            if (durationMs < 0) {
+                durationMs = index(source).getDurationMs();
+            }
+
+            String codec = first.layer == 3 ? "mp3" : first.layer == 2 ? "mp2" : "mp1";
+            return new AudioMetadata(source.length(), source.lastModified(), durationMs,
+                    first.sampleRate, first.channels, codec);
+        }
+    }
+
+    /**
+     * Đọc header 4 byte của một frame
+     * @return Thông tin frame, null nếu không phải header hợp lệ
+     */
+    public static FrameHeader parseHeader(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return null;
+        }
+        int versionBits = (header >>> 19) & 0x3;
+        int layerBits = (header >>> 17) & 0x3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 0x3;
+        int padding = (header >>> 9) & 0x1;
+        int channelMode = (header >>> 6) & 0x3;
+
+        if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return null;
+        }
+
+        int version = versionBits == 3 ? 1 : versionBits == 2 ? 2 : 25;
+        int layer = 4 - layerBits;
+        int bitrate = BITRATES[version == 1 ? 0 : 1][layer - 1][bitrateIndex];
+        int sampleRate = SAMPLE_RATES[version == 1 ? 0 : version == 2 ? 1 : 2][sampleRateIndex];
+
+        int samplesPerFrame;
+        int frameLength;
+        if (layer == 1) {
+            samplesPerFrame = 384;
+            frameLength = (12 * bitrate * 1000 / sampleRate + padding) * 4;
+        } else if (layer == 2 || version == 1) {
+            samplesPerFrame = 1152;
+            frameLength = 144 * bitrate * 1000 / sampleRate + padding;
+        } else {
+            samplesPerFrame = 576;
+            frameLength = 72 * bitrate * 1000 / sampleRate + padding;
+        }
+
+        if (frameLength < 4) {
+            return null;
+        }
+        return new FrameHeader(version, layer, bitrate, sampleRate, channelMode == 3 ? 1 : 2, frameLength, samplesPerFrame);
+    }
+
+    /**
+     * Độ dài side information của Layer III, nơi bắt đầu header Xing/Info
+     */
+    private static int sideInfoLength(FrameHeader header) {
+        if (header.version == 1) {
+            return header.channels == 1 ? 17 : 32;
+        }
+        return header.channels == 1 ? 9 : 17;
+    }
+
+    /**
+     * Bỏ qua tag ID3v2 ở đầu file nếu có
+     */
+    private static int skipId3v2(MappedByteBuffer buffer, int limit) {
+        int position = 0;
+        while (matches(buffer, position, limit, "ID3") && position + 10 <= limit) {
+            int flags = buffer.get(position + 5) & 0xFF;
+            int size = ((buffer.get(position + 6) & 0x7F) << 21) |
+                       ((buffer.get(position + 7) & 0x7F) << 14) |
+                       ((buffer.get(position + 8) & 0x7F) << 7) |
+                       (buffer.get(position + 9) & 0x7F);
+            position += 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+        }
+        return Math.min(position, limit);
+    }
+
+    /**
+     * Tìm frame hợp lệ đầu tiên từ vị trí cho trước, yêu cầu frame kế tiếp cũng hợp lệ để tránh nhận nhầm
+     */
+    private static int findFrame(MappedByteBuffer buffer, int from, int limit) {
+        for (int position = from; position + 4 <= limit; position++) {
+            if ((buffer.get(position) & 0xFF) != 0xFF) {
+                continue;
+            }
+            FrameHeader header = parseHeader(buffer.getInt(position));
+            if (header == null) {
+                continue;
+            }
+            int next = position + header.frameLength;
+            if (next + 4 > limit) {
+                return next <= limit ? position : -1;
+            }
+            FrameHeader nextHeader = parseHeader(buffer.getInt(next));
+            if (nextHeader != null && nextHeader.sampleRate == header.sampleRate) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(MappedByteBuffer buffer, int position, int limit, String marker) {
+        if (position < 0 || position + marker.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < marker.length(); i++) {
+            if (buffer.get(position + i) != (byte) marker.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
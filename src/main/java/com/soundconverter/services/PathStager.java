@@ -0,0 +1,171 @@
+package com.soundconverter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cung cấp đường dẫn chỉ gồm ký tự ASCII cho file có tên Unicode (tên file tiếng Việt), dành cho các công cụ
+ * dòng lệnh không mở được đường dẫn Unicode. Ưu tiên hard link (cùng ổ đĩa), sau đó symbolic link,
+ * chỉ sao chép khi không tạo được liên kết. Mỗi file nguồn chỉ có một đường dẫn được chuẩn bị, dùng lại cho
+ * các lần chạy sau cho tới khi file nguồn thay đổi (kích thước hoặc thời điểm sửa đổi).
+ */
+public class PathStager {
+    
+    /**
+     * Cách đường dẫn được chuẩn bị
+     */
+    public enum Kind {
+        ORIGINAL, HARD_LINK, SYMLINK, COPY
+    }
+    
+    private static final class Staged {
+        final String key;
+        final File file;
+        final Kind kind;
+        
+        Staged(String key, File file, Kind kind) {
+            this.key = key;
+            this.file = file;
+            this.kind = kind;
+        }
+    }
+    
+    private static PathStager instance;
+    
+    private final File directory;
+    // Đường dẫn tuyệt đối của file nguồn -> đường dẫn đã chuẩn bị
+    private final Map<String, Staged> staged = new HashMap<>();
+    
+    private PathStager(File directory) {
+        this.directory = directory.toPath().toAbsolutePath().normalize().toFile();
+        clearDirectory();
+    }
+    
+    public static synchronized PathStager getInstance() {
+        if (instance == null) {
+            instance = new PathStager(new File(AppConfig.getString("path.stage.dir", "./temp/staged")));
+        }
+        return instance;
+    }
+    
+    /**
+     * Kiểm tra đường dẫn có chứa ký tự ngoài ASCII hay không
+     */
+    public static boolean needsStaging(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) > 0x7F) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Lấy đường dẫn ASCII cho file nguồn. File có đường dẫn ASCII được trả về nguyên trạng.
+     * File trả về thuộc PathStager - người gọi không được xóa hay ghi vào nó.
+     */
+    public File stage(File source) throws IOException {
+        File absolute = source.getAbsoluteFile();
+        if (!needsStaging(absolute.getPath())) {
+            return absolute;
+        }
+        if (!absolute.isFile()) {
+            throw new IOException("File không tồn tại: " + absolute.getPath());
+        }
+        
+        String key = DiskLruCache.hashKey(absolute.getPath(), absolute.length(), absolute.lastModified());
+        synchronized (this) {
+            Staged existing = staged.get(absolute.getPath());
+            if (existing != null) {
+                if (existing.key.equals(key) && isValid(existing, absolute)) {
+                    return existing.file;
+                }
+                // File nguồn đã thay đổi hoặc đường dẫn cũ bị xóa từ bên ngoài
+                existing.file.delete();
+                staged.remove(absolute.getPath());
+            }
+            
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Không thể tạo thư mục: " + directory.getPath());
+            }
+            File target = new File(directory, key.substring(0, 32) + getExtension(absolute.getName()));
+            Files.deleteIfExists(target.toPath());
+            
+            Kind kind = link(absolute.toPath(), target.toPath());
+            staged.put(absolute.getPath(), new Staged(key, target, kind));
+            System.err.println("Đã chuẩn bị đường dẫn ASCII (" + kind + "): " + target.getPath());
+            return target;
+        }
+    }
+    
+    /**
+     * Cách một file nguồn đang được chuẩn bị, ORIGINAL nếu không cần
+     */
+    public synchronized Kind getKind(File source) {
+        Staged existing = staged.get(source.getAbsoluteFile().getPath());
+        return existing != null ? existing.kind : Kind.ORIGINAL;
+    }
+    
+    private static Kind link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return Kind.HARD_LINK;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Khác ổ đĩa hoặc hệ thống file không hỗ trợ hard link
+        }
+        try {
+            Files.createSymbolicLink(target, source);
+            return Kind.SYMLINK;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Windows cần quyền tạo symbolic link (Developer Mode hoặc quyền quản trị)
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        return Kind.COPY;
+    }
+    
+    private static boolean isValid(Staged entry, File source) {
+        Path path = entry.file.toPath();
+        try {
+            switch (entry.kind) {
+                case HARD_LINK:
+                    return Files.exists(path) && Files.isSameFile(path, source.toPath());
+                case SYMLINK:
+                    return Files.isSymbolicLink(path) && Files.readSymbolicLink(path).equals(source.toPath());
+                default:
+                    return entry.file.isFile() && entry.file.length() == source.length();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Xóa các đường dẫn còn sót lại từ lần chạy trước (liên kết không tốn dung lượng, bản sao thì có)
+     */
+    private void clearDirectory() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                System.err.println("Không thể xóa file tạm: " + file.getName());
+            }
+        }
+    }
+    
+    private static String getExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1 || needsStaging(fileName.substring(dot))) {
+            return "";
+        }
+        return fileName.substring(dot);
+    }
+}
@@ -0,0 +1,132 @@
+package com.soundconverter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trích xuất nhiều đoạn âm thanh song song trên một nhóm luồng có giới hạn.
+ * Đoạn thứ i luôn được ghi vào file %03d trong thư mục đích nên thứ tự nối không phụ thuộc
+ * vào thứ tự hoàn thành. Khi một đoạn lỗi, các đoạn còn lại bị hủy ngay.
+ */
+public class SegmentExtractionEngine {
+    
+    /**
+     * Công việc trích xuất một đoạn vào file đích cho trước
+     */
+    @FunctionalInterface
+    public interface SegmentTask {
+        void extractTo(File target) throws IOException;
+    }
+    
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    
+    private ThreadPoolExecutor executor;
+    private int parallelism;
+    
+    /**
+     * @param parallelism Số đoạn được trích xuất cùng lúc, 0 hoặc âm = số nhân CPU
+     */
+    public SegmentExtractionEngine(int parallelism) {
+        setParallelism(parallelism);
+    }
+    
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Thay đổi mức song song. Các công việc đang chạy vẫn hoàn tất trên nhóm luồng cũ.
+     * @param parallelism Số đoạn được trích xuất cùng lúc, 0 hoặc âm = số nhân CPU
+     */
+    public synchronized void setParallelism(int parallelism) {
+        int resolved = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        if (executor != null && resolved == this.parallelism) {
+            return;
+        }
+        
+        ThreadPoolExecutor old = executor;
+        executor = new ThreadPoolExecutor(resolved, resolved, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "segment-extract-" + THREAD_COUNTER.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.parallelism = resolved;
+        
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+    
+    /**
+     * Trích xuất tất cả các đoạn vào thư mục đích
+     * @param tasks Danh sách công việc theo đúng thứ tự trộn
+     * @param targetDir Thư mục chứa các file đoạn
+     * @param extension Phần mở rộng của file đoạn (không có dấu chấm)
+     * @return Danh sách file đoạn theo đúng thứ tự của tasks
+     */
+    public List<File> extractAll(List<SegmentTask> tasks, File targetDir, String extension) throws IOException {
+        List<File> targets = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            targets.add(new File(targetDir, String.format("%03d.%s", i, extension)));
+        }
+        
+        ThreadPoolExecutor pool;
+        synchronized (this) {
+            pool = executor;
+        }
+        
+        ExecutorCompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        List<Future<Integer>> futures = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            final int index = i;
+            final SegmentTask task = tasks.get(i);
+            futures.add(completion.submit(() -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+                task.extractTo(targets.get(index));
+                return index;
+            }));
+        }
+        
+        try {
+            for (int done = 0; done < futures.size(); done++) {
+                Future<Integer> future = completion.take();
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    cancelAll(futures);
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Lỗi khi trích xuất đoạn: " + cause.getMessage(), cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            throw new IOException("Quá trình trích xuất song song bị gián đoạn");
+        }
+        
+        return targets;
+    }
+    
+    private void cancelAll(List<Future<Integer>> futures) {
+        for (Future<Integer> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
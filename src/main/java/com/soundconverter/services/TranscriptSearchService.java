@@ -0,0 +1,138 @@
+package com.soundconverter.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.soundconverter.dao.TranscriptSearchDAO;
+import com.soundconverter.models.SegmentSearchHit;
+
+/**
+ * Tìm kiếm nội dung phiên âm trên toàn bộ thư viện qua chỉ mục toàn văn của audio_segments.
+ * Chỉ mục do InnoDB cập nhật khi các phân đoạn được lưu hoặc sửa, nên kết quả luôn theo dữ liệu đã commit.
+ * Từ khóa người dùng nhập được chuyển thành truy vấn BOOLEAN MODE: mọi từ và cụm từ trong ngoặc kép
+ * đều phải có mặt; kết quả được chia trang theo điểm liên quan.
+ */
+public class TranscriptSearchService {
+    
+    // Bộ phân tách ngram bỏ qua các từ ngắn hơn ngram_token_size (mặc định 2)
+    private static final int MIN_TERM_LENGTH = 2;
+    
+    /**
+     * Một trang kết quả tìm kiếm
+     */
+    public static class SearchPage {
+        private final List<SegmentSearchHit> hits;
+        private final int offset;
+        private final boolean hasMore;
+        private final long elapsedMs;
+        
+        SearchPage(List<SegmentSearchHit> hits, int offset, boolean hasMore, long elapsedMs) {
+            this.hits = hits;
+            this.offset = offset;
+            this.hasMore = hasMore;
+            this.elapsedMs = elapsedMs;
+        }
+        
+        public List<SegmentSearchHit> getHits() {
+            return hits;
+        }
+        
+        public int getOffset() {
+            return offset;
+        }
+        
+        public boolean hasMore() {
+            return hasMore;
+        }
+        
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+    }
+    
+    private static TranscriptSearchService instance;
+    
+    private final TranscriptSearchDAO searchDAO;
+    private final int pageSize;
+    private final long slowQueryMs;
+    
+    private TranscriptSearchService() {
+        searchDAO = new TranscriptSearchDAO();
+        pageSize = Math.max(1, AppConfig.getInt("search.page.size", 50));
+        slowQueryMs = AppConfig.getLong("search.slow.query.ms", 50);
+    }
+    
+    public static synchronized TranscriptSearchService getInstance() {
+        if (instance == null) {
+            instance = new TranscriptSearchService();
+        }
+        return instance;
+    }
+    
+    public int getPageSize() {
+        return pageSize;
+    }
+    
+    /**
+     * Tìm các phân đoạn chứa tất cả từ khóa
+     * @param query Từ khóa người dùng nhập; cụm từ đặt trong ngoặc kép được tìm nguyên cụm
+     * @param offset Vị trí bắt đầu của trang (bội số của kích thước trang)
+     * @return Trang kết quả, rỗng nếu truy vấn không có từ khóa hợp lệ
+     */
+    public SearchPage search(String query, int offset) {
+        String booleanQuery = toBooleanQuery(query);
+        if (booleanQuery.isEmpty()) {
+            return new SearchPage(Collections.emptyList(), 0, false, 0);
+        }
+        
+        long started = System.currentTimeMillis();
+        // Lấy thêm một dòng để biết còn trang sau mà không phải đếm toàn bộ kết quả
+        List<SegmentSearchHit> hits = searchDAO.search(booleanQuery, Math.max(0, offset), pageSize + 1);
+        long elapsed = System.currentTimeMillis() - started;
+        
+        if (elapsed > slowQueryMs) {
+            System.err.println("Tìm kiếm \"" + query + "\" mất " + elapsed + " ms (ngưỡng " + slowQueryMs + " ms)");
+        }
+        
+        boolean hasMore = hits.size() > pageSize;
+        if (hasMore) {
+            hits = hits.subList(0, pageSize);
+        }
+        return new SearchPage(hits, Math.max(0, offset), hasMore, elapsed);
+    }
+    
+    /**
+     * Chuyển từ khóa thành truy vấn BOOLEAN MODE: mỗi từ và mỗi cụm trong ngoặc kép thành một điều kiện bắt buộc (+).
+     * Các ký tự toán tử của BOOLEAN MODE trong từ khóa bị bỏ để người dùng không vô tình tạo truy vấn lỗi
+     */
+    static String toBooleanQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        
+        List<String> terms = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            // Phần có chỉ số lẻ nằm trong ngoặc kép
+            boolean phrase = i % 2 == 1 && i < parts.length - 1;
+            if (phrase) {
+                String cleaned = clean(parts[i]).trim().replaceAll("\\s+", " ");
+                if (cleaned.codePointCount(0, cleaned.length()) >= MIN_TERM_LENGTH) {
+                    terms.add("+\"" + cleaned + "\"");
+                }
+            } else {
+                for (String word : clean(parts[i]).trim().split("\\s+")) {
+                    if (word.codePointCount(0, word.length()) >= MIN_TERM_LENGTH) {
+                        terms.add("+" + word);
+                    }
+                }
+            }
+        }
+        return String.join(" ", terms);
+    }
+    
+    private static String clean(String text) {
+        return text.replaceAll("[+\\-<>()~*@\"]", " ");
+    }
+}
@@ -0,0 +1,341 @@
+package com.soundconverter.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cắt và nối file WAV (PCM) hoàn toàn bằng Java.
+ * Vùng dữ liệu của file nguồn được ánh xạ bộ nhớ, vị trí cắt được tính chính xác đến từng mẫu
+ * từ thời gian mili giây, các khoảng được ghi một lần bằng FileChannel gather write rồi
+ * header RIFF được vá lại với kích thước thực.
+ */
+public class WavPcmEngine {
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_IEEE_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    // Kích thước tối đa của một vùng ánh xạ bộ nhớ (FileChannel.map giới hạn ở Integer.MAX_VALUE)
+    private static final long MAX_MAP_BYTES = 1L << 30;
+
+    /**
+     * Thông tin định dạng và vị trí dữ liệu của một file WAV
+     */
+    public static final class WavFormat {
+        private final int formatTag;
+        private final int channels;
+        private final int sampleRate;
+        private final int bitsPerSample;
+        private final int blockAlign;
+        private final byte[] fmtChunk;     // nội dung chunk fmt gốc để sao chép sang file output
+        private final long dataOffset;
+        private final long dataLength;
+
+        WavFormat(int formatTag, int channels, int sampleRate, int bitsPerSample, int blockAlign,
+                  byte[] fmtChunk, long dataOffset, long dataLength) {
+            this.formatTag = formatTag;
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+            this.bitsPerSample = bitsPerSample;
+            this.blockAlign = blockAlign;
+            this.fmtChunk = fmtChunk;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        public int getFormatTag() {
+            return formatTag;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getBitsPerSample() {
+            return bitsPerSample;
+        }
+
+        public int getBlockAlign() {
+            return blockAlign;
+        }
+
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public long getDataLength() {
+            return dataLength;
+        }
+
+        public long getDurationMs() {
+            return dataLength / blockAlign * 1000L / sampleRate;
+        }
+
+        public boolean isPcm() {
+            return formatTag == FORMAT_PCM || formatTag == FORMAT_IEEE_FLOAT || formatTag == FORMAT_EXTENSIBLE;
+        }
+
+        /**
+         * Hai file có thể nối trực tiếp khi cùng kiểu mẫu, số kênh, tần số và độ sâu bit
+         */
+        public boolean matches(WavFormat other) {
+            return formatTag == other.formatTag && channels == other.channels &&
+                   sampleRate == other.sampleRate && bitsPerSample == other.bitsPerSample &&
+                   blockAlign == other.blockAlign;
+        }
+
+        /**
+         * Đổi thời gian mili giây sang vị trí byte trong vùng dữ liệu, làm tròn tới mẫu gần nhất
+         */
+        long byteOffset(int ms) {
+            long frame = ((long) ms * sampleRate + 500) / 1000;
+            return Math.min(frame * blockAlign, dataLength / blockAlign * blockAlign);
+        }
+    }
+
+    /**
+     * Một khoảng cần nối: file nguồn và khoảng mili giây
+     */
+    public static final class Slice {
+        final File source;
+        final int startMs;
+        final int endMs;
+
+        public Slice(File source, int startMs, int endMs) {
+            this.source = source;
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+    }
+
+    public static boolean isWav(String path) {
+        return path != null && path.toLowerCase(Locale.ROOT).endsWith(".wav");
+    }
+
+    /**
+     * Đọc header RIFF/WAVE của file
+     */
+    public static WavFormat readFormat(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readFormat(channel, file);
+        }
+    }
+
+    private static WavFormat readFormat(FileChannel channel, File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE")) {
+            throw new IOException("Không phải file RIFF/WAVE: " + file);
+        }
+
+        long size = channel.size();
+        long position = 12;
+        byte[] fmt = null;
+        ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (position + 8 <= size) {
+            chunkHeader.clear();
+            readFully(channel, chunkHeader, position);
+            int id = chunkHeader.getInt(0);
+            long chunkSize = chunkHeader.getInt(4) & 0xFFFFFFFFL;
+            long body = position + 8;
+
+            if (id == fourCC("fmt ")) {
+                if (chunkSize < 16 || chunkSize > 1024) {
+                    throw new IOException("Chunk fmt không hợp lệ: " + file);
+                }
+                ByteBuffer fmtBuffer = ByteBuffer.allocate((int) chunkSize);
+                readFully(channel, fmtBuffer, body);
+                fmt = fmtBuffer.array();
+            } else if (id == fourCC("data")) {
+                if (fmt == null) {
+                    throw new IOException("Chunk data nằm trước chunk fmt: " + file);
+                }
+                // Một số chương trình ghi kích thước 0 hoặc 0xFFFFFFFF khi ghi dạng luồng
+                long dataLength = chunkSize == 0 || chunkSize == 0xFFFFFFFFL || body + chunkSize > size
+                        ? size - body : chunkSize;
+                ByteBuffer f = ByteBuffer.wrap(fmt).order(ByteOrder.LITTLE_ENDIAN);
+                int formatTag = f.getShort(0) & 0xFFFF;
+                int channels = f.getShort(2) & 0xFFFF;
+                int sampleRate = f.getInt(4);
+                int blockAlign = f.getShort(12) & 0xFFFF;
+                int bitsPerSample = f.getShort(14) & 0xFFFF;
+                if (channels == 0 || sampleRate <= 0 || blockAlign == 0) {
+                    throw new IOException("Định dạng WAV không hợp lệ: " + file);
+                }
+                return new WavFormat(formatTag, channels, sampleRate, bitsPerSample, blockAlign, fmt, body, dataLength);
+            }
+
+            // Các chunk có kích thước lẻ được đệm thêm một byte
+            position = body + chunkSize + (chunkSize & 1);
+        }
+        throw new IOException("Không tìm thấy chunk data: " + file);
+    }
+
+    /**
+     * Đọc toàn bộ mẫu của file WAV PCM 16 bit mono dưới dạng số thực trong khoảng [-1, 1)
+     */
+    public static float[] readMonoSamples(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WavFormat format = readFormat(channel, file);
+            if (format.formatTag != FORMAT_PCM || format.channels != 1 || format.bitsPerSample != 16) {
+                throw new IOException("Chỉ hỗ trợ WAV PCM 16 bit mono: " + file);
+            }
+            long sampleCount = format.dataLength / 2;
+            if (sampleCount > Integer.MAX_VALUE) {
+                throw new IOException("File WAV quá dài: " + file);
+            }
+
+            float[] samples = new float[(int) sampleCount];
+            // Ánh xạ từng vùng tối đa MAX_MAP_BYTES, dữ liệu trên 2GB không ánh xạ được trong một lần
+            int index = 0;
+            while (index < samples.length) {
+                int count = (int) Math.min(samples.length - index, MAX_MAP_BYTES / 2);
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, format.dataOffset + (long) index * 2, (long) count * 2)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < count; i++) {
+                    samples[index + i] = data.getShort(i * 2) / 32768.0f;
+                }
+                index += count;
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Kiểm tra mọi khoảng đều là WAV PCM cùng định dạng
+     */
+    public boolean canConcat(List<Slice> slices) {
+        WavFormat first = null;
+        for (Slice slice : slices) {
+            if (!isWav(slice.source.getName())) {
+                return false;
+            }
+            try {
+                WavFormat format = readFormat(slice.source);
+                if (!format.isPcm()) {
+                    return false;
+                }
+                if (first == null) {
+                    first = format;
+                } else if (!first.matches(format)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                System.err.println("Không thể đọc header WAV: " + e.getMessage());
+                return false;
+            }
+        }
+        return first != null;
+    }
+
+    /**
+     * Nối các khoảng của nhiều file WAV vào một file WAV đích
+     */
+    public void concat(List<Slice> slices, File target) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            WavFormat outputFormat = null;
+            List<ByteBuffer> buffers = new ArrayList<>(slices.size() + 1);
+            long dataLength = 0;
+
+            FileChannel openChannel = null;
+            File openFile = null;
+            WavFormat openFormat = null;
+            for (Slice slice : slices) {
+                // Các đoạn liên tiếp thường dùng chung nguồn nên giữ kênh đang mở
+                if (!slice.source.equals(openFile)) {
+                    openChannel = FileChannel.open(slice.source.toPath(), StandardOpenOption.READ);
+                    channels.add(openChannel);
+                    openFile = slice.source;
+                    openFormat = readFormat(openChannel, slice.source);
+                }
+                if (outputFormat == null) {
+                    outputFormat = openFormat;
+                } else if (!outputFormat.matches(openFormat)) {
+                    throw new IOException("Định dạng WAV không khớp: " + slice.source);
+                }
+
+                long start = openFormat.byteOffset(slice.startMs);
+                long end = openFormat.byteOffset(slice.endMs);
+                if (end <= start) {
+                    continue;
+                }
+                // Một vùng ánh xạ không vượt quá 2GB nên khoảng dài được chia thành nhiều vùng liền nhau
+                for (long offset = start; offset < end; offset += MAX_MAP_BYTES) {
+                    long length = Math.min(MAX_MAP_BYTES, end - offset);
+                    buffers.add(openChannel.map(FileChannel.MapMode.READ_ONLY, openFormat.getDataOffset() + offset, length));
+                }
+                dataLength += end - start;
+            }
+
+            if (outputFormat == null) {
+                throw new IOException("Không có đoạn nào để nối");
+            }
+
+            byte[] fmt = outputFormat.fmtChunk;
+            long riffSize = 4 + (8 + fmt.length) + (8 + dataLength) + (dataLength & 1);
+            if (riffSize > 0xFFFFFFFFL) {
+                throw new IOException("File WAV kết quả vượt quá giới hạn 4GB");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(12 + 8 + fmt.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(fourCC("RIFF")).putInt(0).putInt(fourCC("WAVE"));
+            header.putInt(fourCC("fmt ")).putInt(fmt.length).put(fmt);
+            header.putInt(fourCC("data")).putInt(0);
+            header.flip();
+            buffers.add(0, header);
+            if ((dataLength & 1) != 0) {
+                buffers.add(ByteBuffer.allocate(1));
+            }
+
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+                int first = 0;
+                while (first < array.length) {
+                    out.write(array, first, array.length - first);
+                    while (first < array.length && !array[first].hasRemaining()) {
+                        first++;
+                    }
+                }
+
+                // Vá kích thước RIFF và data sau khi đã biết tổng độ dài
+                ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                size.putInt(0, (int) riffSize);
+                out.write(size, 4);
+                size.clear();
+                size.putInt(0, (int) dataLength);
+                out.write(size, 12 + 8 + fmt.length + 4);
+            }
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Kết thúc file bất ngờ khi đọc WAV");
+            }
+            position += read;
+        }
+    }
+
+    private static int fourCC(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+}
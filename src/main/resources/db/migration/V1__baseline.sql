@@ -0,0 +1,71 @@
+-- Lược đồ ban đầu. Dùng CREATE TABLE IF NOT EXISTS để áp dụng được cho cơ sở dữ liệu
+-- đã được tạo trước khi có migration (các cột metadata của audio_files được bổ sung riêng
+-- cho các cơ sở dữ liệu cũ đó).
+
+CREATE TABLE IF NOT EXISTS audio_files (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    file_name VARCHAR(255) NOT NULL,
+    file_path VARCHAR(1024) NOT NULL,
+    file_size BIGINT NULL,
+    file_mtime BIGINT NULL,
+    duration_ms BIGINT NULL,
+    sample_rate INT NULL,
+    channels INT NULL,
+    codec VARCHAR(32) NULL
+);
+
+CREATE TABLE IF NOT EXISTS audio_segments (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    file_id INT NOT NULL,
+    start_time INT NOT NULL, -- mili giây
+    end_time INT NOT NULL,   -- mili giây
+    text TEXT,
+    FOREIGN KEY (file_id) REFERENCES audio_files(id) ON DELETE CASCADE
+);
+
+-- Phân đoạn thô (từng token) của mỗi file, lưu nén trong một dòng để nhóm lại khi đọc
+CREATE TABLE IF NOT EXISTS audio_raw_segments (
+    file_id INT PRIMARY KEY,
+    token_count INT NOT NULL,
+    grouped_length_ms INT NOT NULL, -- Độ dài nhóm đang lưu trong audio_segments
+    data MEDIUMBLOB NOT NULL,
+    FOREIGN KEY (file_id) REFERENCES audio_files(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS merged_audio (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    file_name VARCHAR(255) NOT NULL,
+    file_path VARCHAR(1024) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS merged_segments (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    merged_id INT NOT NULL,
+    source_file_id INT NOT NULL,
+    start_time INT NOT NULL, -- mili giây
+    end_time INT NOT NULL,   -- mili giây
+    sequence_order INT NOT NULL,
+    FOREIGN KEY (merged_id) REFERENCES merged_audio(id) ON DELETE CASCADE,
+    FOREIGN KEY (source_file_id) REFERENCES audio_files(id)
+);
+
+-- Bộ đệm kết quả phiên âm theo nội dung file, model, ngôn ngữ và tham số giải mã
+CREATE TABLE IF NOT EXISTS transcript_cache (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    cache_key CHAR(64) NOT NULL UNIQUE,
+    content_hash CHAR(64) NOT NULL,
+    model VARCHAR(255) NOT NULL,
+    language VARCHAR(16) NOT NULL,
+    params VARCHAR(255) NOT NULL,
+    segment_count INT NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS transcript_cache_segments (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    cache_id INT NOT NULL,
+    start_time INT NOT NULL, -- mili giây
+    end_time INT NOT NULL,   -- mili giây
+    text TEXT,
+    FOREIGN KEY (cache_id) REFERENCES transcript_cache(id) ON DELETE CASCADE
+);
@@ -0,0 +1,11 @@
+-- Chỉ mục cho các truy vấn thường dùng.
+
+-- getSegmentsByFileId: WHERE file_id = ? ORDER BY start_time được đọc theo một khoảng chỉ mục, không cần sắp xếp
+CREATE INDEX idx_audio_segments_file_start ON audio_segments (file_id, start_time);
+
+-- loadMergeSegments và so sánh khi cập nhật: WHERE merged_id = ? ORDER BY sequence_order
+CREATE INDEX idx_merged_segments_merged_order ON merged_segments (merged_id, sequence_order);
+
+-- Tìm file theo đường dẫn khi nhập. VARCHAR(1024) utf8mb4 vượt giới hạn độ dài khóa của InnoDB
+-- nên chỉ đánh chỉ mục 255 ký tự đầu; phần còn lại được so sánh trên dòng
+CREATE INDEX idx_audio_files_path ON audio_files (file_path(255));
@@ -0,0 +1,6 @@
+-- Chỉ mục toàn văn cho tìm kiếm nội dung phiên âm trên toàn thư viện.
+-- Bộ phân tách ngram (ngram_token_size mặc định 2) đánh chỉ mục được cả các từ tiếng Việt ngắn
+-- mà bộ phân tách mặc định bỏ qua (innodb_ft_min_token_size = 3). InnoDB cập nhật chỉ mục khi
+-- giao dịch ghi phân đoạn được commit nên không cần đồng bộ từ ứng dụng.
+-- Chỉ mục FULLTEXT đầu tiên của bảng khiến InnoDB dựng lại bảng một lần.
+CREATE FULLTEXT INDEX idx_audio_segments_text ON audio_segments (text) WITH PARSER ngram;
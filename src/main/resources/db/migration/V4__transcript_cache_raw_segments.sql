@@ -0,0 +1,6 @@
+-- Bộ đệm phiên âm giữ cả phân đoạn thô (định dạng như audio_raw_segments.data), để file lấy kết quả
+-- từ bộ đệm vẫn nhóm lại được theo độ dài khác mà không phải chạy lại Whisper.
+-- Mục tạo trước phiên bản này có cột NULL và chỉ dùng được cho phân đoạn đã nhóm.
+ALTER TABLE transcript_cache
+    ADD COLUMN raw_token_count INT NULL,
+    ADD COLUMN raw_data MEDIUMBLOB NULL;
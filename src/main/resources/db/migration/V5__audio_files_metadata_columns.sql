@@ -0,0 +1,46 @@
+-- Các cột metadata của audio_files cho cơ sở dữ liệu tạo trước khi có migration: V1 dùng
+-- CREATE TABLE IF NOT EXISTS nên không thêm cột vào bảng audio_files cũ. MySQL không có
+-- ADD COLUMN IF NOT EXISTS, mỗi cột chỉ được thêm khi information_schema chưa có nó, nên
+-- script chạy lại được và không làm gì với cơ sở dữ liệu tạo từ V1.
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE audio_files ADD COLUMN file_size BIGINT NULL', 'DO 0')
+            FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = 'audio_files' AND column_name = 'file_size');
+PREPARE add_column FROM @ddl;
+EXECUTE add_column;
+DEALLOCATE PREPARE add_column;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE audio_files ADD COLUMN file_mtime BIGINT NULL', 'DO 0')
+            FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = 'audio_files' AND column_name = 'file_mtime');
+PREPARE add_column FROM @ddl;
+EXECUTE add_column;
+DEALLOCATE PREPARE add_column;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE audio_files ADD COLUMN duration_ms BIGINT NULL', 'DO 0')
+            FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = 'audio_files' AND column_name = 'duration_ms');
+PREPARE add_column FROM @ddl;
+EXECUTE add_column;
+DEALLOCATE PREPARE add_column;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE audio_files ADD COLUMN sample_rate INT NULL', 'DO 0')
+            FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = 'audio_files' AND column_name = 'sample_rate');
+PREPARE add_column FROM @ddl;
+EXECUTE add_column;
+DEALLOCATE PREPARE add_column;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE audio_files ADD COLUMN channels INT NULL', 'DO 0')
+            FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = 'audio_files' AND column_name = 'channels');
+PREPARE add_column FROM @ddl;
+EXECUTE add_column;
+DEALLOCATE PREPARE add_column;
+
+SET @ddl = (SELECT IF(COUNT(*) = 0, 'ALTER TABLE audio_files ADD COLUMN codec VARCHAR(32) NULL', 'DO 0')
+            FROM information_schema.columns
+            WHERE table_schema = DATABASE() AND table_name = 'audio_files' AND column_name = 'codec');
+PREPARE add_column FROM @ddl;
+EXECUTE add_column;
+DEALLOCATE PREPARE add_column;
@@ -0,0 +1,87 @@
+package com.soundconverter.ai;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Server giả lập API của whisper.cpp server (GET /health, POST /inference) chỉ lắng nghe trên localhost.
+ * Dùng trong kiểm thử backend server khi không có whisper-server.exe hoặc model: trả về một phụ đề SRT
+ * cố định với độ dài ước lượng từ kích thước dữ liệu WAV 16 kHz mono được gửi lên.
+ */
+public class LocalWhisperServer {
+
+    static final String TEXT = "local whisper stand-in";
+
+    // WAV PCM 16 bit, 16 kHz, mono
+    private static final int BYTES_PER_SECOND = 16000 * 2;
+
+    private final HttpServer server;
+    private final AtomicLong requestCount = new AtomicLong();
+
+    public LocalWhisperServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-whisper-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/health", exchange -> respond(exchange, 200, "application/json", "{\"status\":\"ok\"}"));
+        server.createContext("/inference", this::handleInference);
+    }
+
+    public void start() {
+        server.start();
+        System.err.println("Server Whisper giả lập đang chạy tại cổng " + getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    private void handleInference(HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            respond(exchange, 405, "text/plain", "Method Not Allowed");
+            return;
+        }
+        requestCount.incrementAndGet();
+
+        long received = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream body = exchange.getRequestBody()) {
+            int read;
+            while ((read = body.read(buffer)) >= 0) {
+                received += read;
+            }
+        }
+
+        long durationMs = Math.max(1000, received * 1000 / BYTES_PER_SECOND);
+        String srt = "1\n00:00:00,000 --> " + SrtParser.formatTimestamp(durationMs) + "\n" + TEXT + "\n\n";
+        respond(exchange, 200, "application/x-subrip; charset=utf-8", srt);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
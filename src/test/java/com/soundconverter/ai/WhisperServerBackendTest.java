@@ -0,0 +1,105 @@
+package com.soundconverter.ai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.soundconverter.models.AudioSegment;
+
+/**
+ * Kiểm thử backend server với LocalWhisperServer thay cho whisper-server.exe
+ */
+class WhisperServerBackendTest {
+
+    @TempDir
+    Path tempDir;
+
+    private LocalWhisperServer server;
+    private WhisperServerBackend backend;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new LocalWhisperServer(0);
+        server.start();
+        backend = new WhisperServerBackend(server.getPort());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void transcribesWavThroughServer() throws IOException {
+        File wav = writeSilence("two_seconds.wav", 2000);
+
+        List<AudioSegment> segments = backend.transcribe(wav, "ggml-base.bin", "en", 7);
+
+        assertEquals(1, segments.size());
+        AudioSegment segment = segments.get(0);
+        assertEquals(7, segment.getFileId());
+        assertEquals(0, segment.getStartTime());
+        assertEquals(2000, segment.getEndTime(), 50);
+        assertEquals(LocalWhisperServer.TEXT, segment.getText());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void concurrentRequestsForDifferentModelsAllComplete() throws Exception {
+        File wav = writeSilence("one_second.wav", 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<AudioSegment>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String model = i % 2 == 0 ? "ggml-base.en.bin" : "ggml-base-q8_0.bin";
+                String language = i % 2 == 0 ? "en" : "vi";
+                results.add(executor.submit(() -> backend.transcribe(wav, model, language, 1)));
+            }
+            for (Future<List<AudioSegment>> result : results) {
+                assertEquals(1, result.get().size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8, server.getRequestCount());
+    }
+
+    /**
+     * Ghi file WAV PCM 16 bit, 16 kHz, mono toàn im lặng
+     */
+    private File writeSilence(String name, int durationMs) throws IOException {
+        File file = tempDir.resolve(name).toFile();
+        int dataBytes = 16000 * 2 * durationMs / 1000;
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeBytes("RIFF");
+            out.writeInt(Integer.reverseBytes(36 + dataBytes));
+            out.writeBytes("WAVE");
+            out.writeBytes("fmt ");
+            out.writeInt(Integer.reverseBytes(16));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeShort(Short.reverseBytes((short) 1));
+            out.writeInt(Integer.reverseBytes(16000));
+            out.writeInt(Integer.reverseBytes(16000 * 2));
+            out.writeShort(Short.reverseBytes((short) 2));
+            out.writeShort(Short.reverseBytes((short) 16));
+            out.writeBytes("data");
+            out.writeInt(Integer.reverseBytes(dataBytes));
+            out.write(new byte[dataBytes]);
+        }
+        return file;
+    }
+}